@@ -0,0 +1,651 @@
+package main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact hand-written wire format. Integers are varints, and every string in a message
+ * (restaurant names, categories, product names...) is written once in a per-message
+ * dictionary and referenced by index afterwards. Types it does not know about fall back
+ * to embedded Java serialization.
+ */
+public class BinaryCodec implements MessageCodec {
+    private static final int T_NULL = 0;
+    private static final int T_STRING = 1;
+    private static final int T_INT = 2;
+    private static final int T_RESTAURANT = 3;
+    private static final int T_FILTER_SPEC = 4;
+    private static final int T_MAP_RESULT = 5;
+    private static final int T_REDUCE_RESULT = 6;
+    private static final int T_SALE = 7;
+    private static final int T_RATING = 8;
+    private static final int T_PRODUCT_ACTION = 9;
+    private static final int T_WORKER_INFO = 10;
+    private static final int T_COUNT_MAP = 11;
+    private static final int T_LONG = 12;
+    private static final int T_SHARD_MIGRATION = 13;
+    private static final int T_SHARD_BATCH = 14;
+    private static final int T_SALE_BATCH = 15;
+    private static final int T_REPORT_REQUEST = 16;
+    private static final int T_REGISTRATION = 17;
+    private static final int T_JAVA = 127;
+
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+    private static final PriceCategory[] PRICES = PriceCategory.values();
+    private static final SearchOrder[] ORDERS = SearchOrder.values();
+
+    @Override
+    public byte id() {
+        return BINARY;
+    }
+
+    @Override
+    public byte[] encode(Message msg) throws IOException {
+        Writer body = new Writer();
+        body.varint(msg.getType().ordinal());
+        body.varlong(msg.getRequestId());
+        writeValue(body, msg.getPayload());
+
+        Writer out = new Writer();
+        out.varint(body.strings.size());
+        for (String s : body.strings.keySet()) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            out.varint(b.length);
+            out.bytes(b, 0, b.length);
+        }
+        out.bytes(body.buf, 0, body.len);
+        return out.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] data, int off, int len) throws IOException {
+        Reader in = new Reader(data, off, len);
+        int n = in.count();
+        String[] dict = new String[n];
+        for (int i = 0; i < n; i++) {
+            int bl = in.varint();
+            dict[i] = new String(data, in.take(bl), bl, StandardCharsets.UTF_8);
+        }
+        in.dict = dict;
+        int type = in.varint();
+        if (type < 0 || type >= TYPES.length) throw new IOException("Bad message type: " + type);
+        long requestId = in.varlong();
+        Object payload;
+        try {
+            payload = readValue(in);
+        } catch (RuntimeException e) {
+            // A corrupt frame can still parse into values the payload classes refuse (a null key, say)
+            throw new IOException("Malformed frame: " + e, e);
+        }
+        return new Message(TYPES[type], payload, requestId);
+    }
+
+    // ---- values ----
+
+    private static void writeValue(Writer w, Object v) throws IOException {
+        if (v == null) {
+            w.varint(T_NULL);
+        } else if (v instanceof String) {
+            w.varint(T_STRING);
+            w.string((String) v);
+        } else if (v instanceof Integer) {
+            w.varint(T_INT);
+            w.zigzag((Integer) v);
+        } else if (v instanceof Restaurant) {
+            w.varint(T_RESTAURANT);
+            writeRestaurant(w, (Restaurant) v);
+        } else if (v instanceof FilterSpec) {
+            w.varint(T_FILTER_SPEC);
+            writeFilterSpec(w, (FilterSpec) v);
+        } else if (v instanceof MapResult) {
+            w.varint(T_MAP_RESULT);
+            MapResult mr = (MapResult) v;
+            writeRestaurants(w, mr.getRestaurants());
+            writeSummaries(w, mr.getSummaries());
+            writeCounts(w, mr.getVentasPorKey());
+        } else if (v instanceof ReduceResult) {
+            w.varint(T_REDUCE_RESULT);
+            ReduceResult rr = (ReduceResult) v;
+            writeRestaurants(w, rr.getRestaurants());
+            writeSummaries(w, rr.getSummaries());
+            writeCounts(w, rr.getVentasPorKey());
+            w.varint(rr.getMissingWorkers().size());
+            for (String id : rr.getMissingWorkers()) w.string(id);
+        } else if (v instanceof Sale) {
+            w.varint(T_SALE);
+            writeSale(w, (Sale) v);
+        } else if (v instanceof SaleBatch) {
+            w.varint(T_SALE_BATCH);
+            List<Sale> sales = ((SaleBatch) v).getSales();
+            w.varint(sales.size());
+            for (Sale s : sales) writeSale(w, s);
+            w.zigzag(((SaleBatch) v).getTime());
+        } else if (v instanceof Rating) {
+            w.varint(T_RATING);
+            Rating r = (Rating) v;
+            w.string(r.getStoreName());
+            w.zigzag(r.getStars());
+        } else if (v instanceof ProductAction) {
+            w.varint(T_PRODUCT_ACTION);
+            ProductAction pa = (ProductAction) v;
+            w.string(pa.getStoreName());
+            w.string(pa.getProductName());
+            w.varint(pa.getPrice() == null ? 0 : 1);
+            if (pa.getPrice() != null) w.dbl(pa.getPrice());
+        } else if (v instanceof WorkerInfo) {
+            w.varint(T_WORKER_INFO);
+            WorkerInfo wi = (WorkerInfo) v;
+            w.string(wi.getId());
+            w.string(wi.getHost());
+            w.varint(wi.getPort());
+            w.varint(wi.getWeight());
+        } else if (v instanceof Registration) {
+            w.varint(T_REGISTRATION);
+            Registration reg = (Registration) v;
+            writeValue(w, reg.getWorker());
+            w.varint(reg.getRestaurants());
+        } else if (v instanceof ReportRequest) {
+            w.varint(T_REPORT_REQUEST);
+            ReportRequest rq = (ReportRequest) v;
+            w.string(rq.getType());
+            writeScope(w, rq.getScope());
+        } else if (v instanceof Long) {
+            w.varint(T_LONG);
+            w.zigzag((Long) v);
+        } else if (v instanceof ShardMigration) {
+            w.varint(T_SHARD_MIGRATION);
+            ShardMigration m = (ShardMigration) v;
+            w.zigzag(m.getId());
+            writeValue(w, m.getTarget());
+            w.varint(m.getNames().size());
+            for (String name : m.getNames()) w.string(name);
+            w.varint(m.isCopy() ? 1 : 0);
+        } else if (v instanceof ShardBatch) {
+            w.varint(T_SHARD_BATCH);
+            ShardBatch b = (ShardBatch) v;
+            w.zigzag(b.getMigrationId());
+            writeRestaurants(w, b.getRestaurants());
+        } else if (v instanceof Map && isCountMap((Map<?, ?>) v)) {
+            w.varint(T_COUNT_MAP);
+            @SuppressWarnings("unchecked")
+            Map<String, Long> m = (Map<String, Long>) v;
+            writeCounts(w, m);
+        } else if (v instanceof Serializable) {
+            w.varint(T_JAVA);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+                oos.writeObject(v);
+            }
+            byte[] b = bos.toByteArray();
+            w.varint(b.length);
+            w.bytes(b, 0, b.length);
+        } else {
+            throw new NotSerializableException(v.getClass().getName());
+        }
+    }
+
+    private static Object readValue(Reader r) throws IOException {
+        int tag = r.varint();
+        switch (tag) {
+            case T_NULL: return null;
+            case T_STRING: return r.string();
+            case T_INT: return r.zigzag();
+            case T_RESTAURANT: return readRestaurant(r);
+            case T_FILTER_SPEC: return readFilterSpec(r);
+            case T_MAP_RESULT: {
+                MapResult mr = new MapResult();
+                for (Restaurant rest : readRestaurants(r)) mr.appendRestaurant(rest);
+                for (RestaurantSummary s : readSummaries(r)) mr.appendSummary(s);
+                readCounts(r).forEach(mr::addVenta);
+                return mr;
+            }
+            case T_REDUCE_RESULT: {
+                List<Restaurant> rests = readRestaurants(r);
+                List<RestaurantSummary> sums = readSummaries(r);
+                Map<String, Long> ventas = readCounts(r);
+                // ReduceResult recomputes the total itself
+                ventas.remove("total");
+                ReduceResult rr = new ReduceResult(rests, sums, ventas);
+                int n = r.count();
+                List<String> missing = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) missing.add(r.string());
+                rr.setMissingWorkers(missing);
+                return rr;
+            }
+            case T_SALE: return readSale(r);
+            case T_SALE_BATCH: {
+                int n = r.count();
+                List<Sale> sales = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) sales.add(readSale(r));
+                return new SaleBatch(sales, r.zigzagLong());
+            }
+            case T_RATING: {
+                String store = r.string();
+                return new Rating(store, r.zigzag());
+            }
+            case T_PRODUCT_ACTION: {
+                String store = r.string();
+                String product = r.string();
+                Double price = r.varint() == 0 ? null : r.dbl();
+                return new ProductAction(store, product, price);
+            }
+            case T_WORKER_INFO: {
+                String id = r.string();
+                String host = r.string();
+                int port = r.varint();
+                return new WorkerInfo(id, host, port, r.varint());
+            }
+            case T_COUNT_MAP: return readCounts(r);
+            case T_LONG: return r.zigzagLong();
+            case T_REGISTRATION: {
+                WorkerInfo worker = (WorkerInfo) readValue(r);
+                return new Registration(worker, r.varint());
+            }
+            case T_REPORT_REQUEST: {
+                String type = r.string();
+                return new ReportRequest(type, readScope(r));
+            }
+            case T_SHARD_MIGRATION: {
+                long id = r.zigzagLong();
+                WorkerInfo target = (WorkerInfo) readValue(r);
+                int n = r.count();
+                List<String> names = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) names.add(r.string());
+                return new ShardMigration(id, target, names, r.varint() == 1);
+            }
+            case T_SHARD_BATCH: {
+                long id = r.zigzagLong();
+                return new ShardBatch(id, readRestaurants(r));
+            }
+            case T_JAVA: {
+                int n = r.varint();
+                int at = r.take(n);
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(r.data, at, n))) {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            }
+            default: throw new IOException("Unknown value tag: " + tag);
+        }
+    }
+
+    /** {@code values[i]}, or an IOException for an ordinal this build does not know. */
+    private static <E> E ordinal(E[] values, int i) throws IOException {
+        if (i < 0 || i >= values.length) throw new IOException("bad enum ordinal " + i);
+        return values[i];
+    }
+
+    private static boolean isCountMap(Map<?, ?> m) {
+        for (Map.Entry<?, ?> e : m.entrySet()) {
+            if (!(e.getKey() instanceof String) || !(e.getValue() instanceof Long)) return false;
+        }
+        return true;
+    }
+
+    private static void writeCounts(Writer w, Map<String, Long> m) {
+        w.varint(m.size());
+        for (Map.Entry<String, Long> e : m.entrySet()) {
+            w.string(e.getKey());
+            w.zigzag(e.getValue());
+        }
+    }
+
+    private static Map<String, Long> readCounts(Reader r) throws IOException {
+        int n = r.count();
+        Map<String, Long> m = new HashMap<>(Math.max(4, n * 2));
+        for (int i = 0; i < n; i++) {
+            String k = r.string();
+            m.put(k, r.zigzagLong());
+        }
+        return m;
+    }
+
+    private static void writeRestaurants(Writer w, List<Restaurant> list) {
+        w.varint(list.size());
+        for (Restaurant r : list) writeRestaurant(w, r);
+    }
+
+    private static List<Restaurant> readRestaurants(Reader r) throws IOException {
+        int n = r.count();
+        List<Restaurant> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) list.add(readRestaurant(r));
+        return list;
+    }
+
+    private static void writeRestaurant(Writer w, Restaurant r) {
+        w.string(r.getName());
+        w.dbl(r.getLatitude());
+        w.dbl(r.getLongitude());
+        w.string(r.getFoodCategory());
+        w.varint(r.getPriceCategory() == null ? 0 : r.getPriceCategory().ordinal() + 1);
+        w.dbl(r.getAverageRating());
+        w.varint(r.getNoOfVotes());
+        Map<String, Product> products = r.getProducts();
+        w.varint(products.size());
+        for (Product p : products.values()) {
+            w.string(p.getName());
+            w.dbl(p.getPrice());
+        }
+        writeCounts(w, r.getSales());
+        writeTimeline(w, r.getSalesTimeline());
+    }
+
+    private static void writeTimeline(Writer w, SalesTimeline t) {
+        // Collected first: sales may add buckets while we walk, and the count goes up front
+        List<TimelineBucket> buckets = new ArrayList<>();
+        t.forEachBucket((product, tier, period, count) -> buckets.add(new TimelineBucket(product, tier, period, count)));
+        w.varint(buckets.size());
+        for (TimelineBucket b : buckets) {
+            w.string(b.product);
+            w.varint(b.tier);
+            w.zigzag(b.period);
+            w.zigzag(b.count);
+        }
+    }
+
+    private static final class TimelineBucket {
+        final String product;
+        final int tier;
+        final long period, count;
+
+        TimelineBucket(String product, int tier, long period, long count) {
+            this.product = product;
+            this.tier = tier;
+            this.period = period;
+            this.count = count;
+        }
+    }
+
+    private static void readTimeline(Reader r, SalesTimeline t) throws IOException {
+        int n = r.count();
+        for (int i = 0; i < n; i++) {
+            String product = r.string();
+            int tier = r.varint();
+            if (tier < 0 || tier >= SalesTimeline.WIDTHS.length) throw new IOException("Bad timeline tier: " + tier);
+            long period = r.zigzagLong();
+            t.restore(product, tier, period, r.zigzagLong());
+        }
+    }
+
+    private static Restaurant readRestaurant(Reader r) throws IOException {
+        String name = r.string();
+        double lat = r.dbl();
+        double lon = r.dbl();
+        String cat = r.string();
+        int pc = r.varint();
+        double avg = r.dbl();
+        int votes = r.varint();
+        Restaurant rest = new Restaurant(name, lat, lon, cat, avg, pc == 0 ? null : ordinal(PRICES, pc - 1));
+        rest.restoreRating(avg, votes);
+        int np = r.count();
+        for (int i = 0; i < np; i++) {
+            String pn = r.string();
+            rest.addProduct(pn, r.dbl());
+        }
+        readCounts(r).forEach(rest::addSale);
+        readTimeline(r, rest.getSalesTimeline());
+        return rest;
+    }
+
+    private static void writeSale(Writer w, Sale s) {
+        w.string(s.getStoreName());
+        w.varint(s.getItems().size());
+        for (Map.Entry<String, Integer> e : s.getItems().entrySet()) {
+            w.string(e.getKey());
+            w.zigzag(e.getValue());
+        }
+    }
+
+    private static Sale readSale(Reader r) throws IOException {
+        String store = r.string();
+        int n = r.count();
+        Map<String, Integer> items = new HashMap<>(Math.max(4, n * 2));
+        for (int i = 0; i < n; i++) {
+            String k = r.string();
+            items.put(k, r.zigzag());
+        }
+        return new Sale(store, items);
+    }
+
+    private static void writeSummaries(Writer w, List<RestaurantSummary> list) {
+        w.varint(list.size());
+        for (RestaurantSummary s : list) {
+            int mask = s.getFieldMask();
+            w.string(s.getName());
+            w.varint(mask);
+            if (RestaurantSummary.has(mask, RestaurantSummary.Field.CATEGORY)) w.string(s.getFoodCategory());
+            if (RestaurantSummary.has(mask, RestaurantSummary.Field.RATING)) {
+                w.dbl(s.getAverageRating());
+                w.varint(s.getNoOfVotes());
+            }
+            if (RestaurantSummary.has(mask, RestaurantSummary.Field.PRICE)) {
+                w.varint(s.getPriceCategory() == null ? 0 : s.getPriceCategory().ordinal() + 1);
+            }
+            if (RestaurantSummary.has(mask, RestaurantSummary.Field.LOCATION)) {
+                w.dbl(s.getLatitude());
+                w.dbl(s.getLongitude());
+            }
+        }
+    }
+
+    private static List<RestaurantSummary> readSummaries(Reader r) throws IOException {
+        int n = r.count();
+        List<RestaurantSummary> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String name = r.string();
+            int mask = r.varint();
+            String cat = RestaurantSummary.has(mask, RestaurantSummary.Field.CATEGORY) ? r.string() : null;
+            double avg = 0;
+            int votes = 0;
+            if (RestaurantSummary.has(mask, RestaurantSummary.Field.RATING)) {
+                avg = r.dbl();
+                votes = r.varint();
+            }
+            PriceCategory pc = null;
+            if (RestaurantSummary.has(mask, RestaurantSummary.Field.PRICE)) {
+                int p = r.varint();
+                pc = p == 0 ? null : ordinal(PRICES, p - 1);
+            }
+            double lat = 0, lon = 0;
+            if (RestaurantSummary.has(mask, RestaurantSummary.Field.LOCATION)) {
+                lat = r.dbl();
+                lon = r.dbl();
+            }
+            list.add(new RestaurantSummary(name, mask, cat, avg, votes, pc, lat, lon));
+        }
+        return list;
+    }
+
+    private static void writeFilterSpec(Writer w, FilterSpec fs) {
+        w.dbl(fs.getLatitude());
+        w.dbl(fs.getLongitude());
+        Set<String> cats = fs.getFoodCategories();
+        w.varint(cats == null ? 0 : cats.size());
+        if (cats != null) for (String c : cats) w.string(c);
+        w.zigzag(fs.getMinStars());
+        w.varint(fs.getPriceCategory() == null ? 0 : fs.getPriceCategory().ordinal() + 1);
+        w.varint(fs.getOrder().ordinal());
+        w.varint(fs.getLimit());
+        // 0 = full restaurants, otherwise 1 + requested summary field mask
+        w.varint(fs.isSummary() ? 1 + RestaurantSummary.mask(fs.getSummaryFields()) : 0);
+        writeScope(w, fs.getScope());
+    }
+
+    // 0 = unscoped, otherwise 1 + number of [start, end] token intervals
+    private static void writeScope(Writer w, TokenScope scope) {
+        if (scope == null) {
+            w.varint(0);
+            return;
+        }
+        w.varint(1 + scope.size());
+        for (int i = 0; i < scope.size(); i++) {
+            w.zigzag(scope.startAt(i));
+            w.zigzag(scope.endAt(i));
+        }
+    }
+
+    private static TokenScope readScope(Reader r) throws IOException {
+        int n = r.count() - 1;
+        if (n < 0) return null;
+        long[] starts = new long[n];
+        long[] ends = new long[n];
+        for (int i = 0; i < n; i++) {
+            starts[i] = r.zigzagLong();
+            ends[i] = r.zigzagLong();
+        }
+        return new TokenScope(starts, ends);
+    }
+
+    private static FilterSpec readFilterSpec(Reader r) throws IOException {
+        double lat = r.dbl();
+        double lon = r.dbl();
+        int n = r.count();
+        Set<String> cats = new HashSet<>(Math.max(4, n * 2));
+        for (int i = 0; i < n; i++) cats.add(r.string());
+        int minStars = r.zigzag();
+        int pc = r.varint();
+        SearchOrder order = ordinal(ORDERS, r.varint());
+        int limit = r.varint();
+        FilterSpec fs = new FilterSpec(lat, lon, cats, minStars, pc == 0 ? null : ordinal(PRICES, pc - 1), order, limit);
+        int projection = r.varint();
+        if (projection != 0) fs = fs.summarized(RestaurantSummary.fields(projection - 1));
+        TokenScope scope = readScope(r);
+        return scope == null ? fs : fs.scoped(scope);
+    }
+
+    // ---- primitives ----
+
+    private static final class Writer {
+        byte[] buf = new byte[256];
+        int len;
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+
+        void ensure(int extra) {
+            if (len + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+            }
+        }
+
+        void bytes(byte[] b, int off, int n) {
+            ensure(n);
+            System.arraycopy(b, off, buf, len, n);
+            len += n;
+        }
+
+        void varint(int v) {
+            varlong(v & 0xFFFFFFFFL);
+        }
+
+        void varlong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        void zigzag(int v) {
+            varint((v << 1) ^ (v >> 31));
+        }
+
+        void zigzag(long v) {
+            varlong((v << 1) ^ (v >> 63));
+        }
+
+        void dbl(double d) {
+            long bits = Double.doubleToRawLongBits(d);
+            ensure(8);
+            for (int i = 7; i >= 0; i--) {
+                buf[len++] = (byte) (bits >>> (i * 8));
+            }
+        }
+
+        void string(String s) {
+            if (s == null) {
+                varint(0);
+                return;
+            }
+            Integer idx = strings.get(s);
+            if (idx == null) {
+                idx = strings.size();
+                strings.put(s, idx);
+            }
+            varint(idx + 1);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+    }
+
+    private static final class Reader {
+        final byte[] data;
+        int pos;
+        final int end;
+        String[] dict;
+
+        Reader(byte[] data, int off, int len) {
+            this.data = data;
+            this.pos = off;
+            this.end = off + len;
+        }
+
+        int take(int n) throws IOException {
+            if (n < 0 || pos + n > end) throw new EOFException("Truncated frame");
+            int at = pos;
+            pos += n;
+            return at;
+        }
+
+        int varint() throws IOException {
+            return (int) varlong();
+        }
+
+        long varlong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= end) throw new EOFException("Truncated frame");
+                byte b = data[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        /** A length or element count; every element takes at least a byte, so more than are left is malformed. */
+        int count() throws IOException {
+            int n = varint();
+            if (n < 0 || n > end - pos) throw new IOException("Bad count: " + n);
+            return n;
+        }
+
+        int zigzag() throws IOException {
+            int v = varint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        long zigzagLong() throws IOException {
+            long v = varlong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        double dbl() throws IOException {
+            int at = take(8);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (data[at + i] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String string() throws IOException {
+            int idx = varint();
+            if (idx == 0) return null;
+            if (idx < 0 || idx > dict.length) throw new IOException("Bad string index: " + idx);
+            return dict[idx - 1];
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package main;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+
+/** One thread per connection; pipelined requests still run on the shared executor. */
+public class BlockingServerEngine extends ServerEngine {
+    private ServerSocket server;
+
+    public BlockingServerEngine(MessageHandler handler, ExecutorService executor) {
+        super(handler, executor);
+    }
+
+    @Override
+    public void bind(int port) throws IOException {
+        server = new ServerSocket(port);
+    }
+
+    @Override
+    public void serve() throws IOException {
+        while (!server.isClosed()) {
+            Socket sock = server.accept();
+            // Pipelined replies go out back to back; don't let Nagle hold them for an ACK
+            sock.setTcpNoDelay(true);
+            new Thread(new ConnectionLoop(sock, handler, executor)).start();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (server != null) server.close();
+    }
+}
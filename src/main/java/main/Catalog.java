@@ -0,0 +1,116 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Immutable snapshot of a worker's search index, published by the writer and read by searches
+ * without any lock. The index is split by restaurant name into segments so a write copies
+ * only the segment it touches, and within it only the bitmaps, cells and slot table it
+ * changes; every other part is shared with the previous snapshot.
+ */
+public final class Catalog {
+    private final SearchIndex[] segments;
+
+    private Catalog(SearchIndex[] segments) {
+        this.segments = segments;
+    }
+
+    public static Catalog empty(int segments, double cellDeg) {
+        SearchIndex[] s = new SearchIndex[Math.max(1, segments)];
+        for (int i = 0; i < s.length; i++) s[i] = new SearchIndex(cellDeg);
+        return new Catalog(s);
+    }
+
+    /** Same contract as {@link SearchIndex#search}, over every segment. */
+    public void search(FilterSpec fs, Consumer<Restaurant> out) {
+        for (SearchIndex s : segments) s.search(fs, out);
+    }
+
+    /**
+     * Searches every segment with one result holder per segment, in parallel on {@code pool};
+     * the holders come back in segment order for the caller to merge. Segments are immutable,
+     * so they need no coordination beyond each having its own holder.
+     */
+    public <T> List<T> searchParallel(FilterSpec fs, Supplier<T> holder, BiConsumer<T, Restaurant> accept,
+                                      ForkJoinPool pool) {
+        List<Callable<T>> tasks = new ArrayList<>(segments.length);
+        for (SearchIndex s : segments) {
+            tasks.add(() -> {
+                T h = holder.get();
+                s.search(fs, r -> accept.accept(h, r));
+                return h;
+            });
+        }
+        List<T> out = new ArrayList<>(segments.length);
+        try {
+            for (Future<T> f : pool.invokeAll(tasks)) out.add(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("search interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("segment search failed", e.getCause());
+        }
+        return out;
+    }
+
+    /** Upper bound on the restaurants a search would visit, summed over the segments. */
+    public long cost(FilterSpec fs) {
+        long n = 0;
+        for (SearchIndex s : segments) n += s.cost(fs);
+        return n;
+    }
+
+    /** Whether the index's rating bucket for {@code r} matches its current average (true if not indexed). */
+    public boolean ratingIndexed(Restaurant r) {
+        return segments[Math.floorMod(r.getName().hashCode(), segments.length)].ratingIndexed(r);
+    }
+
+    public int size() {
+        int n = 0;
+        for (SearchIndex s : segments) n += s.size();
+        return n;
+    }
+
+    /** Starts the next snapshot. Only one editor may be open at a time, and only on the latest snapshot. */
+    public Editor edit() {
+        return new Editor();
+    }
+
+    public final class Editor {
+        private final SearchIndex[] next = segments.clone();
+        private final boolean[] edited = new boolean[segments.length];
+
+        public void add(Restaurant r) {
+            segment(r.getName()).add(r);
+        }
+
+        public void remove(String name) {
+            segment(name).remove(name);
+        }
+
+        public void updateRating(Restaurant r) {
+            segment(r.getName()).updateRating(r);
+        }
+
+        public Catalog build() {
+            return new Catalog(next);
+        }
+
+        private SearchIndex segment(String name) {
+            int i = Math.floorMod(name.hashCode(), next.length);
+            if (!edited[i]) {
+                next[i] = next[i].edit();
+                edited[i] = true;
+            }
+            return next[i];
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package main;
+
+import java.util.Objects;
+
+/**
+ * PASS/FAIL lines and exit status for the self-checking test programs (CodecTest, WalRecoveryTest...).
+ * Each program runs in its own JVM, so one failure count per JVM is enough.
+ */
+final class Checks {
+    private static int failures = 0;
+
+    private Checks() {}
+
+    static void check(String what, Object expected, Object actual) {
+        report(what, Objects.equals(expected, actual), "expected " + expected + " but got " + actual);
+    }
+
+    static void checkBetween(String what, double low, double high, long actual) {
+        report(what, actual >= low && actual <= high, "expected " + (long) low + ".." + (long) high + " but got " + actual);
+    }
+
+    private static void report(String what, boolean ok, String detail) {
+        if (!ok) failures++;
+        System.out.println((ok ? "PASS " : "FAIL ") + what + (ok ? "" : ": " + detail));
+    }
+
+    /** Prints the verdict for {@code test} and exits 0 if every check passed, 1 otherwise. */
+    static void finish(String test) {
+        System.out.println(failures == 0 ? "\n=== " + test + " Test Passed ===" : "\n=== " + test + " Test FAILED ===");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -15,14 +15,13 @@ public class ClientConsole {
         int port = Integer.parseInt(args[1]);
 
         try (Socket sock = new Socket(host, port);
-             ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
-             ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
+             MessageChannel channel = MessageChannel.connect(sock, MessageCodec.preferred());
              BufferedReader console = new BufferedReader(new InputStreamReader(System.in))) {
 
             System.out.println("Connected to Master in " + host + ":" + port);
             System.out.println("Commands: ping,");
-            System.out.println("          search <cats> - <minStars> - [priceCat] (pc optional),");
-            System.out.println("          buy <store> <item:qty,...>, rate <store> <stars>, exit");
+            System.out.println("          search <cats> - <minStars> - [priceCat] - [order[:limit]] (pc, order optional),");
+            System.out.println("          details <store>, buy <store> <item:qty,...>, rate <store> <stars>, exit");
 
             final double DEFAULT_LAT = 40.01;
             final double DEFAULT_LON = 23.01;
@@ -36,18 +35,18 @@ public class ClientConsole {
 
                 switch (cmd) {
                     case "ping":
-                        oos.writeObject(new Message(Message.MessageType.PING, null));
+                        channel.write(new Message(Message.MessageType.PING, null));
                         break;
 
                     case "search": {
                         if (parts.length < 2) {
-                            System.out.println("Use: search <cats> - <minStars> - [priceCat] (pc optional)");
+                            System.out.println("Use: search <cats> - <minStars> - [priceCat] - [distance|rating|score[:limit]]");
                             continue;
                         }
                         String[] fields = parts[1].split("\s*-\s*", -1);
 
-                        if (fields.length < 2 || fields.length > 3) {
-                            System.out.println("Uncompleted search, its needed from 2 to 3 fields separated by '-'");
+                        if (fields.length < 2 || fields.length > 4) {
+                            System.out.println("Uncompleted search, its needed from 2 to 4 fields separated by '-'");
                             continue;
                         }
 
@@ -60,18 +59,36 @@ public class ClientConsole {
                             minStars = Integer.parseInt(fields[1]);
                         }
                         PriceCategory pc = null;
-                        if (fields.length == 3 && !fields[2].isEmpty()) {
+                        if (fields.length >= 3 && !fields[2].isEmpty()) {
                             pc = PriceCategory.valueOf(fields[2]);
                         }
+                        SearchOrder order = SearchOrder.NONE;
+                        int limit = 0;
+                        if (fields.length == 4 && !fields[3].isEmpty()) {
+                            String[] ol = fields[3].split(":");
+                            order = SearchOrder.valueOf(ol[0].toUpperCase());
+                            if (ol.length > 1) limit = Integer.parseInt(ol[1]);
+                        }
 
                         FilterSpec fs = new FilterSpec(
                                 DEFAULT_LAT,
                                 DEFAULT_LON,
                                 catSet,
                                 minStars != null ? minStars : 0,
-                                pc
-                        );
-                        oos.writeObject(new Message(Message.MessageType.TASK, fs));
+                                pc,
+                                order,
+                                limit
+                        ).summarized(RestaurantSummary.DEFAULT_FIELDS);
+                        channel.write(new Message(Message.MessageType.TASK, fs));
+                        break;
+                    }
+
+                    case "details": {
+                        if (parts.length < 2) {
+                            System.out.println("Use: details <store>");
+                            continue;
+                        }
+                        channel.write(new Message(Message.MessageType.DETAILS, parts[1].trim()));
                         break;
                     }
 
@@ -90,7 +107,7 @@ public class ClientConsole {
                             }
                         }
                         Sale sale = new Sale(store, map);
-                        oos.writeObject(new Message(Message.MessageType.SALE, sale));
+                        channel.write(new Message(Message.MessageType.SALE, sale));
                         break;
                     }
 
@@ -107,7 +124,11 @@ public class ClientConsole {
                         String store = tokens[0];
                         int stars = Integer.parseInt(tokens[1]);
                         Rating rating = new Rating(store, stars);
-                        oos.writeObject(new Message(Message.MessageType.RATE, rating));
+                        if (!rating.isValid()) {
+                            System.out.println("Stars must be 0.." + Restaurant.MAX_STARS);
+                            continue;
+                        }
+                        channel.write(new Message(Message.MessageType.RATE, rating));
                         break;
                     }
 
@@ -116,8 +137,7 @@ public class ClientConsole {
                         continue;
                 }
 
-                oos.flush();
-                Message resp = (Message) ois.readObject();
+                Message resp = channel.read();
                 System.out.println("Master> " + resp.getPayload());
             }
             System.out.println("Exiting...");
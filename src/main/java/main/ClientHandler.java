@@ -1,8 +1,7 @@
 package main;
 
-import java.io.*;
+import java.io.Serializable;
 import java.net.Socket;
-import java.util.List;
 
 
 public class ClientHandler implements Runnable, Serializable {
@@ -17,45 +16,37 @@ public class ClientHandler implements Runnable, Serializable {
 
     @Override
     public void run() {
-        try (
-                ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-                ObjectInputStream  ois = new ObjectInputStream(socket.getInputStream());
-        ) {
-            Message msg;
-            while ((msg = (Message) ois.readObject()) != null) {
-                switch (msg.getType()) {
-                    case PING ->
-                            oos.writeObject(new Message(Message.MessageType.PONG, "OK"));
-                    case TASK -> {
-                        FilterSpec fs = (FilterSpec) msg.getPayload();
-                        List<MapResult> partials = master.dispatchMapTasks(fs);
-                        ReduceResult rr = new ReduceTask().combine(partials);
-                        oos.writeObject(new Message(Message.MessageType.RESULT, rr));
-                    }
-                    case SALE -> {
-                        Sale sale = (Sale) msg.getPayload();
-                        master.broadcast(new Message(Message.MessageType.SALE, sale));
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    case RATE -> {
-                        Rating rating = (Rating) msg.getPayload();
-                        master.broadcast(new Message(Message.MessageType.RATE, rating));
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    default ->
-                            oos.writeObject(new Message(
-                                    Message.MessageType.RESULT,
-                                    "ERROR: not recognized command"
-                            ));
+        new ConnectionLoop(socket, this::handle, master.getPipelineExecutor()).run();
+    }
+
+    Message handle(Message msg) {
+        switch (msg.getType()) {
+            case PING -> {
+                return new Message(Message.MessageType.PONG, "OK");
+            }
+            case TASK -> {
+                FilterSpec fs = (FilterSpec) msg.getPayload();
+                return new Message(Message.MessageType.RESULT, master.search(fs));
+            }
+            case SALE -> {
+                Sale sale = (Sale) msg.getPayload();
+                master.recordSale(sale);
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case RATE -> {
+                Rating rating = (Rating) msg.getPayload();
+                if (!rating.isValid()) {
+                    return new Message(Message.MessageType.RESULT, "ERROR: stars must be 0.." + Restaurant.MAX_STARS);
                 }
-                oos.flush();
+                master.rateRestaurant(rating);
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            default -> {
+                return new Message(
+                        Message.MessageType.RESULT,
+                        "ERROR: not recognized command"
+                );
             }
-        } catch (EOFException eof) {
-            // Manager closed connection
-        } catch (Exception e) {
-            System.err.println("ClientHandler Error: " + e);
-        } finally {
-            try { socket.close(); } catch (IOException ignored) {}
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package main;
+
+import java.util.*;
+
+/**
+ * Compares bytes-on-wire and encode/decode throughput of the codecs for a typical search
+ * answer: one MapResult carrying full restaurants with products and sales.
+ * Usage: CodecBenchmark [restaurants] [iterations]
+ */
+public class CodecBenchmark {
+    private static final String[] CATEGORIES = {"pizza", "sushi", "burger", "souvlaki", "coffee", "asian"};
+    private static final String[] PRODUCTS = {"Margherita", "Coke", "California Roll", "Green Tea",
+            "Cheeseburger", "Fries", "Gyros", "Espresso", "Pad Thai", "Water"};
+
+    public static void main(String[] args) throws Exception {
+        int restaurants = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int iterations  = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        Message msg = new Message(Message.MessageType.RESULT, sampleMapResult(restaurants), 42L);
+
+        System.out.println("MapResult with " + restaurants + " restaurants, " + iterations + " iterations");
+        for (MessageCodec codec : List.of(new JavaSerializationCodec(), new BinaryCodec())) {
+            run(codec, msg, iterations);
+        }
+    }
+
+    private static void run(MessageCodec codec, Message msg, int iterations) throws Exception {
+        byte[] frame = codec.encode(msg);
+        Message back = codec.decode(frame, 0, frame.length);
+        if (((MapResult) back.getPayload()).getRestaurants().size()
+                != ((MapResult) msg.getPayload()).getRestaurants().size()) {
+            throw new IllegalStateException(codec.getClass().getSimpleName() + " round trip mismatch");
+        }
+
+        // Warm-up so the JIT has compiled both paths before timing
+        for (int i = 0; i < iterations / 4; i++) {
+            byte[] b = codec.encode(msg);
+            codec.decode(b, 0, b.length);
+        }
+
+        long sink = 0;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += codec.encode(msg).length;
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += codec.decode(frame, 0, frame.length).getRequestId();
+        }
+        long t2 = System.nanoTime();
+
+        System.out.printf("%-24s bytes=%,10d  encode=%,10.0f msg/s  decode=%,10.0f msg/s  (%d)%n",
+                codec.getClass().getSimpleName(), frame.length,
+                iterations / ((t1 - t0) / 1e9), iterations / ((t2 - t1) / 1e9), sink % 10);
+    }
+
+    private static MapResult sampleMapResult(int n) {
+        Random rnd = new Random(7);
+        MapResult mr = new MapResult();
+        for (int i = 0; i < n; i++) {
+            Restaurant r = new Restaurant(
+                    "Restaurant-" + i,
+                    40.0 + rnd.nextDouble() * 0.1,
+                    23.0 + rnd.nextDouble() * 0.1,
+                    CATEGORIES[rnd.nextInt(CATEGORIES.length)],
+                    1 + rnd.nextInt(5),
+                    PriceCategory.values()[rnd.nextInt(3)]);
+            for (int p = 0; p < 6; p++) {
+                String product = PRODUCTS[rnd.nextInt(PRODUCTS.length)];
+                r.addProduct(product, 1 + rnd.nextInt(2000) / 100.0);
+                r.addSale(product, 1 + rnd.nextInt(500));
+            }
+            mr.addRestaurant(r);
+        }
+        return mr;
+    }
+}
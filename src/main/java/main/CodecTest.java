@@ -0,0 +1,215 @@
+package main;
+
+import static main.Checks.check;
+import static main.Checks.finish;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+/**
+ * BinaryCodec round trips: every payload the master and workers exchange comes back equal,
+ * and the per-message string dictionary copes with nulls, empty and non-ASCII strings,
+ * repeats, indexes past one varint byte, and frames cut short or corrupted.
+ */
+public class CodecTest {
+    private static final BinaryCodec codec = new BinaryCodec();
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("--- ROUND TRIP ---");
+        Restaurant pizza = new Restaurant("PizzaFun", 40.01, 23.01, "pizza", 4, PriceCategory.TWO_DOLLARS);
+        pizza.addProduct("margherita", 8.5);
+        pizza.addProduct("coke", 2.0);
+        pizza.addRating(5);
+        pizza.addSale("margherita", 3, 1_700_000_000_000L);
+        pizza.addSale("coke", 7, 1_700_000_360_000L);
+        check("restaurant", describe(pizza), describe((Restaurant) roundTrip(pizza)));
+
+        Restaurant bare = new Restaurant("Bare", -33.9, -151.2, null, 0, null);
+        check("restaurant without category or price", describe(bare), describe((Restaurant) roundTrip(bare)));
+
+        FilterSpec fs = new FilterSpec(40.02, 23.02, Set.of("pizza", "sushi"), 3, PriceCategory.ONE_DOLLAR,
+                SearchOrder.SCORE, 25)
+                .summarized(EnumSet.of(RestaurantSummary.Field.RATING, RestaurantSummary.Field.LOCATION))
+                .scoped(new TokenScope.Builder().addArc(-10, 10).addArc(Long.MAX_VALUE - 5, Long.MIN_VALUE + 5).build());
+        FilterSpec back = (FilterSpec) roundTrip(fs);
+        check("filter spec", describe(fs), describe(back));
+        check("filter spec summary fields", fs.getSummaryFields(), back.getSummaryFields());
+        check("filter spec scope", scopeOf(fs.getScope()), scopeOf(back.getScope()));
+
+        MapResult mr = new MapResult();
+        mr.appendRestaurant(pizza);
+        mr.appendSummary(new RestaurantSummary(pizza, RestaurantSummary.DEFAULT_FIELDS));
+        mr.addVenta("pizza", 10L);
+        MapResult mrBack = (MapResult) roundTrip(mr);
+        check("map result restaurants", describe(pizza), describe(mrBack.getRestaurants().get(0)));
+        check("map result summaries", mr.getSummaries().toString(), mrBack.getSummaries().toString());
+        check("map result sales", mr.getVentasPorKey(), mrBack.getVentasPorKey());
+
+        ReduceResult rr = new ReduceResult(List.of(pizza), Map.of("pizza", 10L));
+        rr.setMissingWorkers(List.of("w2"));
+        ReduceResult rrBack = (ReduceResult) roundTrip(rr);
+        check("reduce result", rr.toString(), rrBack.toString());
+        check("reduce result stays partial", true, rrBack.isPartial());
+
+        SaleBatch batch = new SaleBatch(List.of(new Sale("PizzaFun", Map.of("coke", 2)),
+                new Sale("SushiGo", Map.of("maki", -1))), 1_700_000_000_000L);
+        SaleBatch batchBack = (SaleBatch) roundTrip(batch);
+        check("sale batch", describe(batch), describe(batchBack));
+
+        ProductAction removal = new ProductAction("PizzaFun", "coke", null);
+        ProductAction removalBack = (ProductAction) roundTrip(removal);
+        check("product action without price", "PizzaFun/coke/null",
+                removalBack.getStoreName() + "/" + removalBack.getProductName() + "/" + removalBack.getPrice());
+
+        WorkerInfo w = new WorkerInfo("w1", "localhost", 6001, 3);
+        Registration reg = (Registration) roundTrip(new Registration(w, 1107));
+        check("registration", w + " holding 1107", reg.getWorker() + " holding " + reg.getRestaurants());
+        check("registration worker weight", 3, reg.getWorker().getWeight());
+
+        check("long extremes", List.of(Long.MIN_VALUE, Long.MAX_VALUE),
+                List.of(roundTrip(Long.MIN_VALUE), roundTrip(Long.MAX_VALUE)));
+        check("int extremes", List.of(Integer.MIN_VALUE, Integer.MAX_VALUE),
+                List.of(roundTrip(Integer.MIN_VALUE), roundTrip(Integer.MAX_VALUE)));
+        check("null payload", null, roundTrip(null));
+        check("unknown type falls back to Java serialization", new ArrayList<>(List.of("a", "b")),
+                roundTrip(new ArrayList<>(List.of("a", "b"))));
+        Message pipelined = decode(frameOf(new Message(Message.MessageType.PING, null, 1L << 40)));
+        check("request id", 1L << 40, pipelined.getRequestId());
+
+        System.out.println("\n--- DICTIONARY ---");
+        check("empty string is not null", "", roundTrip(""));
+        check("null string is not empty", "null", String.valueOf(
+                ((ProductAction) roundTrip(new ProductAction("PizzaFun", null, 1.0))).getProductName()));
+        String greek = "Σουβλάκι Ο Θανάσης 🍢";
+        check("non-ASCII string", greek, roundTrip(greek));
+
+        MapResult many = new MapResult();
+        for (int i = 0; i < 300; i++) {
+            many.appendRestaurant(new Restaurant("R" + i, 40, 23, "souvlaki", 3, PriceCategory.ONE_DOLLAR));
+        }
+        byte[] frame = frameOf(new Message(Message.MessageType.RESULT, many));
+        MapResult manyBack = (MapResult) decode(frame).getPayload();
+        List<String> names = new ArrayList<>();
+        for (Restaurant r : manyBack.getRestaurants()) names.add(r.getName());
+        check("indexes past one varint byte", "R0..R299 (300)",
+                names.get(0) + ".." + names.get(names.size() - 1) + " (" + names.size() + ")");
+        check("repeated string written once", 1, occurrences(frame, "souvlaki"));
+
+        System.out.println("\n--- TRUNCATED ---");
+        int cuts = 0, rejected = 0;
+        for (int cut = 0; cut < frame.length; cut += 97, cuts++) {
+            try {
+                codec.decode(frame, 0, cut);
+            } catch (IOException e) {
+                rejected++;
+            }
+        }
+        check("every cut-short frame is rejected with an IOException", cuts, rejected);
+
+        System.out.println("\n--- CORRUPT ---");
+        SearchOrder first = SearchOrder.values()[0];
+        byte[] good = taskFrame(new FilterSpec(40.0, 23.0, null, 0, null, first, 10));
+        byte[] otherOrder = taskFrame(new FilterSpec(40.0, 23.0, null, 0, null, SearchOrder.values()[1], 10));
+        byte[] otherPrice = taskFrame(new FilterSpec(40.0, 23.0, null, 0, PriceCategory.ONE_DOLLAR, first, 10));
+        check("unknown search order is rejected", "IOException", rejection(corrupt(good, otherOrder)));
+        check("unknown price category is rejected", "IOException", rejection(corrupt(good, otherPrice)));
+        Random rnd = new Random(42);
+        int flips = 0, unexpected = 0;
+        for (; flips < 5000; flips++) {
+            byte[] bad = frame.clone();
+            bad[rnd.nextInt(bad.length)] = (byte) rnd.nextInt(256);
+            String outcome = rejection(bad);
+            if (!outcome.equals("IOException") && !outcome.equals("decoded")) {
+                unexpected++;
+                System.out.println("  " + outcome);
+            }
+        }
+        check("a flipped byte decodes or is rejected with an IOException", 0, unexpected);
+
+        finish("Codec");
+    }
+
+    private static Object roundTrip(Object payload) throws IOException {
+        return decode(frameOf(new Message(Message.MessageType.RESULT, payload))).getPayload();
+    }
+
+    private static byte[] frameOf(Message m) throws IOException {
+        return codec.encode(m);
+    }
+
+    private static byte[] taskFrame(FilterSpec fs) throws IOException {
+        return frameOf(new Message(Message.MessageType.TASK, fs));
+    }
+
+    private static Message decode(byte[] frame) throws IOException {
+        return codec.decode(frame, 0, frame.length);
+    }
+
+    /** {@code good} with the one byte where it differs from {@code other} set to a value no field uses. */
+    private static byte[] corrupt(byte[] good, byte[] other) {
+        byte[] bad = good.clone();
+        for (int i = 0; i < bad.length; i++) {
+            if (bad[i] != other[i]) {
+                bad[i] = 0x7F;
+                break;
+            }
+        }
+        return bad;
+    }
+
+    private static String rejection(byte[] frame) {
+        try {
+            decode(frame);
+            return "decoded";
+        } catch (IOException e) {
+            return "IOException";
+        } catch (RuntimeException e) {
+            return e.toString();
+        }
+    }
+
+    private static String describe(Restaurant r) {
+        List<String> buckets = new ArrayList<>();
+        r.getSalesTimeline().forEachBucket((product, tier, period, count) ->
+                buckets.add(product + "@" + tier + ":" + period + "=" + count));
+        Collections.sort(buckets);
+        Map<String, Double> menu = new TreeMap<>();
+        r.getProducts().forEach((name, p) -> menu.put(name, p.getPrice()));
+        return r.getName() + " " + r.getLatitude() + "," + r.getLongitude() + " " + r.getFoodCategory()
+                + " " + r.getPriceCategory() + " avg=" + r.getAverageRating() + " votes=" + r.getNoOfVotes()
+                + " menu=" + menu + " sales=" + new TreeMap<>(r.getSales()) + " timeline=" + buckets;
+    }
+
+    private static String describe(FilterSpec fs) {
+        return fs.getLatitude() + "," + fs.getLongitude() + " cats=" + new TreeSet<>(fs.getFoodCategories())
+                + " minStars=" + fs.getMinStars() + " price=" + fs.getPriceCategory() + " order=" + fs.getOrder()
+                + " limit=" + fs.getLimit() + " summary=" + fs.getSummaryFields();
+    }
+
+    private static String describe(SaleBatch b) {
+        StringBuilder sb = new StringBuilder("t=" + b.getTime());
+        for (Sale s : b.getSales()) sb.append(' ').append(s.getStoreName()).append(new TreeMap<>(s.getItems()));
+        return sb.toString();
+    }
+
+    private static String scopeOf(TokenScope s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.size(); i++) sb.append('[').append(s.startAt(i)).append(',').append(s.endAt(i)).append(']');
+        return sb.toString();
+    }
+
+    private static int occurrences(byte[] data, String s) {
+        byte[] needle = s.getBytes(StandardCharsets.UTF_8);
+        int n = 0;
+        outer:
+        for (int i = 0; i + needle.length <= data.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (data[i + j] != needle[j]) continue outer;
+            }
+            n++;
+        }
+        return n;
+    }
+}
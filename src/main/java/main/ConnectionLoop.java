@@ -0,0 +1,72 @@
+package main;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class ConnectionLoop implements Runnable {
+    private static final int MAX_IN_FLIGHT = 1024;
+
+    private final Socket socket;
+    private final MessageHandler handler;
+    private final ExecutorService pipelineExecutor;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+    public ConnectionLoop(Socket socket, MessageHandler handler, ExecutorService pipelineExecutor) {
+        this.socket = socket;
+        this.handler = handler;
+        this.pipelineExecutor = pipelineExecutor;
+    }
+
+    public static ExecutorService newPipelineExecutor(String name, int threads) {
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, name + "-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    @Override
+    public void run() {
+        try (
+                socket;
+                MessageChannel channel = MessageChannel.accept(socket)
+        ) {
+            Message msg;
+            while ((msg = channel.read()) != null) {
+                if (!msg.isPipelined()) {
+                    channel.write(handler.handle(msg));
+                    continue;
+                }
+                // Pipelined: handle off the read loop and reply whenever done, tagged with the same id
+                inFlight.acquire();
+                final Message req = msg;
+                pipelineExecutor.execute(() -> {
+                    try {
+                        Message resp;
+                        try {
+                            resp = handler.handle(req);
+                        } catch (Exception e) {
+                            resp = new Message(Message.MessageType.RESULT, "ERROR: " + e.getMessage());
+                        }
+                        channel.write(resp.withRequestId(req.getRequestId()));
+                    } catch (IOException e) {
+                        System.err.println("Pipelined reply failed: " + e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } catch (EOFException eof) {
+            // Peer closed connection
+        } catch (Exception e) {
+            System.err.println("Error en conexión: " + e.getMessage());
+        }
+    }
+}
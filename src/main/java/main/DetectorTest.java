@@ -0,0 +1,175 @@
+package main;
+
+import static main.Checks.check;
+import static main.Checks.finish;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The failure detector while a removal rebalances for longer than the failure timeout: one of
+ * three stub workers dies, the survivor taking over its restaurants is slow to accept them, and
+ * the third survivor is idle. The idle one must keep being pinged and stay a member; only the
+ * dead one is removed.
+ */
+public class DetectorTest {
+    private static final int MASTER_PORT = 5657;
+    private static final int RESTAURANTS = 300;
+    private static final long HEARTBEAT_MS = 250;
+    private static final long FAILURE_TIMEOUT_MS = 2000;
+    // How long a survivor takes to accept a shard batch once the victim is dead
+    private static final long SLOW_BATCH_MS = 3 * FAILURE_TIMEOUT_MS;
+
+    public static void main(String[] args) throws Exception {
+        // Read by MasterServer's static fields, so set before the class is first used. One ring
+        // point per worker: the dead worker's restaurants all go to one survivor, the other idles
+        System.setProperty("efood.vnodes", "1");
+        System.setProperty("efood.heartbeatMs", String.valueOf(HEARTBEAT_MS));
+        System.setProperty("efood.failureTimeoutMs", String.valueOf(FAILURE_TIMEOUT_MS));
+
+        MasterServer master = new MasterServer(MASTER_PORT);
+        new Thread(() -> {
+            try { master.start(); }
+            catch (Exception e) { e.printStackTrace(); }
+        }, "MasterThread").start();
+        Thread.sleep(1000);
+
+        List<StubWorker> stubs = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            StubWorker s = new StubWorker(new WorkerInfo("w" + i, "localhost", 6120 + i, 1));
+            s.start();
+            stubs.add(s);
+        }
+        Thread.sleep(1000);
+
+        try (Socket client = new Socket("localhost", MASTER_PORT);
+             MessageChannel channel = MessageChannel.connect(client, MessageCodec.preferred())) {
+            System.out.println("--- LOAD ---");
+            for (int i = 0; i < RESTAURANTS; i++) {
+                channel.write(new Message(Message.MessageType.CREATE_RESTAURANT,
+                        new Restaurant("R" + i, 40.0 + i * 1e-5, 23.0, "souvlaki", 4, PriceCategory.ONE_DOLLAR)));
+                channel.read();
+            }
+            StubWorker victim = stubs.get(0);
+            for (StubWorker s : stubs) {
+                if (s.held.get() > victim.held.get()) victim = s;
+            }
+            for (StubWorker s : stubs) System.out.println("Stub> " + s.info.getId() + " holds " + s.held.get());
+            check("every restaurant placed once", RESTAURANTS, stubs.stream().mapToInt(s -> s.held.get()).sum());
+
+            System.out.println("\n--- " + victim.info.getId() + " DIES ---");
+            for (StubWorker s : stubs) s.slowBatches = true;
+            long diedAt = System.currentTimeMillis();
+            victim.die();
+            Thread.sleep(FAILURE_TIMEOUT_MS + SLOW_BATCH_MS + 3000);
+
+            StubWorker heir = null, idle = null;
+            for (StubWorker s : stubs) {
+                if (s == victim) continue;
+                if (s.batchedAfter(diedAt)) heir = s;
+                else idle = s;
+            }
+            check("one survivor took the dead worker's restaurants, slowly", true, heir != null && idle != null);
+            if (idle != null) {
+                long gap = idle.longestPingGapAfter(diedAt);
+                System.out.println("Stub> " + idle.info.getId() + " longest gap between pings: " + gap + " ms");
+                check("the idle survivor kept being pinged during the rebalance", true, gap < FAILURE_TIMEOUT_MS);
+            }
+
+            channel.write(new Message(Message.MessageType.STATS, null));
+            @SuppressWarnings("unchecked")
+            Map<String, Long> stats = (Map<String, Long>) channel.read().getPayload();
+            check("only the dead worker was removed", 1L, stats.get("workers.removed"));
+            check("both survivors are still members", 2L, stats.get("workers.live"));
+        } finally {
+            for (StubWorker s : stubs) s.die();
+        }
+
+        finish("Detector");
+    }
+
+    /**
+     * Stands in for a WorkerNode: registers, answers everything with OK, counts the restaurants
+     * it is given and notes when pings and shard batches arrive. die() closes every socket.
+     */
+    private static final class StubWorker {
+        final WorkerInfo info;
+        final AtomicInteger held = new AtomicInteger();
+        final List<Long> pings = new CopyOnWriteArrayList<>();
+        final List<Long> batches = new CopyOnWriteArrayList<>();
+        volatile boolean slowBatches;
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+        private final ExecutorService executor = ConnectionLoop.newPipelineExecutor("stub", 8);
+        private ServerSocket server;
+
+        StubWorker(WorkerInfo info) {
+            this.info = info;
+        }
+
+        void start() throws IOException {
+            server = new ServerSocket(info.getPort());
+            new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket sock = server.accept();
+                        sockets.add(sock);
+                        new Thread(new ConnectionLoop(sock, this::handle, executor)).start();
+                    }
+                } catch (IOException closed) {
+                }
+            }, "stub-" + info.getId()).start();
+            try (Socket sock = new Socket("localhost", MASTER_PORT);
+                 MessageChannel channel = MessageChannel.connect(sock, MessageCodec.preferred())) {
+                channel.write(new Message(Message.MessageType.REGISTER, new Registration(info, 0)));
+                channel.read();
+            }
+        }
+
+        private Message handle(Message msg) {
+            switch (msg.getType()) {
+                case PING -> {
+                    pings.add(System.currentTimeMillis());
+                    return new Message(Message.MessageType.PONG, "OK");
+                }
+                case ADD_RESTAURANT -> held.incrementAndGet();
+                case SHARD_BATCH -> {
+                    batches.add(System.currentTimeMillis());
+                    if (slowBatches) {
+                        try { Thread.sleep(SLOW_BATCH_MS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                    }
+                    held.addAndGet(((ShardBatch) msg.getPayload()).getRestaurants().size());
+                }
+                default -> { }
+            }
+            return new Message(Message.MessageType.RESULT, "OK");
+        }
+
+        boolean batchedAfter(long t) {
+            return batches.stream().anyMatch(at -> at >= t);
+        }
+
+        long longestPingGapAfter(long t) {
+            long prev = t, gap = 0;
+            for (long at : pings) {
+                if (at < t) continue;
+                gap = Math.max(gap, at - prev);
+                prev = at;
+            }
+            return Math.max(gap, System.currentTimeMillis() - prev);
+        }
+
+        void die() {
+            try {
+                server.close();
+                for (Socket s : sockets) s.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
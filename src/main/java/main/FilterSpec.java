@@ -1,6 +1,7 @@
 package main;
 
 import java.io.Serializable;
+import java.util.EnumSet;
 import java.util.Set;
 
 
@@ -13,17 +14,36 @@ public class FilterSpec implements Serializable {
     private final Set<String> foodCategories;
     private final int minStars;
     private final PriceCategory priceCategory;
+    // Ranking pushed down to the workers: each returns only its best {@code limit} (0 = all)
+    private final SearchOrder order;
+    private final int limit;
+    // Projection: null returns full restaurants, otherwise summaries with these fields
+    private Set<RestaurantSummary.Field> summaryFields;
+    // Replicated shards: the ring arcs this worker answers for (null = everything it holds)
+    private TokenScope scope;
 
     public FilterSpec(double latitude,
                       double longitude,
                       Set<String> foodCategories,
                       int minStars,
                       PriceCategory priceCategory) {
+        this(latitude, longitude, foodCategories, minStars, priceCategory, SearchOrder.NONE, 0);
+    }
+
+    public FilterSpec(double latitude,
+                      double longitude,
+                      Set<String> foodCategories,
+                      int minStars,
+                      PriceCategory priceCategory,
+                      SearchOrder order,
+                      int limit) {
         this.latitude = latitude;
         this.longitude = longitude;
         this.foodCategories = foodCategories;
         this.minStars = minStars;
         this.priceCategory = priceCategory;
+        this.order = order == null ? SearchOrder.NONE : order;
+        this.limit = Math.max(0, limit);
     }
 
     public double getLatitude() { return latitude; }
@@ -32,6 +52,37 @@ public class FilterSpec implements Serializable {
     public int getMinStars() { return minStars; }
     public PriceCategory getPriceCategory() { return priceCategory; }
     public double getRadiusKm() { return RADIUS_KM; }
+    public SearchOrder getOrder() { return order; }
+    public int getLimit() { return limit; }
+
+    /** Same search, answered with summaries carrying {@code fields} instead of full restaurants. */
+    public FilterSpec summarized(Set<RestaurantSummary.Field> fields) {
+        FilterSpec fs = new FilterSpec(latitude, longitude, foodCategories, minStars, priceCategory, order, limit);
+        fs.summaryFields = fields.isEmpty() ? EnumSet.noneOf(RestaurantSummary.Field.class) : EnumSet.copyOf(fields);
+        return fs;
+    }
+
+    public boolean isSummary() { return summaryFields != null; }
+
+    /** Same search, limited on the worker to restaurants whose placement token is in {@code scope}. */
+    public FilterSpec scoped(TokenScope scope) {
+        FilterSpec fs = isSummary() ? summarized(summaryFields) :
+                new FilterSpec(latitude, longitude, foodCategories, minStars, priceCategory, order, limit);
+        fs.scope = scope;
+        return fs;
+    }
+
+    public TokenScope getScope() { return scope; }
+
+    /** Requested summary fields plus whatever the order needs for the master's merge. */
+    public Set<RestaurantSummary.Field> getSummaryFields() {
+        if (summaryFields == null) return null;
+        Set<RestaurantSummary.Field> f = EnumSet.noneOf(RestaurantSummary.Field.class);
+        f.addAll(summaryFields);
+        if (order == SearchOrder.DISTANCE || order == SearchOrder.SCORE) f.add(RestaurantSummary.Field.LOCATION);
+        if (order == SearchOrder.RATING || order == SearchOrder.SCORE) f.add(RestaurantSummary.Field.RATING);
+        return f;
+    }
 
     @Override
     public String toString() {
@@ -42,6 +93,9 @@ public class FilterSpec implements Serializable {
                 ", minStars=" + minStars +
                 ", priceCat=" + priceCategory +
                 ", radiusKm=" + RADIUS_KM +
+                (order != SearchOrder.NONE ? ", order=" + order : "") +
+                (limit > 0 ? ", limit=" + limit : "") +
+                (summaryFields != null ? ", summary=" + summaryFields : "") +
                 '}';
     }
 }
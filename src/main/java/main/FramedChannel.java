@@ -0,0 +1,48 @@
+package main;
+
+import java.io.*;
+import java.net.Socket;
+
+/** Length-prefixed frames, each holding one {@link Message} encoded by the connection's codec. */
+public class FramedChannel implements MessageChannel {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final MessageCodec codec;
+    private byte[] readBuf = new byte[4096];
+
+    public FramedChannel(Socket socket, InputStream in, MessageCodec codec) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(in);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.codec = codec;
+    }
+
+    @Override
+    public Message read() throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > MAX_FRAME) {
+            throw new IOException("Bad frame length: " + len);
+        }
+        if (len > readBuf.length) {
+            readBuf = new byte[Math.max(len, readBuf.length * 2)];
+        }
+        in.readFully(readBuf, 0, len);
+        return codec.decode(readBuf, 0, len);
+    }
+
+    @Override
+    public void write(Message msg) throws IOException {
+        byte[] frame = codec.encode(msg);
+        synchronized (out) {
+            out.writeInt(frame.length);
+            out.write(frame);
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        try { socket.close(); } catch (IOException ignored) {}
+    }
+}
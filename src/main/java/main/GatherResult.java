@@ -0,0 +1,36 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+public class GatherResult<T> {
+    private final List<T> results = new ArrayList<>();
+    private final List<WorkerInfo> timedOut = new ArrayList<>();
+    private final List<WorkerInfo> failed = new ArrayList<>();
+
+    void addResult(T result) { results.add(result); }
+    void addTimedOut(WorkerInfo w) { timedOut.add(w); }
+    void addFailed(WorkerInfo w) { failed.add(w); }
+
+    public List<T> getResults() { return Collections.unmodifiableList(results); }
+    public List<WorkerInfo> getTimedOut() { return Collections.unmodifiableList(timedOut); }
+    public List<WorkerInfo> getFailed() { return Collections.unmodifiableList(failed); }
+
+    public boolean isPartial() {
+        return !timedOut.isEmpty() || !failed.isEmpty();
+    }
+
+    public List<String> getMissingWorkerIds() {
+        List<String> ids = new ArrayList<>();
+        timedOut.forEach(w -> ids.add(w.getId()));
+        failed.forEach(w -> ids.add(w.getId()));
+        return ids;
+    }
+
+    @Override
+    public String toString() {
+        return "GatherResult{results=" + results.size() + ", timedOut=" + timedOut + ", failed=" + failed + '}';
+    }
+}
@@ -0,0 +1,139 @@
+package main;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Consistent-hash ring for restaurant placement. Each worker owns {@code vnodes * weight}
+ * points on a 64-bit ring and a restaurant belongs to the first point clockwise from the
+ * hash of its name, so a worker joining or leaving only moves about 1/N of the keys.
+ *
+ * Lookups read an immutable snapshot; add/remove rebuild it, which is rare.
+ */
+public class HashRing {
+    private final int vnodes;
+    private volatile NavigableMap<Long, WorkerInfo> ring = new TreeMap<>();
+    private volatile Arcs arcs;
+
+    public HashRing(int vnodes) {
+        this.vnodes = vnodes;
+    }
+
+    public synchronized void add(WorkerInfo w) {
+        TreeMap<Long, WorkerInfo> next = new TreeMap<>(ring);
+        int points = vnodes * Math.max(1, w.getWeight());
+        for (int i = 0; i < points; i++) {
+            next.put(hash(w.getId() + "#" + i), w);
+        }
+        ring = next;
+    }
+
+    public synchronized void remove(WorkerInfo w) {
+        TreeMap<Long, WorkerInfo> next = new TreeMap<>(ring);
+        next.values().removeIf(w::equals);
+        ring = next;
+    }
+
+    /** A copy frozen at the current membership, for callers that must keep serving the old layout. */
+    public HashRing snapshot() {
+        HashRing copy = new HashRing(vnodes);
+        copy.ring = ring;
+        return copy;
+    }
+
+    /** Worker owning {@code key}, or null if the ring is empty. */
+    public WorkerInfo ownerOf(String key) {
+        NavigableMap<Long, WorkerInfo> r = ring;
+        if (r.isEmpty()) return null;
+        Map.Entry<Long, WorkerInfo> e = r.ceilingEntry(hash(key));
+        return (e != null ? e : r.firstEntry()).getValue();
+    }
+
+    /**
+     * The first {@code n} distinct workers clockwise from {@code key}: its owner followed by its
+     * replicas. Fewer than {@code n} if the ring has fewer workers.
+     */
+    public List<WorkerInfo> replicasOf(String key, int n) {
+        NavigableMap<Long, WorkerInfo> r = ring;
+        List<WorkerInfo> out = new ArrayList<>(n);
+        if (r.isEmpty()) return out;
+        collect(r, hash(key), n, out);
+        return out;
+    }
+
+    private static void collect(NavigableMap<Long, WorkerInfo> r, long from, int n, List<WorkerInfo> out) {
+        for (WorkerInfo w : r.tailMap(from, true).values()) {
+            if (out.size() == n) return;
+            if (!out.contains(w)) out.add(w);
+        }
+        for (WorkerInfo w : r.headMap(from, false).values()) {
+            if (out.size() == n) return;
+            if (!out.contains(w)) out.add(w);
+        }
+    }
+
+    /**
+     * Every arc of the ring with the {@code n} workers holding the keys on it, in ring order.
+     * Computed once per ring version.
+     */
+    public List<Arc> arcs(int n) {
+        NavigableMap<Long, WorkerInfo> r = ring;
+        Arcs cached = arcs;
+        if (cached != null && cached.ring == r && cached.replicas == n) return cached.list;
+        List<Arc> list = new ArrayList<>(r.size());
+        long prev = r.isEmpty() ? 0 : r.lastKey();
+        for (long point : r.keySet()) {
+            List<WorkerInfo> replicas = new ArrayList<>(n);
+            collect(r, point, n, replicas);
+            list.add(new Arc(prev, point, List.copyOf(replicas)));
+            prev = point;
+        }
+        list = Collections.unmodifiableList(list);
+        arcs = new Arcs(r, n, list);
+        return list;
+    }
+
+    /** Keys hashing into (prev, point] (wrapping when prev >= point) and the workers holding them. */
+    public static final class Arc {
+        final long prev;
+        final long point;
+        final List<WorkerInfo> replicas;
+
+        Arc(long prev, long point, List<WorkerInfo> replicas) {
+            this.prev = prev;
+            this.point = point;
+            this.replicas = replicas;
+        }
+    }
+
+    private static final class Arcs {
+        final NavigableMap<Long, WorkerInfo> ring;
+        final int replicas;
+        final List<Arc> list;
+
+        Arcs(NavigableMap<Long, WorkerInfo> ring, int replicas, List<Arc> list) {
+            this.ring = ring;
+            this.replicas = replicas;
+            this.list = list;
+        }
+    }
+
+    public boolean isEmpty() {
+        return ring.isEmpty();
+    }
+
+    /** 64-bit FNV-1a over UTF-8 with a final avalanche mix; stable across JVMs, unlike String.hashCode. */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,120 @@
+package main;
+
+import static main.Checks.check;
+import static main.Checks.checkBetween;
+import static main.Checks.finish;
+
+import java.util.*;
+
+
+/**
+ * Placement on the consistent-hash ring: a join moves only the keys the new worker takes, a
+ * leave moves only the keys the old one held, about 1/N of them, and the arcs searches are
+ * split by give every key to exactly the workers {@link HashRing#replicasOf} names.
+ */
+public class HashRingTest {
+    private static final int KEYS = 20_000;
+
+    public static void main(String[] args) {
+        WorkerInfo w1 = new WorkerInfo("w1", "localhost", 6001);
+        WorkerInfo w2 = new WorkerInfo("w2", "localhost", 6002);
+        WorkerInfo w3 = new WorkerInfo("w3", "localhost", 6003);
+        WorkerInfo w4 = new WorkerInfo("w4", "localhost", 6004);
+        List<String> keys = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) keys.add("Restaurant-" + i);
+
+        System.out.println("--- PLACEMENT ---");
+        HashRing ring = ring(w1, w2, w3);
+        check("empty ring owns nothing", null, new HashRing(128).ownerOf("PizzaFun"));
+        check("placement ignores join order", owners(ring, keys), owners(ring(w3, w1, w2), keys));
+        Map<String, Integer> load = count(owners(ring, keys));
+        System.out.println("Load> " + load);
+        for (WorkerInfo w : List.of(w1, w2, w3)) {
+            checkBetween(w.getId() + " holds about a third", KEYS * 0.25, KEYS * 0.42, load.getOrDefault(w.getId(), 0));
+        }
+
+        System.out.println("\n--- JOIN ---");
+        HashRing before = ring.snapshot();
+        ring.add(w4);
+        int moved = 0, movedElsewhere = 0;
+        for (String k : keys) {
+            WorkerInfo was = before.ownerOf(k), now = ring.ownerOf(k);
+            if (was.equals(now)) continue;
+            moved++;
+            if (!now.equals(w4)) movedElsewhere++;
+        }
+        check("keys move only to the worker that joined", 0, movedElsewhere);
+        checkBetween("about a quarter of the keys move", KEYS * 0.17, KEYS * 0.33, moved);
+        check("a snapshot keeps the old layout", owners(ring(w1, w2, w3), keys), owners(before, keys));
+
+        System.out.println("\n--- LEAVE ---");
+        before = ring.snapshot();
+        ring.remove(w2);
+        int movedFromOthers = 0, orphaned = 0;
+        for (String k : keys) {
+            WorkerInfo was = before.ownerOf(k), now = ring.ownerOf(k);
+            if (!was.equals(w2) && !was.equals(now)) movedFromOthers++;
+            if (now.equals(w2)) orphaned++;
+        }
+        check("only the leaver's keys move", 0, movedFromOthers);
+        check("nothing stays on the leaver", 0, orphaned);
+        check("leaving undoes joining", owners(ring(w1, w3, w4), keys), owners(ring, keys));
+
+        System.out.println("\n--- WEIGHT ---");
+        WorkerInfo big = new WorkerInfo("big", "localhost", 6005, 2);
+        load = count(owners(ring(w1, big), keys));
+        checkBetween("a weight-2 worker holds about two thirds", KEYS * 0.58, KEYS * 0.75, load.getOrDefault(big.getId(), 0));
+
+        System.out.println("\n--- REPLICAS ---");
+        ring = ring(w1, w2, w3, w4);
+        int badReplicas = 0;
+        for (String k : keys) {
+            List<WorkerInfo> rs = ring.replicasOf(k, 3);
+            if (rs.size() != 3 || new HashSet<>(rs).size() != 3 || !rs.get(0).equals(ring.ownerOf(k))) badReplicas++;
+        }
+        check("replicas are distinct and led by the owner", 0, badReplicas);
+        check("fewer workers than replicas", 2, ring(w1, w2).replicasOf("PizzaFun", 3).size());
+
+        System.out.println("\n--- ARCS ---");
+        for (int n : new int[]{1, 2}) {
+            Map<WorkerInfo, TokenScope.Builder> builders = new HashMap<>();
+            for (HashRing.Arc a : ring.arcs(n)) {
+                for (WorkerInfo w : a.replicas) builders.computeIfAbsent(w, x -> new TokenScope.Builder()).addArc(a.prev, a.point);
+            }
+            Map<WorkerInfo, TokenScope> scopes = new HashMap<>();
+            builders.forEach((w, b) -> scopes.put(w, b.build()));
+            int mismatched = 0;
+            for (String k : keys) {
+                Set<WorkerInfo> covering = new HashSet<>();
+                long token = HashRing.hash(k);
+                scopes.forEach((w, s) -> {
+                    if (s.contains(token)) covering.add(w);
+                });
+                if (!covering.equals(new HashSet<>(ring.replicasOf(k, n)))) mismatched++;
+            }
+            check("arcs with " + n + " replica(s) cover each key exactly by its replicas", 0, mismatched);
+        }
+        check("arcs are computed once per ring version", true, ring.arcs(2) == ring.arcs(2));
+
+        finish("HashRing");
+    }
+
+    private static HashRing ring(WorkerInfo... workers) {
+        HashRing ring = new HashRing(128);
+        for (WorkerInfo w : workers) ring.add(w);
+        return ring;
+    }
+
+    private static List<WorkerInfo> owners(HashRing ring, List<String> keys) {
+        List<WorkerInfo> out = new ArrayList<>(keys.size());
+        for (String k : keys) out.add(ring.ownerOf(k));
+        return out;
+    }
+
+    private static Map<String, Integer> count(List<WorkerInfo> owners) {
+        Map<String, Integer> m = new TreeMap<>();
+        for (WorkerInfo w : owners) m.merge(w.getId(), 1, Integer::sum);
+        return m;
+    }
+
+}
@@ -0,0 +1,261 @@
+package main;
+
+import static main.Checks.check;
+import static main.Checks.finish;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * The worker's copy-on-write catalog under random adds, removals, replacements and votes:
+ * after every edit each search agrees with a brute-force filter over the live restaurants,
+ * the segments searched in parallel find the same restaurants as the sequential search, and
+ * snapshots published earlier still answer exactly as they did when they were current,
+ * however many versions were built on top of the parts they share. Then ranked searches: the
+ * top K kept per segment and merged across workers equals a full sort cut at K.
+ */
+public class IndexFuzzTest {
+    private static final long SEED = 20240611L;
+    private static final int EDITS = 4000;
+    private static final int SEARCHES_PER_EDIT = 3;
+    private static final int KEEP_EVERY = 100;
+    private static final int RANKED_SEARCHES = 2000;
+    private static final int WORKERS = 3;
+    private static final String[] CATEGORIES = {"pizza", "sushi", "souvlaki", "burger", "vegan"};
+
+    private static final Random rnd = new Random(SEED);
+
+    public static void main(String[] args) {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        // Small cells and a few segments, so edits keep landing on shared pages, cells and bitmaps
+        Catalog catalog = Catalog.empty(4, 0.01);
+        Map<String, Restaurant> live = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        List<Kept> kept = new ArrayList<>();
+        int nextName = 0, mismatches = 0, parallelMismatches = 0, searches = 0;
+
+        System.out.println("--- RANDOM EDITS ---");
+        for (int step = 1; step <= EDITS; step++) {
+            Catalog.Editor edit = catalog.edit();
+            int op = rnd.nextInt(10);
+            if (op < 4 || names.isEmpty()) {
+                Restaurant r = randomRestaurant("R" + nextName++);
+                live.put(r.getName(), r);
+                names.add(r.getName());
+                edit.add(r);
+            } else if (op < 6) {
+                String name = names.remove(rnd.nextInt(names.size()));
+                live.remove(name);
+                edit.remove(name);
+            } else if (op < 7) {
+                // Same name, new place and filters: the old entry must go from every index
+                Restaurant r = randomRestaurant(names.get(rnd.nextInt(names.size())));
+                live.put(r.getName(), r);
+                edit.add(r);
+            } else {
+                // Votes as the worker casts them: the bucket moves only when the average crossed a star
+                Restaurant r = live.get(names.get(rnd.nextInt(names.size())));
+                for (int v = rnd.nextInt(4); v >= 0; v--) r.addRating(rnd.nextInt(Restaurant.MAX_STARS + 1));
+                if (!catalog.ratingIndexed(r)) edit.updateRating(r);
+            }
+            catalog = edit.build();
+
+            for (int i = 0; i < SEARCHES_PER_EDIT; i++, searches++) {
+                FilterSpec fs = randomSearch();
+                List<String> expected = bruteForce(live.values(), fs);
+                if (!matches(catalog, fs).equals(expected)) {
+                    if (mismatches++ < 5) System.out.println("  step " + step + ": " + describe(fs));
+                }
+                if (!parallelMatches(catalog, fs, pool).equals(expected)) {
+                    if (parallelMismatches++ < 5) System.out.println("  step " + step + ", in parallel: " + describe(fs));
+                }
+            }
+            if (step % KEEP_EVERY == 0) kept.add(new Kept(catalog));
+        }
+        System.out.println("Index> " + live.size() + " live restaurants, " + EDITS + " edits, " + searches + " searches");
+        check("every search matches the brute-force filter", 0, mismatches);
+        check("and so does every parallel search", 0, parallelMismatches);
+        check("size follows adds and removals", live.size(), catalog.size());
+
+        System.out.println("\n--- OLD SNAPSHOTS ---");
+        int changed = 0;
+        for (Kept k : kept) {
+            for (int i = 0; i < k.searches.size(); i++) {
+                if (!candidates(k.catalog, k.searches.get(i)).equals(k.answers.get(i))) changed++;
+            }
+        }
+        check(kept.size() + " snapshots answer as when they were published", 0, changed);
+
+        System.out.println("\n--- RANKED ---");
+        SearchOrder[] orders = {SearchOrder.DISTANCE, SearchOrder.RATING, SearchOrder.SCORE};
+        int topMismatches = 0, parallelTopMismatches = 0, mergeMismatches = 0, unrankedOff = 0;
+        for (int i = 0; i < RANKED_SEARCHES; i++) {
+            FilterSpec any = randomSearch();
+            boolean ranked = i % 4 != 0;
+            FilterSpec fs = new FilterSpec(any.getLatitude(), any.getLongitude(), any.getFoodCategories(),
+                    any.getMinStars(), any.getPriceCategory(),
+                    ranked ? orders[rnd.nextInt(orders.length)] : SearchOrder.NONE, rnd.nextInt(4) == 0 ? 0 : 1 + rnd.nextInt(30));
+            List<Restaurant> all = bruteForceMatches(live.values(), fs);
+
+            TopK top = new TopK(fs);
+            catalog.search(fs, r -> {
+                if (exact(r, fs)) top.offer(r);
+            });
+            TopK parallelTop = new TopK(fs);
+            for (TopK part : catalog.searchParallel(fs, () -> new TopK(fs), (TopK h, Restaurant r) -> {
+                if (exact(r, fs)) h.offer(r);
+            }, pool)) {
+                parallelTop.addAll(part);
+            }
+            List<String> merged = names(ReduceTask.merge(workerLists(all, fs), fs));
+
+            if (!ranked) {
+                // Unranked: any K matches will do, but only matches and no more than K
+                int expectedSize = fs.getLimit() == 0 ? all.size() : Math.min(fs.getLimit(), all.size());
+                Set<String> allNames = new HashSet<>(names(all));
+                for (List<String> got : List.of(names(top.sorted()), names(parallelTop.sorted()), merged)) {
+                    if (got.size() != expectedSize || !allNames.containsAll(got) || new HashSet<>(got).size() != got.size()) {
+                        unrankedOff++;
+                    }
+                }
+                continue;
+            }
+            all.sort(fs.getOrder().comparator(fs));
+            List<String> expected = names(fs.getLimit() == 0 ? all : all.subList(0, Math.min(fs.getLimit(), all.size())));
+            if (!names(top.sorted()).equals(expected)) topMismatches++;
+            if (!names(parallelTop.sorted()).equals(expected)) parallelTopMismatches++;
+            if (!merged.equals(expected)) mergeMismatches++;
+        }
+        check("top K of a search is the full sort cut at K", 0, topMismatches);
+        check("and so are the segments' top K merged", 0, parallelTopMismatches);
+        check("and so is the master's merge of the workers' top K", 0, mergeMismatches);
+        check("unranked searches keep K distinct matches", 0, unrankedOff);
+        pool.shutdown();
+
+        finish("IndexFuzz");
+    }
+
+    /** A published snapshot with the raw candidates a few searches got from it at the time. */
+    private static final class Kept {
+        final Catalog catalog;
+        final List<FilterSpec> searches = new ArrayList<>();
+        final List<List<String>> answers = new ArrayList<>();
+
+        Kept(Catalog catalog) {
+            this.catalog = catalog;
+            for (int i = 0; i < 5; i++) {
+                FilterSpec fs = randomSearch();
+                searches.add(fs);
+                answers.add(candidates(catalog, fs));
+            }
+        }
+    }
+
+    private static Restaurant randomRestaurant(String name) {
+        PriceCategory[] prices = PriceCategory.values();
+        return new Restaurant(name, 40 + rnd.nextDouble() * 0.2, 23 + rnd.nextDouble() * 0.2,
+                CATEGORIES[rnd.nextInt(CATEGORIES.length)], rnd.nextInt(Restaurant.MAX_STARS + 1),
+                rnd.nextInt(4) == 0 ? null : prices[rnd.nextInt(prices.length)]);
+    }
+
+    /** Around the restaurants or, one time in ten, at 0,0 where the distance filter is off. */
+    private static FilterSpec randomSearch() {
+        boolean anywhere = rnd.nextInt(10) == 0;
+        Set<String> cats = new HashSet<>();
+        for (String c : CATEGORIES) {
+            if (rnd.nextInt(4) == 0) cats.add(c);
+        }
+        if (rnd.nextInt(8) == 0) cats.add("unknown");
+        PriceCategory[] prices = PriceCategory.values();
+        return new FilterSpec(anywhere ? 0.0 : 40 + rnd.nextDouble() * 0.2, anywhere ? 0.0 : 23 + rnd.nextDouble() * 0.2,
+                cats, rnd.nextInt(Restaurant.MAX_STARS + 2), rnd.nextBoolean() ? null : prices[rnd.nextInt(prices.length)]);
+    }
+
+    /** What the index offers for {@code fs}, before any exact check. */
+    private static List<String> candidates(Catalog catalog, FilterSpec fs) {
+        List<String> out = new ArrayList<>();
+        catalog.search(fs, r -> out.add(r.getName()));
+        Collections.sort(out);
+        return out;
+    }
+
+    /** The index's candidates through the worker's exact check. */
+    private static List<String> matches(Catalog catalog, FilterSpec fs) {
+        List<String> out = new ArrayList<>();
+        catalog.search(fs, r -> {
+            if (exact(r, fs)) out.add(r.getName());
+        });
+        Collections.sort(out);
+        return out;
+    }
+
+    /** Same, one holder per segment searched on {@code pool}, as WorkerNode does for large scans. */
+    private static List<String> parallelMatches(Catalog catalog, FilterSpec fs, ForkJoinPool pool) {
+        List<String> out = new ArrayList<>();
+        for (List<String> part : catalog.searchParallel(fs, ArrayList::new, (List<String> h, Restaurant r) -> {
+            if (exact(r, fs)) h.add(r.getName());
+        }, pool)) {
+            out.addAll(part);
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private static List<String> bruteForce(Collection<Restaurant> all, FilterSpec fs) {
+        List<String> out = names(bruteForceMatches(all, fs));
+        Collections.sort(out);
+        return out;
+    }
+
+    private static List<Restaurant> bruteForceMatches(Collection<Restaurant> all, FilterSpec fs) {
+        boolean anywhere = fs.getLatitude() == 0.0 && fs.getLongitude() == 0.0;
+        List<Restaurant> out = new ArrayList<>();
+        for (Restaurant r : all) {
+            if (exact(r, fs) && (anywhere || SpatialGrid.haversine(fs.getLatitude(), fs.getLongitude(),
+                    r.getLatitude(), r.getLongitude()) <= fs.getRadiusKm())) {
+                out.add(r);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The matches spread over WORKERS shards, each answering with its own top K, best first.
+     * One in ten restaurants is on two workers, as during a shard cut-over.
+     */
+    private static List<List<Restaurant>> workerLists(List<Restaurant> matches, FilterSpec fs) {
+        List<List<Restaurant>> lists = new ArrayList<>();
+        for (int w = 0; w < WORKERS; w++) lists.add(new ArrayList<>());
+        for (Restaurant r : matches) {
+            int w = Math.floorMod(r.getName().hashCode(), WORKERS);
+            lists.get(w).add(r);
+            if (Math.floorMod(r.getName().hashCode(), 10) == 0) lists.get((w + 1) % WORKERS).add(r);
+        }
+        Comparator<Rankable> order = fs.getOrder().comparator(fs);
+        for (int w = 0; w < WORKERS; w++) {
+            List<Restaurant> l = lists.get(w);
+            if (order != null) l.sort(order);
+            if (fs.getLimit() > 0 && l.size() > fs.getLimit()) lists.set(w, new ArrayList<>(l.subList(0, fs.getLimit())));
+        }
+        return lists;
+    }
+
+    private static List<String> names(List<Restaurant> rs) {
+        List<String> out = new ArrayList<>(rs.size());
+        for (Restaurant r : rs) out.add(r.getName());
+        return out;
+    }
+
+    /** WorkerNode.handleSearch's check, which leaves the distance to the index. */
+    private static boolean exact(Restaurant r, FilterSpec fs) {
+        return (fs.getFoodCategories().isEmpty() || fs.getFoodCategories().contains(r.getFoodCategory()))
+                && r.getAverageRating() >= fs.getMinStars()
+                && (fs.getPriceCategory() == null || r.getPriceCategory() == fs.getPriceCategory());
+    }
+
+    private static String describe(FilterSpec fs) {
+        return fs.getLatitude() + "," + fs.getLongitude() + " cats=" + new TreeSet<>(fs.getFoodCategories())
+                + " minStars=" + fs.getMinStars() + " price=" + fs.getPriceCategory();
+    }
+}
@@ -0,0 +1,29 @@
+package main;
+
+import java.io.*;
+
+public class JavaSerializationCodec implements MessageCodec {
+
+    @Override
+    public byte id() {
+        return JAVA;
+    }
+
+    @Override
+    public byte[] encode(Message msg) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(msg);
+        }
+        return bos.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] data, int off, int len) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data, off, len))) {
+            return (Message) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * Moving latency percentiles of one kind of request to one worker, over its most recent
+ * {@value #WINDOW} answers. The master uses them to decide when a request is late enough to be
+ * worth asking another replica.
+ */
+public class LatencyTracker {
+    static final int WINDOW = 256;
+    // Fewer answers than this say nothing about the worker yet
+    static final int MIN_SAMPLES = 16;
+
+    private final long[] samples = new long[WINDOW];
+    private int count;
+    private int next;
+
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) count++;
+    }
+
+    /** The {@code p}-th percentile (0-100] in nanoseconds, or -1 while there are too few samples. */
+    public long percentile(double p) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < MIN_SAMPLES) return -1;
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+}
@@ -0,0 +1,92 @@
+package main;
+
+import static main.Checks.check;
+import static main.Checks.finish;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+
+/**
+ * The JSON loader on a catalog big enough to be split across threads, with braces hidden in
+ * line comments, block comments and strings: the parallel load must cut only at real
+ * restaurant boundaries and return exactly what the sequential stream does.
+ */
+public class LoaderTest {
+    private static final int RESTAURANTS = 60_000;
+    private static final int THREADS = 8;
+
+    public static void main(String[] args) throws Exception {
+        // Read by RestaurantJsonLoader's static fields, so set before the class is first used
+        System.setProperty("efood.loaderThreads", String.valueOf(THREADS));
+        Path file = Files.createTempFile("efood-catalog", ".json");
+        try {
+            write(file);
+            long size = Files.size(file);
+            System.out.println("Catalog> " + RESTAURANTS + " restaurants, " + size + " bytes");
+
+            System.out.println("--- SPLIT ---");
+            long[] cuts = RestaurantJsonLoader.split(file, size, THREADS);
+            check("large enough to be loaded in parallel", true,
+                    size >= RestaurantJsonLoader.PARALLEL_MIN_BYTES && cuts.length > 2);
+            byte[] data = Files.readAllBytes(file);
+            int offObject = 0;
+            for (int i = 1; i + 1 < cuts.length; i++) {
+                if (!new String(data, (int) cuts[i], 12, StandardCharsets.UTF_8).equals("{\n    \"name\"")) offObject++;
+            }
+            check("every cut starts a restaurant", 0, offObject);
+
+            System.out.println("\n--- LOAD vs STREAM ---");
+            List<String> streamed = new ArrayList<>();
+            RestaurantJsonLoader.stream(file, r -> streamed.add(describe(r)));
+            List<String> loaded = new ArrayList<>();
+            String error = null;
+            try {
+                for (Restaurant r : RestaurantJsonLoader.load(file)) loaded.add(describe(r));
+            } catch (IOException e) {
+                error = e.getMessage();
+            }
+            check("parallel load parses every chunk", null, error);
+            check("stream reads every restaurant", RESTAURANTS, streamed.size());
+            check("parallel load reads every restaurant", RESTAURANTS, loaded.size());
+            check("parallel load matches the stream, in order", true, streamed.equals(loaded));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        finish("Loader");
+    }
+
+    /** Every few restaurants a comment holding braces sits between objects, where split looks for cuts. */
+    private static void write(Path file) throws Exception {
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("// catalog for LoaderTest { not an object\n[\n");
+            for (int i = 0; i < RESTAURANTS; i++) {
+                if (i > 0) w.write(",\n");
+                if (i % 7 == 3) w.write("  /* removed: { \"name\": \"Old" + i + "\" } */\n");
+                if (i % 11 == 5) w.write("  // { \"name\": \"Draft" + i + "\" }\n");
+                w.write("  {\n    \"name\": \"R" + i + (i % 5 == 0 ? " {the} \\\"best\\\" [" : "") + "\",\n"
+                        + "    \"latitude\": " + (40 + i * 1e-5) + ",\n"
+                        + "    \"longitude\": " + (23 - i * 1e-5) + ",\n"
+                        + "    /* category was { \"sushi\" } */ \"category\": \"" + (i % 2 == 0 ? "pizza" : "sushi") + "\",\n"
+                        + "    \"averageRating\": " + (i % 5) + ",\n"
+                        + "    \"priceCategory\": \"" + PriceCategory.values()[i % PriceCategory.values().length] + "\",\n"
+                        + "    \"products\": [ { \"name\": \"p" + i + "\", \"price\": " + (i % 20 + 0.5) + " } ],\n"
+                        + "    \"ratings\": [ " + (i % 6) + ", " + ((i + 3) % 6) + " ]\n  }");
+            }
+            w.write("\n]\n");
+        }
+    }
+
+    private static String describe(Restaurant r) {
+        Map<String, Double> menu = new TreeMap<>();
+        r.getProducts().forEach((name, p) -> menu.put(name, p.getPrice()));
+        return r.getName() + " " + r.getLatitude() + "," + r.getLongitude() + " " + r.getFoodCategory()
+                + " " + r.getPriceCategory() + " avg=" + r.getAverageRating() + " votes=" + r.getNoOfVotes()
+                + " menu=" + menu;
+    }
+}
@@ -17,8 +17,7 @@ public class ManagerConsole {
         int port = Integer.parseInt(args[1]);
 
         try (Socket sock = new Socket(host, port);
-             ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
-             ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
+             MessageChannel channel = MessageChannel.connect(sock, MessageCodec.preferred());
              BufferedReader console = new BufferedReader(new InputStreamReader(System.in))) {
 
             System.out.println("Manager connected to Master in " + host + ":" + port);
@@ -29,6 +28,7 @@ public class ManagerConsole {
             System.out.println("          salesReport product <ProductCategory>");
             System.out.println("          salesReport all");
             System.out.println("          spawnWorker <masterHost> <masterPort> [workerHost]");
+            System.out.println("          stats");
             System.out.println("          exit");
 
             String line;
@@ -54,7 +54,7 @@ public class ManagerConsole {
                                 Double.parseDouble(parts[5]),
                                 PriceCategory.valueOf(parts[6])
                         );
-                        oos.writeObject(new Message(Message.MessageType.CREATE_RESTAURANT, r));
+                        channel.write(new Message(Message.MessageType.CREATE_RESTAURANT, r));
                         break;
                     }
                     case "addprod": {
@@ -63,7 +63,7 @@ public class ManagerConsole {
                             continue;
                         }
                         ProductAction pa = new ProductAction(parts[1], parts[2], Double.parseDouble(parts[3]));
-                        oos.writeObject(new Message(Message.MessageType.ADD_PRODUCT, pa));
+                        channel.write(new Message(Message.MessageType.ADD_PRODUCT, pa));
                         break;
                     }
                     case "delprod": {
@@ -72,32 +72,34 @@ public class ManagerConsole {
                             continue;
                         }
                         ProductAction pa = new ProductAction(parts[1], parts[2], 0.0);
-                        oos.writeObject(new Message(Message.MessageType.REMOVE_PRODUCT, pa));
+                        channel.write(new Message(Message.MessageType.REMOVE_PRODUCT, pa));
                         break;
                     }
                     case "salesreport": {
                         String reportType;
-                        if (parts.length == 2 && "all".equals(parts[1])) {
-                            reportType = "all";
-                        } else if (parts.length == 3 && ("food".equals(parts[1]) || "product".equals(parts[1]))) {
-                            reportType = parts[1] + ":" + parts[2];
+                        if ((parts.length == 2 || parts.length == 3) && ("all".equals(parts[1]) || "hourly".equals(parts[1]))) {
+                            reportType = parts[1] + (parts.length == 3 ? "@" + parts[2] : "");
+                        } else if ((parts.length == 3 || parts.length == 4) && ("food".equals(parts[1]) || "product".equals(parts[1]))) {
+                            reportType = parts[1] + ":" + parts[2] + (parts.length == 4 ? "@" + parts[3] : "");
                         } else {
-                            System.out.println("Use: salesReport food <FoodCategory> | product <ProductCategory> | all");
+                            System.out.println("Use: salesReport food <FoodCategory> [range] | product <ProductCategory> [range] | all [range] | hourly [range]");
+                            System.out.println("     range: <ago> or <ago>..<ago>, e.g. 15m, 24h, 2h..1h, 7d");
                             continue;
                         }
-                        oos.writeObject(new Message(Message.MessageType.REPORT, reportType));
-                        oos.flush();
+                        channel.write(new Message(Message.MessageType.REPORT, reportType));
 
-                        Message resp = (Message) ois.readObject();
-                        Map<String, Integer> salesMap = (Map<String, Integer>) resp.getPayload();
+                        Message resp = channel.read();
+                        Map<String, Long> salesMap = (Map<String, Long>) resp.getPayload();
 
                         if ("all".equals(parts[1])) {
                             System.out.println("Master> " + salesMap);
+                        } else if ("hourly".equals(parts[1])) {
+                            System.out.println("Master> " + new TreeMap<>(salesMap));
                         } else {
-                            Map<String, Integer> filteredSales = new LinkedHashMap<>();
-                            int total = 0;
+                            Map<String, Long> filteredSales = new LinkedHashMap<>();
+                            long total = 0;
 
-                            for (Map.Entry<String, Integer> entry : salesMap.entrySet()) {
+                            for (Map.Entry<String, Long> entry : salesMap.entrySet()) {
                                 if (!entry.getKey().equalsIgnoreCase("total")) {
                                     filteredSales.put(entry.getKey(), entry.getValue());
                                     total += entry.getValue();
@@ -109,6 +111,10 @@ public class ManagerConsole {
                         }
                         continue;
                     }
+                    case "stats": {
+                        channel.write(new Message(Message.MessageType.STATS, null));
+                        break;
+                    }
                     case "spawnworker": {
 
                         if (parts.length < 3) {
@@ -145,8 +151,7 @@ public class ManagerConsole {
                         continue;
                 }
 
-                oos.flush();
-                Message resp = (Message) ois.readObject();
+                Message resp = channel.read();
                 System.out.println("Master> " + resp.getPayload());
             }
             System.out.println("Exiting...");
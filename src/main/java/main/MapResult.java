@@ -9,7 +9,8 @@ public class MapResult implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private final List<Restaurant> restaurants = new ArrayList<>();
-    private final Map<String, Integer> ventasPorKey = new HashMap<>();
+    private final List<RestaurantSummary> summaries = new ArrayList<>();
+    private final Map<String, Long> ventasPorKey = new HashMap<>();
 
     public MapResult() {
     }
@@ -23,29 +24,42 @@ public class MapResult implements Serializable {
         }
     }
 
+    void appendRestaurant(Restaurant r) {
+        restaurants.add(r);
+    }
 
     public List<Restaurant> getRestaurants() {
         return Collections.unmodifiableList(restaurants);
     }
 
-    public void addVenta(String key, int qty) {
-        ventasPorKey.merge(key, qty, Integer::sum);
+    void appendSummary(RestaurantSummary s) {
+        summaries.add(s);
+    }
+
+    public List<RestaurantSummary> getSummaries() {
+        return Collections.unmodifiableList(summaries);
+    }
+
+    public void addVenta(String key, long qty) {
+        ventasPorKey.merge(key, qty, Long::sum);
     }
 
-    public Map<String, Integer> getVentasPorKey() {
+    public Map<String, Long> getVentasPorKey() {
         return Collections.unmodifiableMap(ventasPorKey);
     }
 
 
     public void merge(MapResult other) {
         other.restaurants.forEach(this.restaurants::add);
+        other.summaries.forEach(this.summaries::add);
         other.ventasPorKey.forEach(
-                (k, v) -> this.ventasPorKey.merge(k, v, Integer::sum)
+                (k, v) -> this.ventasPorKey.merge(k, v, Long::sum)
         );
     }
 
     @Override
     public String toString() {
-        return "MapResult{restaurants=" + restaurants + ", ventas=" + ventasPorKey + '}';
+        return "MapResult{restaurants=" + restaurants +
+                (summaries.isEmpty() ? "" : ", summaries=" + summaries) + ", ventas=" + ventasPorKey + '}';
     }
 }
@@ -1,8 +1,9 @@
 package main;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 
 public class MapTask implements Serializable {
@@ -16,19 +17,27 @@ public class MapTask implements Serializable {
         this.targetWorker = Objects.requireNonNull(targetWorker);
     }
 
-    public MapResult execute() throws IOException, ClassNotFoundException {
-        try (Socket s = new Socket(targetWorker.getHost(), targetWorker.getPort());
-             ObjectOutputStream oos = new ObjectOutputStream(s.getOutputStream());
-             ObjectInputStream  ois = new ObjectInputStream(s.getInputStream())) {
+    public WorkerInfo getTargetWorker() { return targetWorker; }
 
-            oos.writeObject(new Message(Message.MessageType.TASK, filters));
-            oos.flush();
+    public MapResult execute(WorkerConnectionPool pool) throws IOException {
+        return result(pool.send(new Message(Message.MessageType.TASK, filters)));
+    }
 
-            Message resp = (Message) ois.readObject();
-            if (resp.getType() != Message.MessageType.RESULT) {
-                throw new IOException("MapTask: unexpected response: " + resp.getType());
+    /** Pipelined variant of {@link #execute}: no thread waits for the worker's answer. */
+    public CompletableFuture<MapResult> submit(WorkerConnectionPool pool) {
+        return pool.submit(new Message(Message.MessageType.TASK, filters)).thenCompose(resp -> {
+            try {
+                return CompletableFuture.completedFuture(result(resp));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
             }
-            return (MapResult) resp.getPayload();
+        });
+    }
+
+    private static MapResult result(Message resp) throws IOException {
+        if (resp.getType() != Message.MessageType.RESULT) {
+            throw new IOException("MapTask: unexpected response: " + resp.getType());
         }
+        return (MapResult) resp.getPayload();
     }
 }
\ No newline at end of file
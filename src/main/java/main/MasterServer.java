@@ -1,328 +1,1014 @@
 package main;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 
 public class MasterServer {
     private final int port;
     private List<Restaurant> allRestaurants = new ArrayList<>();
+    // Same restaurants by name; the cache needs their location to invalidate precisely
+    private final Map<String,Restaurant> catalog = new ConcurrentHashMap<>();
+    private final SearchCache searchCache = new SearchCache();
+    private final Map<WorkerInfo,SaleBatcher> saleBatchers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService batchTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sale-batch-timer");
+        t.setDaemon(true);
+        return t;
+    });
     private List<WorkerInfo> workers = new ArrayList<>();
-    private Map<String,WorkerInfo> assignmentMap = new HashMap<>();
+    // Restaurant -> workers holding it, primary first; lists are replaced, never mutated
+    private Map<String,List<WorkerInfo>> assignmentMap = new ConcurrentHashMap<>();
+    private final HashRing ring = new HashRing(Integer.getInteger("efood.vnodes", 128));
+    // Layout that searches and reports are split by; moves to the ring's only once every
+    // replica it names holds its restaurants
+    private volatile Serving serving = new Serving(ring.snapshot(), Map.of());
+    // Restarted replicas being brought up to date; not asked to serve meanwhile
+    private final Set<WorkerInfo> syncing = ConcurrentHashMap.newKeySet();
+    // Workers declared dead -> restaurants they held then, which they must drop if they come back
+    private final Map<WorkerInfo,List<String>> evicted = new ConcurrentHashMap<>();
+    private final Map<WorkerInfo,WorkerConnectionPool> pools = new ConcurrentHashMap<>();
+    // Routed writes hold the read lock only while they pick replicas and submit; the waits for
+    // answers happen outside it. A cut-over takes the write lock to fence its names and to see
+    // which writes are still in flight to the old owner, then waits for those without the lock
+    private final ReadWriteLock placementLock = new ReentrantReadWriteLock();
+    // Worker -> routed writes submitted to it and not answered yet
+    private final Map<WorkerInfo,Set<CompletableFuture<?>>> inFlightWrites = new ConcurrentHashMap<>();
+    // Restaurant -> cut-over in progress; writes to it wait for that to finish and then re-route
+    private final Map<String,CompletableFuture<Void>> cutovers = new ConcurrentHashMap<>();
+    private final AtomicLong migrationIds = new AtomicLong(System.currentTimeMillis());
+    private final ScheduledExecutorService hedgeTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "hedge-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final ScheduledExecutorService healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "worker-health-check");
+        t.setDaemon(true);
+        return t;
+    });
+    // Removals and rejoins the failure detector decided on. They rebalance, which can take up to
+    // a migration timeout, so they run here and the detector keeps pinging everyone meanwhile
+    private final ExecutorService membership = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "worker-membership");
+        t.setDaemon(true);
+        return t;
+    });
+    // Workers with a removal or rejoin queued or running on membership
+    private final Set<WorkerInfo> membershipPending = ConcurrentHashMap.newKeySet();
+    private final AtomicLong workersRemoved = new AtomicLong();
+
+    private final ExecutorService pipelineExecutor = ConnectionLoop.newPipelineExecutor(
+            "master-pipeline", Math.max(16, 8 * Runtime.getRuntime().availableProcessors()));
+    private final ScatterGather scatter = new ScatterGather(
+            Math.max(8, 4 * Runtime.getRuntime().availableProcessors()));
+
+    private static final long HEARTBEAT_MS = Long.getLong("efood.heartbeatMs", 1000);
+    private static final long FAILURE_TIMEOUT_MS = Long.getLong("efood.failureTimeoutMs", 5000);
+    private static final long SEARCH_DEADLINE_MS = Long.getLong("efood.searchDeadlineMs", 2000);
+    private static final long REPORT_DEADLINE_MS = Long.getLong("efood.reportDeadlineMs", 5000);
+    // Streaming a shard takes longer than answering one request
+    private static final long MIGRATION_TIMEOUT_MS = Long.getLong("efood.migrationTimeoutMs", 300_000);
+    static final int REPLICAS = Math.max(1, Integer.getInteger("efood.replicas", 1));
+    private static final int HEDGE_PERCENTILE_DEFAULT = 95;
+    // 0 turns hedging off; failed workers are still failed over
+    private static final double HEDGE_PERCENTILE = Double.parseDouble(
+            System.getProperty("efood.hedgePercentile", String.valueOf(HEDGE_PERCENTILE_DEFAULT)));
+    private static final long HEDGE_MIN_MS = Long.getLong("efood.hedgeMinMs", 5);
 
     public MasterServer(int port) {
         this.port = port;
     }
 
     public void start() throws Exception {
-        try (ServerSocket server = new ServerSocket(port)) {
-            System.out.println("MasterServer listening on " + port);
-            while (true) {
-                Socket sock = server.accept();
-                new Thread(() -> handleConnection(sock)).start();
-            }
+        try (ServerEngine engine = ServerEngine.create(this::handle, pipelineExecutor)) {
+            engine.bind(port);
+            System.out.println("MasterServer listening on " + port + " (" + engine.getClass().getSimpleName() + ")");
+            healthChecker.scheduleWithFixedDelay(this::checkWorkerConnections,
+                    HEARTBEAT_MS, HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+            engine.serve();
         }
     }
 
     private void loadRestaurantsFromJson(String path) throws IOException {
-        String json = Files.readString(Paths.get(path), StandardCharsets.UTF_8)
-                .replaceAll("[\\n\\r]", " ")
-                .trim();
-
-        int b0 = json.indexOf('[');
-        int b1 = json.lastIndexOf(']');
-        if (b0 < 0 || b1 < 0 || b1 <= b0) {
-            throw new IOException("JSON format invalid");
-        }
-        String body = json.substring(b0 + 1, b1);
-
-        List<String> objs = new ArrayList<>();
-        int depth = 0, start = -1;
-        for (int i = 0; i < body.length(); i++) {
-            char c = body.charAt(i);
-            if (c == '{') {
-                if (depth == 0) start = i;
-                depth++;
-            } else if (c == '}') {
-                depth--;
-                if (depth == 0 && start >= 0) {
-                    objs.add(body.substring(start, i + 1));
-                    start = -1;
+        long t0 = System.nanoTime();
+        allRestaurants.addAll(RestaurantJsonLoader.load(Paths.get(path)));
+        for (Restaurant r : allRestaurants) catalog.put(r.getName(), r);
+
+        System.out.println("Master: saved "
+                + allRestaurants.size()
+                + " restaurants from JSON in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+    }
+
+    Message handle(Message msg) {
+        switch (msg.getType()) {
+            case REGISTER -> {
+                if (msg.getPayload() instanceof Registration) {
+                    Registration reg = (Registration) msg.getPayload();
+                    registerWorker(reg.getWorker(), reg.getRestaurants());
+                } else {
+                    registerWorker((WorkerInfo) msg.getPayload());
+                }
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case ADD_RESTAURANT -> {
+                Restaurant r = (Restaurant) msg.getPayload();
+                addRestaurant(r);
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case CREATE_RESTAURANT -> {
+                Restaurant r = (Restaurant) msg.getPayload();
+                createRestaurant(r);
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case ADD_PRODUCT -> {
+                ProductAction pa = (ProductAction) msg.getPayload();
+                addProduct(pa);
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case REMOVE_PRODUCT -> {
+                ProductAction pa2 = (ProductAction) msg.getPayload();
+                removeProduct(pa2);
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case RATE -> {
+                Rating rt = (Rating) msg.getPayload();
+                if (!rt.isValid()) {
+                    return new Message(Message.MessageType.RESULT, "ERROR: stars must be 0.." + Restaurant.MAX_STARS);
                 }
+                rateRestaurant(rt);
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case TASK -> {
+                FilterSpec fs = (FilterSpec) msg.getPayload();
+                return new Message(Message.MessageType.RESULT, search(fs));
+            }
+            case DETAILS -> {
+                return new Message(Message.MessageType.RESULT, details((String) msg.getPayload()));
+            }
+            case SALE -> {
+                Sale sale = (Sale) msg.getPayload();
+                recordSale(sale);
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case REPORT -> {
+                String type = (String) msg.getPayload();
+                ReduceResult rr = new ReduceTask().combine(gatherSalesReports(type));
+                return new Message(Message.MessageType.RESULT, rr.getVentasPorKey());
+            }
+            case STATS -> {
+                return new Message(Message.MessageType.RESULT, stats());
+            }
+            case PING -> {
+                return new Message(Message.MessageType.PONG, "OK");
+            }
+            default -> {
+                return new Message(Message.MessageType.RESULT, "UNKNOWN");
             }
         }
+    }
 
-        for (String obj : objs) {
-            String name   = extractString(obj, "name");
-            double lat    = extractDouble(obj, "latitude");
-            double lon    = extractDouble(obj, "longitude");
-            String cat    = extractString(obj, "category");
-            double rating = extractDouble(obj, "averageRating");
-            PriceCategory pc = PriceCategory.valueOf(
-                    extractString(obj, "priceCategory")
-            );
-
-            Restaurant r = new Restaurant(name, lat, lon, cat, rating, pc);
-
-            String prodsBlock = extractArrayBlock(obj, "products");
-            if (!prodsBlock.isEmpty()) {
-                int pd = 0, ps = -1;
-                for (int i = 0; i < prodsBlock.length(); i++) {
-                    char ch = prodsBlock.charAt(i);
-                    if (ch == '{') {
-                        if (pd == 0) ps = i;
-                        pd++;
-                    } else if (ch == '}') {
-                        pd--;
-                        if (pd == 0 && ps >= 0) {
-                            String pObj = prodsBlock.substring(ps, i + 1);
-                            String prodName = extractString(pObj, "name");
-                            double price    = extractDouble(pObj, "price");
-                            r.addProduct(prodName, price);
-                            ps = -1;
-                        }
-                    }
+    /** Search cache counters, hedging counters, worker removals and each worker's recent search p50/p95. */
+    private Map<String, Long> stats() {
+        Map<String, Long> m = new LinkedHashMap<>(searchCache.stats());
+        m.put("hedge.sent", hedgesSent.get());
+        m.put("hedge.won", hedgesWon.get());
+        List<WorkerInfo> live = snapshotWorkers();
+        m.put("workers.live", (long) live.size());
+        m.put("workers.removed", workersRemoved.get());
+        for (WorkerInfo w : live) {
+            LatencyTracker t = poolFor(w).latency(Message.MessageType.TASK);
+            m.put("search." + w.getId() + ".p50Us", t.percentile(50) / 1000);
+            m.put("search." + w.getId() + ".p95Us", t.percentile(95) / 1000);
+        }
+        return m;
+    }
+
+    public void registerWorker(WorkerInfo w) {
+        registerWorker(w, -1);
+    }
+
+    /** {@code held}: restaurants the worker reports holding, or -1 if it did not say. */
+    public void registerWorker(WorkerInfo w, int held) {
+        poolFor(w).seen();
+        // Back after being removed: what it still holds was reassigned meanwhile and is stale
+        List<String> stale = evicted.remove(w);
+        if (stale != null && !stale.isEmpty()) {
+            dropReplica(w, stale);
+        }
+        boolean known;
+        synchronized (workers) {
+            // A restarted worker re-registers with the same identity; with efood.dataDir it
+            // recovers its own shard, without it comes back empty
+            known = workers.contains(w);
+            if (!known) workers.add(w);
+        }
+        ring.add(w);
+        System.out.println("Worker registrado: " + w + (held >= 0 ? " holding " + held + " restaurants" : ""));
+        rebalanceAssignments();
+        if (known && REPLICAS > 1) resyncReplica(w);
+        if (known && held == 0) reseedFromCatalog(w);
+    }
+
+    /**
+     * A known worker came back empty. Restaurants it shares were re-copied by resyncReplica;
+     * those it alone holds are re-added from the master's catalog, losing whatever changed on
+     * that worker since loading.
+     */
+    private synchronized void reseedFromCatalog(WorkerInfo w) {
+        List<Restaurant> lost = new ArrayList<>();
+        assignmentMap.forEach((name, ws) -> {
+            Restaurant r = catalog.get(name);
+            if (r != null && ws.size() == 1 && ws.get(0).equals(w)) lost.add(r);
+        });
+        if (lost.isEmpty()) return;
+        System.err.println("Master: Worker " + w.getId() + " restarted empty; re-adding " + lost.size()
+                + " restaurants from the master's catalog");
+        bulkAdd(w, lost);
+        searchCache.invalidateAll();
+    }
+
+    /**
+     * A replica that restarted missed the writes sent while it was down: re-copy its
+     * restaurants from a peer replica. Searches and reports skip it until that is done.
+     */
+    private synchronized void resyncReplica(WorkerInfo w) {
+        Map<WorkerInfo, List<String>> bySource = new LinkedHashMap<>();
+        assignmentMap.forEach((name, ws) -> {
+            if (!ws.contains(w)) return;
+            for (WorkerInfo peer : ws) {
+                if (!peer.equals(w)) {
+                    bySource.computeIfAbsent(peer, k -> new ArrayList<>()).add(name);
+                    break;
                 }
             }
+        });
+        syncing.add(w);
+        try {
+            int n = 0;
+            for (Map.Entry<WorkerInfo, List<String>> e : bySource.entrySet()) {
+                n += migrate(e.getKey(), w, e.getValue(), true);
+            }
+            System.out.println("Master: resynced " + n + " restaurants to restarted Worker " + w.getId());
+        } finally {
+            syncing.remove(w);
+        }
+    }
 
-            String ratesBlock = extractArrayBlock(obj, "ratings");
-            if (!ratesBlock.isEmpty()) {
-                for (String num : ratesBlock.split(",")) {
-                    try {
-                        r.addRating(Integer.parseInt(num.trim()));
-                    } catch (NumberFormatException ignored) {}
+    /**
+     * Brings every restaurant to the replicas the ring now gives it. New replicas are copied
+     * from one that stays (with one replica, from the old owner), searches and reports switch
+     * to the new layout only once all copies are live, and only then do the replicas that left
+     * drop their copy.
+     */
+    private synchronized void rebalanceAssignments() {
+        // Group the work per worker (unassigned) and per (source, target) pair (copies) so each
+        // group travels as a few large batches instead of one round trip per restaurant
+        Map<WorkerInfo, List<Restaurant>> adds = new LinkedHashMap<>();
+        Map<WorkerInfo, Map<WorkerInfo, List<String>>> copies = new LinkedHashMap<>();
+        Map<WorkerInfo, List<String>> drops = new LinkedHashMap<>();
+        // Workers may join meanwhile; searches switch to exactly the layout copied here
+        HashRing layout = ring.snapshot();
+        for (Restaurant r : allRestaurants) {
+            List<WorkerInfo> target = layout.replicasOf(r.getName(), REPLICAS);
+            List<WorkerInfo> current = assignmentMap.get(r.getName());
+
+            if (current == null) {
+                for (WorkerInfo w : target) adds.computeIfAbsent(w, k -> new ArrayList<>()).add(r);
+            }
+            else if (!current.equals(target)) {
+                WorkerInfo source = current.get(0);
+                for (WorkerInfo w : current) {
+                    if (target.contains(w)) {
+                        source = w;
+                        break;
+                    }
+                }
+                for (WorkerInfo w : target) {
+                    if (current.contains(w)) continue;
+                    copies.computeIfAbsent(source, k -> new LinkedHashMap<>())
+                            .computeIfAbsent(w, k -> new ArrayList<>()).add(r.getName());
+                }
+                for (WorkerInfo w : current) {
+                    if (!target.contains(w)) drops.computeIfAbsent(w, k -> new ArrayList<>()).add(r.getName());
                 }
             }
-
-            allRestaurants.add(r);
+            // if current == target, it already has so we do nothing
         }
 
-        System.out.println("Master: saved "
-                + allRestaurants.size()
-                + " restaurants from JSON");
+        for (Map.Entry<WorkerInfo, List<Restaurant>> e : adds.entrySet()) {
+            bulkAdd(e.getKey(), e.getValue());
+        }
+        int moved = 0;
+        for (Map.Entry<WorkerInfo, Map<WorkerInfo, List<String>>> bySource : copies.entrySet()) {
+            for (Map.Entry<WorkerInfo, List<String>> e : bySource.getValue().entrySet()) {
+                moved += migrate(bySource.getKey(), e.getKey(), e.getValue(), true);
+            }
+        }
+        serve(layout);
+        for (Map.Entry<WorkerInfo, List<String>> e : drops.entrySet()) {
+            dropReplica(e.getKey(), e.getValue());
+        }
+        System.out.println("Master: rebalance moved " + moved + " of " + allRestaurants.size() + " restaurants"
+                + (REPLICAS > 1 ? " (" + REPLICAS + " replicas each)" : ""));
     }
 
-    private static String extractString(String src, String key) {
-        Pattern p = Pattern.compile("\"" + key + "\"\\s*:\\s*\"([^\"]*)\"");
-        Matcher m = p.matcher(src);
-        return m.find() ? m.group(1) : "";
+    /**
+     * Switches searches and reports to {@code layout}, then waits (at most one gather deadline)
+     * for the gathers still split by the old one, so a replica is never dropped under a gather
+     * that counts on it.
+     */
+    private void serve(HashRing layout) {
+        Map<WorkerInfo, TokenScope> scopes = new HashMap<>();
+        if (REPLICAS == 1) {
+            Map<WorkerInfo, TokenScope.Builder> builders = new HashMap<>();
+            for (HashRing.Arc a : layout.arcs(1)) {
+                builders.computeIfAbsent(a.replicas.get(0), k -> new TokenScope.Builder()).addArc(a.prev, a.point);
+            }
+            builders.forEach((w, b) -> scopes.put(w, b.build()));
+        }
+        Serving old = serving;
+        serving = new Serving(layout, scopes);
+        long deadline = System.currentTimeMillis() + Math.max(SEARCH_DEADLINE_MS, REPORT_DEADLINE_MS);
+        try {
+            while (old.gathers.get() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private static double extractDouble(String src, String key) {
-        Pattern p = Pattern.compile("\"" + key + "\"\\s*:\\s*([-+]?\\d*\\.?\\d+)");
-        Matcher m = p.matcher(src);
-        return m.find() ? Double.parseDouble(m.group(1)) : 0;
+    /** The serving layout, counted as in use until {@link Serving#release}. */
+    private Serving acquireServing() {
+        while (true) {
+            Serving s = serving;
+            s.gathers.incrementAndGet();
+            // serve() may have swapped it and stopped waiting for it already
+            if (s == serving) return s;
+            s.release();
+        }
     }
 
-    private static String extractArrayBlock(String src, String key) {
-        Pattern p = Pattern.compile("\"" + key + "\"\\s*:\\s*\\[(.*?)\\]", Pattern.DOTALL);
-        Matcher m = p.matcher(src);
-        return m.find() ? m.group(1) : "";
-    }
+    /**
+     * A layout searches and reports are split by. With one replica it also holds the arcs each
+     * worker answers for, so a restaurant that is on two workers while it moves is counted by
+     * one of them only.
+     */
+    private static final class Serving {
+        final HashRing ring;
+        final Map<WorkerInfo, TokenScope> scopes;
+        final AtomicInteger gathers = new AtomicInteger();
 
-    private void handleConnection(Socket sock) {
-        try (
-                sock;
-                ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
-                ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream())
-        ) {
+        Serving(HashRing ring, Map<WorkerInfo, TokenScope> scopes) {
+            this.ring = ring;
+            this.scopes = scopes;
+        }
 
-            Message msg = (Message) ois.readObject();
+        void release() {
+            gathers.decrementAndGet();
+        }
+    }
 
-            if (msg.getType() == Message.MessageType.REGISTER) {
-                WorkerInfo w = (WorkerInfo) msg.getPayload();
-                registerWorker(w);
-                oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                oos.flush();
-                return;
-            }
+    private void bulkAdd(WorkerInfo target, List<Restaurant> batch) {
+        try {
+            int sent = ShardStreamer.stream(poolFor(target)::submit, 0L, batch);
+            for (Restaurant r : batch) assignmentMap.merge(r.getName(), List.of(target), MasterServer::union);
+            System.out.println("Master → ADD " + sent + " restaurants to Worker " + target.getId());
+        } catch (IOException e) {
+            System.err.println("Bulk ADD to " + target + " failed: " + e);
+        }
+    }
 
-            do {
-                switch (msg.getType()) {
-                    case ADD_RESTAURANT -> {
-                        Restaurant r = (Restaurant) msg.getPayload();
-                        addRestaurant(r);
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    case CREATE_RESTAURANT -> {
-                        Restaurant r = (Restaurant) msg.getPayload();
-                        createRestaurant(r);
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    case ADD_PRODUCT -> {
-                        ProductAction pa = (ProductAction) msg.getPayload();
-                        addProduct(pa);
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    case REMOVE_PRODUCT -> {
-                        ProductAction pa2 = (ProductAction) msg.getPayload();
-                        removeProduct(pa2);
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    case RATE -> {
-                        Rating rt = (Rating) msg.getPayload();
-                        rateRestaurant(rt);
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    case TASK -> {
-                        FilterSpec fs = (FilterSpec) msg.getPayload();
-                        List<MapResult> partials = dispatchMapTasks(fs);
-                        ReduceResult rr = new ReduceTask().combine(partials);
-                        oos.writeObject(new Message(Message.MessageType.RESULT, rr));
-                    }
-                    case SALE -> {
-                        Sale sale = (Sale) msg.getPayload();
-                        broadcast(new Message(Message.MessageType.SALE, sale));
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    case REPORT -> {
-                        String type = (String) msg.getPayload();
-                        List<MapResult> partials = dispatchSalesReports(type);
-                        ReduceResult rr = reduce(partials);
-                        oos.writeObject(new Message(Message.MessageType.RESULT, rr.getVentasPorKey()));
-                    }
-                    case PING -> {
-                        oos.writeObject(new Message(Message.MessageType.PONG, "OK"));
-                    }
-                    default -> {
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "UNKNOWN"));
+    /**
+     * Moves a shard in two steps. The source streams it to the target, which stages it out of
+     * sight while the source keeps serving searches and writes. Then the cut-over: new writes to
+     * the names are held back, the ones already sent to the source are let land, the source
+     * re-sends whatever changed meanwhile, the target activates the shard and the source drops
+     * it; only after that does the master route the names to the target and release the held
+     * writes. A copy is the same except that the source keeps the shard and writes then go to both.
+     */
+    private int migrate(WorkerInfo source, WorkerInfo target, List<String> names, boolean copy) {
+        long id = migrationIds.incrementAndGet();
+        ShardMigration m = new ShardMigration(id, target, names, copy);
+        long t0 = System.nanoTime();
+        if (!requestOk(source, new Message(Message.MessageType.MIGRATE_SHARD, m), MIGRATION_TIMEOUT_MS)) {
+            return 0;
+        }
+        CompletableFuture<Void> cutover = new CompletableFuture<>();
+        List<CompletableFuture<?>> landing;
+        placementLock.writeLock().lock();
+        try {
+            for (String name : names) cutovers.put(name, cutover);
+            landing = new ArrayList<>(inFlightWrites.getOrDefault(source, Set.of()));
+        } finally {
+            placementLock.writeLock().unlock();
+        }
+        boolean committed = false;
+        try {
+            if (!awaitAll(landing, WorkerConnectionPool.REQUEST_TIMEOUT_MS)) {
+                System.err.println("Master: writes to Worker " + source.getId() + " still unanswered; migration "
+                        + id + " aborted");
+            } else {
+                committed = requestOk(source, new Message(Message.MessageType.MIGRATE_COMMIT, id));
+            }
+            if (!committed) {
+                requestOk(source, new Message(Message.MessageType.SHARD_ABORT, id));
+                return 0;
+            }
+        } finally {
+            placementLock.writeLock().lock();
+            try {
+                for (String name : names) {
+                    if (committed) {
+                        assignmentMap.compute(name, (k, cur) -> copy ? union(cur, List.of(target))
+                                : union(without(cur, source), List.of(target)));
                     }
+                    cutovers.remove(name, cutover);
                 }
-                oos.flush();
+            } finally {
+                placementLock.writeLock().unlock();
+            }
+            cutover.complete(null);
+        }
+        System.out.println("Master → " + (copy ? "COPY " : "MOVE ") + names.size() + " restaurants from Worker "
+                + source.getId() + " to Worker " + target.getId() + " in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+        return names.size();
+    }
 
-            } while ((msg = (Message) ois.readObject()) != null);
+    /** Waits up to {@code timeoutMs} until all of {@code futures} are done, failed or not; false if some are not. */
+    private static boolean awaitAll(List<? extends CompletableFuture<?>> futures, long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (CompletableFuture<?> f : futures) {
+            try {
+                f.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException ignored) {
+                // Failed or timed out: nothing more will come of it
+            } catch (TimeoutException e) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        } catch (EOFException eof) {
-            // Manager or Client closed connection
-        } catch (Exception e) {
-            System.err.println("Error en conexión: " + e.getMessage());
+    /** Stops routing writes for {@code names} to {@code w}, then has it drop them. */
+    private void dropReplica(WorkerInfo w, List<String> names) {
+        placementLock.writeLock().lock();
+        try {
+            for (String name : names) assignmentMap.computeIfPresent(name, (k, cur) -> without(cur, w));
+        } finally {
+            placementLock.writeLock().unlock();
+        }
+        ShardMigration m = new ShardMigration(migrationIds.incrementAndGet(), null, names);
+        if (requestOk(w, new Message(Message.MessageType.DROP_SHARD, m))) {
+            System.out.println("Master → DROP " + names.size() + " restaurants from Worker " + w.getId());
         }
     }
 
-    public void registerWorker(WorkerInfo w) {
-        synchronized (workers) {
-            workers.add(w);
+    private static List<WorkerInfo> union(List<WorkerInfo> a, List<WorkerInfo> b) {
+        if (a == null) return b;
+        List<WorkerInfo> out = new ArrayList<>(a);
+        for (WorkerInfo w : b) if (!out.contains(w)) out.add(w);
+        return List.copyOf(out);
+    }
+
+    private static List<WorkerInfo> without(List<WorkerInfo> list, WorkerInfo w) {
+        List<WorkerInfo> out = new ArrayList<>(list);
+        out.remove(w);
+        return List.copyOf(out);
+    }
+
+    private boolean requestOk(WorkerInfo w, Message msg) {
+        return requestOk(w, msg, WorkerConnectionPool.REQUEST_TIMEOUT_MS);
+    }
+
+    private boolean requestOk(WorkerInfo w, Message msg, long timeoutMs) {
+        try {
+            Message resp = poolFor(w).send(msg, timeoutMs);
+            if (ShardStreamer.isError(resp)) {
+                System.err.println(msg.getType() + " rejected by " + w + ": " + resp.getPayload());
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println(msg.getType() + " Error in " + w + ": " + e);
+            return false;
         }
-        System.out.println("Worker registrado: " + w);
-        rebalanceAssignments();
     }
 
-    private void rebalanceAssignments() {
-        int n = workers.size();
-        for (Restaurant r : allRestaurants) {
-            int slot = Math.abs(r.getName().hashCode()) % n;
-            WorkerInfo target = workers.get(slot);
-            WorkerInfo current = assignmentMap.get(r.getName());
+    /**
+     * Workers currently holding the store, primary first: the assignment map wins over the
+     * ring while a restaurant is mid-migration. Empty if no worker has registered.
+     */
+    private List<WorkerInfo> replicasOf(String store) {
+        List<WorkerInfo> ws = assignmentMap.get(store);
+        if (ws == null) ws = ring.replicasOf(store, REPLICAS);
+        if (ws.isEmpty()) {
+            System.out.println("Master: no workers registered; cannot route " + store);
+        }
+        return ws;
+    }
 
-            if (current == null) {
+    /** Sends a write to every replica of the store without racing a migration cut-over. */
+    private void routeWrite(String store, Message msg) {
+        Map<WorkerInfo, CompletableFuture<Message>> sent = submitWrite(store, w -> {
+            System.out.println("Master->Worker " + w.getId() + ": send " + msg.getType());
+            return poolFor(w).submit(msg);
+        });
+        for (Map.Entry<WorkerInfo, CompletableFuture<Message>> e : sent.entrySet()) {
+            WorkerInfo w = e.getKey();
+            try {
+                Message resp = e.getValue().get();
+                System.out.println("Response from worker " + w.getId() + ": " + resp.getPayload());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ee) {
+                System.err.println(msg.getType() + " Error in " + w + ": " + ee.getCause());
+            }
+        }
+    }
 
-                sendToWorker(target, new Message(Message.MessageType.ADD_RESTAURANT, r));
-                assignmentMap.put(r.getName(), target);
-                System.out.println("Master → ADD " + r.getName() + " to Worker " + slot);
+    /**
+     * Submits a write to each replica of the store and returns without waiting for answers.
+     * If the store is being cut over, waits for that to finish first and routes to the new
+     * owners. The submitted writes are tracked until answered so a later cut-over lets them land.
+     */
+    private <T> Map<WorkerInfo, CompletableFuture<T>> submitWrite(String store,
+                                                                  Function<WorkerInfo, CompletableFuture<T>> send) {
+        while (true) {
+            CompletableFuture<Void> cutover;
+            placementLock.readLock().lock();
+            try {
+                cutover = cutovers.get(store);
+                if (cutover == null) {
+                    Map<WorkerInfo, CompletableFuture<T>> sent = new LinkedHashMap<>();
+                    for (WorkerInfo w : replicasOf(store)) {
+                        CompletableFuture<T> f = send.apply(w);
+                        Set<CompletableFuture<?>> tracked =
+                                inFlightWrites.computeIfAbsent(w, k -> ConcurrentHashMap.newKeySet());
+                        tracked.add(f);
+                        f.whenComplete((r, e) -> tracked.remove(f));
+                        sent.put(w, f);
+                    }
+                    return sent;
+                }
+            } finally {
+                placementLock.readLock().unlock();
             }
-            else if (!current.equals(target)) {
+            // The cut-over always completes it, bounded by its own request timeouts
+            cutover.join();
+        }
+    }
 
-                sendToWorker(current, new Message(Message.MessageType.REMOVE_RESTAURANT, r));
-                sendToWorker(target, new Message(Message.MessageType.ADD_RESTAURANT, r));
-                assignmentMap.put(r.getName(), target);
-                System.out.println("Master → MOVE " + r.getName() +
-                        " from Worker " + workers.indexOf(current) +
-                        " to Worker " + slot);
+    /** Full restaurant from a healthy replica, for a client that listed it as a summary. */
+    public Restaurant details(String store) {
+        List<WorkerInfo> ws = new ArrayList<>(replicasOf(store));
+        ws.sort((a, b) -> Boolean.compare(!poolFor(a).isHealthy(), !poolFor(b).isHealthy()));
+        for (WorkerInfo w : ws) {
+            try {
+                Message resp = poolFor(w).send(new Message(Message.MessageType.DETAILS, store));
+                return resp.getPayload() instanceof Restaurant ? (Restaurant) resp.getPayload() : null;
+            } catch (IOException e) {
+                System.err.println("DETAILS Error in " + w + ": " + e);
             }
-            // if current == target, it already has so we do nothing
         }
+        return null;
     }
 
     public void addRestaurant(Restaurant r) {
-        int idx = Math.abs(r.getName().hashCode()) % workers.size();
-        WorkerInfo w = workers.get(idx);
-        sendToWorker(w, new Message(Message.MessageType.ADD_RESTAURANT, r));
+        routeWrite(r.getName(), new Message(Message.MessageType.ADD_RESTAURANT, r));
+        searchCache.invalidateListed(r.getName(), false);
+        searchCache.invalidateCovering(r);
     }
 
     private synchronized void createRestaurant(Restaurant r) {
         allRestaurants.add(r);
-        int n = workers.size();
-        if (n == 0) {
+        // Even with no worker yet: ratings and re-seeding look restaurants up here
+        catalog.put(r.getName(), r);
+        List<WorkerInfo> targets = ring.replicasOf(r.getName(), REPLICAS);
+        if (targets.isEmpty()) {
             System.out.println("Master: no workers registered; " +
                     "restaurant " + r.getName());
             return;
         }
 
-        int slot = Math.abs(r.getName().hashCode()) % n;
-        WorkerInfo target = workers.get(slot);
-
-        assignmentMap.put(r.getName(), target);
+        assignmentMap.put(r.getName(), List.copyOf(targets));
 
-        sendToWorker(target, new Message(Message.MessageType.ADD_RESTAURANT, r));
-        System.out.println("Master: new restaurant assigned"
-                + r.getName() + " to Worker " + slot);
+        for (WorkerInfo target : targets) {
+            sendToWorker(target, new Message(Message.MessageType.ADD_RESTAURANT, r));
+        }
+        searchCache.invalidateCovering(r);
+        System.out.println("Master: new restaurant assigned "
+                + r.getName() + " to Worker " + targets.get(0).getId());
     }
 
     public void addProduct(ProductAction pa) {
-        int idx = Math.abs(pa.getStoreName().hashCode()) % workers.size();
-        WorkerInfo w = workers.get(idx);
-        sendToWorker(w, new Message(Message.MessageType.ADD_PRODUCT, pa));
+        routeWrite(pa.getStoreName(), new Message(Message.MessageType.ADD_PRODUCT, pa));
+        searchCache.invalidateListed(pa.getStoreName(), true);
     }
 
     public void removeProduct(ProductAction pa) {
-        int idx = Math.abs(pa.getStoreName().hashCode()) % workers.size();
-        WorkerInfo w = workers.get(idx);
-        sendToWorker(w, new Message(Message.MessageType.REMOVE_PRODUCT, pa));
+        routeWrite(pa.getStoreName(), new Message(Message.MessageType.REMOVE_PRODUCT, pa));
+        searchCache.invalidateListed(pa.getStoreName(), true);
     }
 
     public void rateRestaurant(Rating rt) {
-        int idx = Math.abs(rt.getStoreName().hashCode()) % workers.size();
-        WorkerInfo w = workers.get(idx);
-        sendToWorker(w, new Message(Message.MessageType.RATE, rt));
+        routeWrite(rt.getStoreName(), new Message(Message.MessageType.RATE, rt));
+        // A new average can move the restaurant within, into or out of any search near it
+        searchCache.invalidateListed(rt.getStoreName(), false);
+        Restaurant r = catalog.get(rt.getStoreName());
+        if (r != null) searchCache.invalidateCovering(r);
     }
 
-    private void sendToWorker(WorkerInfo w, Message msg) {
-        System.out.println("Master->Worker " + w.getId() + ": send " + msg.getType());
-        try (Socket s = new Socket(w.getHost(), w.getPort());
-             ObjectOutputStream oos = new ObjectOutputStream(s.getOutputStream());
-             ObjectInputStream ois = new ObjectInputStream(s.getInputStream())) {
+    /**
+     * Sends a sale to the store's replicas only, through each worker's batcher, and waits until
+     * the batches holding it are applied. A shard cut-over lets batches already headed to the
+     * old owner land before ownership flips.
+     */
+    public void recordSale(Sale sale) {
+        Map<WorkerInfo, CompletableFuture<Void>> acks = submitWrite(sale.getStoreName(), w -> batcherFor(w).add(sale));
+        try {
+            for (CompletableFuture<Void> ack : acks.values()) ack.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("SALE Error for " + sale.getStoreName() + ": " + e.getCause());
+        }
+        searchCache.invalidateListed(sale.getStoreName(), true);
+    }
+
+    private SaleBatcher batcherFor(WorkerInfo w) {
+        return saleBatchers.computeIfAbsent(w, k -> new SaleBatcher(poolFor(k)::submit, batchTimer));
+    }
+
+    /** Runs a search through the cache; results that miss workers are never cached. */
+    public ReduceResult search(FilterSpec fs) {
+        if (!searchCache.isEnabled()) {
+            return new ReduceTask().combine(gatherMapTasks(fs), fs);
+        }
+        ReduceResult cached = searchCache.get(fs);
+        if (cached != null) return cached;
+        long epoch = searchCache.epoch(fs);
+        ReduceResult rr = new ReduceTask().combine(gatherMapTasks(fs), fs);
+        searchCache.put(fs, rr, epoch);
+        return rr;
+    }
+
+    ExecutorService getPipelineExecutor() {
+        return pipelineExecutor;
+    }
+
+    WorkerConnectionPool poolFor(WorkerInfo w) {
+        return pools.computeIfAbsent(w, WorkerConnectionPool::new);
+    }
+
+    /**
+     * Failure detector: pings every worker each efood.heartbeatMs and removes one that has left
+     * a heartbeat unanswered for efood.failureTimeoutMs. Removed workers keep being pinged, and
+     * one that answers again rejoins as if it had just registered. Removals and rejoins run on
+     * the membership thread; this one only decides.
+     */
+    private void checkWorkerConnections() {
+        for (WorkerInfo w : snapshotWorkers()) {
+            if (membershipPending.contains(w)) continue;
+            WorkerConnectionPool pool = poolFor(w);
+            long silent = pool.unansweredMillis();
+            if (silent > FAILURE_TIMEOUT_MS) {
+                changeMembership(w, () -> removeWorker(w, silent));
+            } else {
+                if (!pool.isHealthy()) System.err.println("Health check failed for " + w);
+                pool.heartbeat();
+            }
+        }
+        for (WorkerInfo w : evicted.keySet()) {
+            if (membershipPending.contains(w)) continue;
+            // A fresh pool (the old one was closed on removal) has not heard the worker yet
+            WorkerConnectionPool pool = poolFor(w);
+            if (pool.hasAnswered() && pool.silentMillis() < HEARTBEAT_MS) {
+                System.out.println("Master: removed Worker " + w.getId() + " answers again; re-registering it");
+                changeMembership(w, () -> registerWorker(w));
+            } else {
+                pool.heartbeat();
+            }
+        }
+    }
+
+    /** Queues a removal or rejoin of {@code w} on the membership thread, unless one is pending. */
+    private void changeMembership(WorkerInfo w, Runnable change) {
+        if (!membershipPending.add(w)) return;
+        membership.execute(() -> {
+            try {
+                change.run();
+            } catch (RuntimeException e) {
+                System.err.println("Master: membership change for Worker " + w.getId() + " failed: " + e);
+            } finally {
+                membershipPending.remove(w);
+            }
+        });
+    }
 
-            oos.writeObject(msg);
-            oos.flush();
+    /**
+     * Takes a dead worker out of the ring and the assignments, then rebalances: restaurants it
+     * shared are copied on from their surviving replicas, and restaurants it alone held are
+     * re-added from the master's catalog, losing whatever changed on that worker since loading.
+     */
+    private synchronized void removeWorker(WorkerInfo w, long silentMs) {
+        synchronized (workers) {
+            if (!workers.remove(w)) return;
+        }
+        ring.remove(w);
+        List<String> held = new ArrayList<>();
+        int orphans = 0;
+        placementLock.writeLock().lock();
+        try {
+            for (Map.Entry<String, List<WorkerInfo>> e : assignmentMap.entrySet()) {
+                if (!e.getValue().contains(w)) continue;
+                held.add(e.getKey());
+                List<WorkerInfo> rest = without(e.getValue(), w);
+                if (rest.isEmpty()) {
+                    assignmentMap.remove(e.getKey());
+                    orphans++;
+                } else {
+                    e.setValue(rest);
+                }
+            }
+        } finally {
+            placementLock.writeLock().unlock();
+        }
+        evicted.put(w, held);
+        workersRemoved.incrementAndGet();
+        saleBatchers.remove(w);
+        inFlightWrites.remove(w);
+        // Fails whatever is still waiting on it and frees its sockets and reader threads; the
+        // failure detector opens a fresh pool to keep pinging it
+        WorkerConnectionPool pool = pools.remove(w);
+        if (pool != null) pool.close();
+        System.err.println("Master: Worker " + w.getId() + " silent for " + silentMs + " ms; removed, reassigning "
+                + held.size() + " restaurants (" + orphans + " from the master's catalog)");
+        rebalanceAssignments();
+        if (orphans > 0) searchCache.invalidateAll();
+    }
 
-            Message resp = (Message) ois.readObject();
+    private void sendToWorker(WorkerInfo w, Message msg) {
+        System.out.println("Master->Worker " + w.getId() + ": send " + msg.getType());
+        try {
+            Message resp = poolFor(w).send(msg);
             System.out.println("Response from worker " + w.getId() + ": " + resp.getPayload());
 
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.err.println(msg.getType() + " Error in " + w + ": " + e);
         }
     }
 
-    public List<MapResult> dispatchMapTasks(FilterSpec fs) {
-        List<MapResult> res = new ArrayList<>();
-        for (WorkerInfo w : workers) {
-            try { res.add(new MapTask(fs, w).execute()); }
-            catch (Exception e) { System.err.println("MapTask failed in " + w + ": " + e); }
+    public GatherResult<MapResult> gatherMapTasks(FilterSpec fs) {
+        GatherResult<MapResult> g;
+        Serving layout = acquireServing();
+        try {
+            if (REPLICAS > 1) {
+                g = gatherReplicated(layout, (w, scope) -> new MapTask(fs.scoped(scope), w).submit(poolFor(w)),
+                        Message.MessageType.TASK, SEARCH_DEADLINE_MS);
+            } else {
+                Map<WorkerInfo, Callable<MapResult>> calls = new LinkedHashMap<>();
+                layout.scopes.forEach((w, scope) -> {
+                    MapTask task = new MapTask(fs.scoped(scope), w);
+                    calls.put(w, () -> task.execute(poolFor(w)));
+                });
+                g = scatter.gather(calls, SEARCH_DEADLINE_MS);
+            }
+        } finally {
+            layout.release();
+        }
+        if (g.isPartial()) {
+            System.err.println("MapTask partial result, missing workers: " + g.getMissingWorkerIds());
+        }
+        return g;
+    }
+
+    public GatherResult<MapResult> gatherSalesReports(String type) {
+        GatherResult<MapResult> g;
+        Serving layout = acquireServing();
+        try {
+            if (REPLICAS > 1) {
+                g = gatherReplicated(layout, (w, scope) -> new ReportTask(type, w, scope).submit(poolFor(w)),
+                        Message.MessageType.REPORT, REPORT_DEADLINE_MS);
+            } else {
+                Map<WorkerInfo, Callable<MapResult>> calls = new LinkedHashMap<>();
+                layout.scopes.forEach((w, scope) -> {
+                    ReportTask task = new ReportTask(type, w, scope);
+                    calls.put(w, () -> task.execute(poolFor(w)));
+                });
+                g = scatter.gather(calls, REPORT_DEADLINE_MS);
+            }
+        } finally {
+            layout.release();
+        }
+        if (g.isPartial()) {
+            System.err.println("ReportTask partial result, missing workers: " + g.getMissingWorkerIds());
+        }
+        return g;
+    }
+
+    /**
+     * Scatter over replicated shards: every arc of the serving ring goes to one of its replicas,
+     * and each worker is told which arcs it answers for. A worker that fails, or is slower than
+     * its own recent p95 (efood.hedgePercentile), has its arcs asked of other replicas too and
+     * the first complete answer wins.
+     */
+    private GatherResult<MapResult> gatherReplicated(Serving layout,
+            BiFunction<WorkerInfo, TokenScope, CompletableFuture<MapResult>> call,
+            Message.MessageType type, long deadlineMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        Map<WorkerInfo, ReplicaRequest> requests = new LinkedHashMap<>();
+        pickReplicas(layout.ring.arcs(REPLICAS), Set.of()).forEach((w, arcs) ->
+                requests.put(w, new ReplicaRequest(call, type, w, arcs, Set.of(w), deadline).start()));
+
+        GatherResult<MapResult> out = new GatherResult<>();
+        for (ReplicaRequest rq : requests.values()) {
+            try {
+                rq.result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                        .forEach(out::addResult);
+            } catch (TimeoutException e) {
+                out.addTimedOut(rq.worker);
+            } catch (ExecutionException e) {
+                System.err.println("Scatter call failed in " + rq.worker + ": " + e.getCause());
+                out.addFailed(rq.worker);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                out.addTimedOut(rq.worker);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Delay after which a request to {@code w} is hedged: its recent p-th percentile answer
+     * time, or a quarter of the deadline while it has too few answers to tell. -1 if hedging
+     * is off or would come too late to help.
+     */
+    private long hedgeDelayNanos(WorkerInfo w, Message.MessageType type, long deadline) {
+        if (HEDGE_PERCENTILE <= 0) return -1;
+        long p = poolFor(w).latency(type).percentile(HEDGE_PERCENTILE);
+        long remaining = deadline - System.nanoTime();
+        long delay = p < 0 ? remaining / 4 : Math.max(TimeUnit.MILLISECONDS.toNanos(HEDGE_MIN_MS), p);
+        return delay < remaining ? delay : -1;
+    }
+
+    /**
+     * One worker asked for some arcs, plus the hedge that asks other replicas for the same arcs
+     * when it is slow or fails. The hedge is itself made of ReplicaRequests, so a failing hedge
+     * target is failed over in turn, never to a replica already tried. {@link #result} completes
+     * with the first full answer, or fails once every attempt has failed.
+     */
+    private final class ReplicaRequest {
+        final WorkerInfo worker;
+        final CompletableFuture<List<MapResult>> result = new CompletableFuture<>();
+        private final BiFunction<WorkerInfo, TokenScope, CompletableFuture<MapResult>> call;
+        private final Message.MessageType type;
+        private final List<HashRing.Arc> arcs;
+        private final Set<WorkerInfo> tried;
+        private final long deadline;
+        // Attempts (this worker, the hedge) that may still answer; a hedge about to start counts
+        private final AtomicInteger running = new AtomicInteger(1);
+        private final AtomicBoolean hedged = new AtomicBoolean();
+
+        ReplicaRequest(BiFunction<WorkerInfo, TokenScope, CompletableFuture<MapResult>> call,
+                       Message.MessageType type, WorkerInfo worker, List<HashRing.Arc> arcs,
+                       Set<WorkerInfo> tried, long deadline) {
+            this.call = call;
+            this.type = type;
+            this.worker = worker;
+            this.arcs = arcs;
+            this.tried = tried;
+            this.deadline = deadline;
+        }
+
+        ReplicaRequest start() {
+            TokenScope.Builder scope = new TokenScope.Builder();
+            for (HashRing.Arc a : arcs) scope.addArc(a.prev, a.point);
+            long delay = hedgeDelayNanos(worker, type, deadline);
+            if (delay >= 0) hedgeTimer.schedule(this::hedge, delay, TimeUnit.NANOSECONDS);
+            call.apply(worker, scope.build()).whenComplete((r, e) -> {
+                if (e == null) {
+                    result.complete(List.of(r));
+                } else {
+                    hedge();
+                    attemptFailed(e);
+                }
+            });
+            return this;
+        }
+
+        private void hedge() {
+            running.incrementAndGet();
+            if (result.isDone() || !hedged.compareAndSet(false, true)) {
+                attemptFailed(new IOException("hedge not needed"));
+                return;
+            }
+            Map<WorkerInfo, List<HashRing.Arc>> plan = pickReplicas(arcs, tried);
+            int placed = 0;
+            for (List<HashRing.Arc> mine : plan.values()) placed += mine.size();
+            if (placed < arcs.size() || System.nanoTime() >= deadline) {
+                attemptFailed(new IOException("no other replica left for the arcs of " + worker));
+                return;
+            }
+            hedgesSent.incrementAndGet();
+            System.err.println("Hedging " + type + " to " + worker.getId() + " on " + plan.keySet());
+            List<ReplicaRequest> parts = new ArrayList<>();
+            plan.forEach((w, mine) -> {
+                Set<WorkerInfo> seen = new HashSet<>(tried);
+                seen.add(w);
+                parts.add(new ReplicaRequest(call, type, w, mine, seen, deadline).start());
+            });
+            CompletableFuture.allOf(parts.stream().map(p -> p.result).toArray(CompletableFuture[]::new))
+                    .whenComplete((v, e) -> {
+                        if (e != null) {
+                            attemptFailed(e);
+                            return;
+                        }
+                        List<MapResult> all = new ArrayList<>();
+                        for (ReplicaRequest p : parts) all.addAll(p.result.join());
+                        if (result.complete(all)) hedgesWon.incrementAndGet();
+                    });
+        }
+
+        private void attemptFailed(Throwable e) {
+            if (running.decrementAndGet() == 0) result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * For each arc, the replica with the fewest requests in flight, healthy ones first; ties go
+     * to a random replica so idle workers share the arcs evenly.
+     */
+    private Map<WorkerInfo, List<HashRing.Arc>> pickReplicas(List<HashRing.Arc> arcs, Set<WorkerInfo> avoid) {
+        Map<WorkerInfo, Long> cost = new HashMap<>();
+        Map<WorkerInfo, List<HashRing.Arc>> plan = new LinkedHashMap<>();
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (HashRing.Arc a : arcs) {
+            int n = a.replicas.size();
+            int start = rnd.nextInt(n);
+            WorkerInfo best = null;
+            long bestCost = Long.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                WorkerInfo w = a.replicas.get((start + i) % n);
+                if (avoid.contains(w)) continue;
+                long c = cost.computeIfAbsent(w, k -> {
+                    WorkerConnectionPool pool = poolFor(k);
+                    return pool.isHealthy() && !syncing.contains(k) ? (long) pool.inFlight() : Integer.MAX_VALUE;
+                });
+                if (c < bestCost) {
+                    best = w;
+                    bestCost = c;
+                }
+            }
+            if (best != null) plan.computeIfAbsent(best, k -> new ArrayList<>()).add(a);
         }
-        return res;
+        return plan;
+    }
+
+    public List<MapResult> dispatchMapTasks(FilterSpec fs) {
+        return gatherMapTasks(fs).getResults();
     }
 
     public List<MapResult> dispatchSalesReports(String type) {
-        List<MapResult> res = new ArrayList<>();
-        for (WorkerInfo w : workers) {
-            try { res.add(new ReportTask(type, w).execute()); }
-            catch (Exception e) { System.err.println("ReportTask failed in " + w + ": " + e); }
+        return gatherSalesReports(type).getResults();
+    }
+
+    private List<WorkerInfo> snapshotWorkers() {
+        synchronized (workers) {
+            return new ArrayList<>(workers);
         }
-        return res;
     }
 
     public ReduceResult reduce(List<MapResult> partials) {
@@ -330,18 +1016,12 @@ public class MasterServer {
     }
 
     public void broadcast(Message msg) {
-        for (WorkerInfo w : workers) {
-            try (Socket s = new Socket(w.getHost(), w.getPort());
-                 ObjectOutputStream oos = new ObjectOutputStream(s.getOutputStream());
-                 ObjectInputStream ois = new ObjectInputStream(s.getInputStream())) {
-
-                oos.writeObject(msg);
-                oos.flush();
-
-                Message resp = (Message) ois.readObject();
+        for (WorkerInfo w : snapshotWorkers()) {
+            try {
+                Message resp = poolFor(w).send(msg);
                 System.out.println("Broadcast response from worker " + w.getId() + ": " + resp.getPayload());
 
-            } catch (IOException | ClassNotFoundException e) {
+            } catch (IOException e) {
                 System.err.println("Broadcast failed in " + w + ": " + e);
             }
         }
@@ -11,22 +11,39 @@ public class Message implements Serializable {
         TASK, RESULT,
         SALE, REPORT,
         ADD_RESTAURANT, ADD_PRODUCT, REMOVE_PRODUCT, RATE, REMOVE_RESTAURANT,
-        CREATE_RESTAURANT
+        CREATE_RESTAURANT,
+        MIGRATE_SHARD, SHARD_BATCH, MIGRATE_COMMIT, SHARD_ACTIVATE, SHARD_ABORT,
+        DETAILS, STATS,
+        SALE_BATCH,
+        DROP_SHARD
     }
 
     private MessageType type;
     private Object payload;
+    // 0 means lock-step; any other value is echoed back so pipelined replies can arrive out of order
+    private long requestId;
 
     public Message() {}
     public Message(MessageType type, Object payload) {
+        this(type, payload, 0L);
+    }
+    public Message(MessageType type, Object payload, long requestId) {
         this.type = type;
         this.payload = payload;
+        this.requestId = requestId;
     }
     public MessageType getType() { return type; }
     public Object getPayload() { return payload; }
+    public long getRequestId() { return requestId; }
+    public boolean isPipelined() { return requestId != 0L; }
+
+    public Message withRequestId(long id) {
+        return new Message(type, payload, id);
+    }
 
     @Override
     public String toString() {
-        return "Message{" + "type=" + type + ", payload=" + payload + '}';
+        return "Message{" + "type=" + type + ", payload=" + payload +
+                (requestId != 0L ? ", id=" + requestId : "") + '}';
     }
 }
\ No newline at end of file
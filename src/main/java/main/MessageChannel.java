@@ -0,0 +1,43 @@
+package main;
+
+import java.io.*;
+import java.net.Socket;
+
+/**
+ * One end of a connection, independent of the wire format. Servers sniff the first bytes:
+ * a Java serialization stream header means a legacy object-stream peer, the framed preamble
+ * selects a {@link MessageCodec} for the rest of the connection.
+ */
+public interface MessageChannel extends Closeable {
+    byte[] MAGIC = {'E', 'F'};
+    byte VERSION = 1;
+    int MAX_FRAME = 64 * 1024 * 1024;
+
+    Message read() throws IOException;
+
+    void write(Message msg) throws IOException;
+
+    static MessageChannel accept(Socket socket) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+        in.mark(4);
+        int b0 = in.read();
+        int b1 = in.read();
+        if (b0 == MAGIC[0] && b1 == MAGIC[1]) {
+            int version = in.read();
+            int codec = in.read();
+            if (version != VERSION || codec < 0) {
+                throw new IOException("Unsupported protocol preamble: version " + version);
+            }
+            return new FramedChannel(socket, in, MessageCodec.forId((byte) codec));
+        }
+        in.reset();
+        return new ObjectStreamChannel(socket, in);
+    }
+
+    static MessageChannel connect(Socket socket, MessageCodec codec) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(new byte[]{MAGIC[0], MAGIC[1], VERSION, codec.id()});
+        out.flush();
+        return new FramedChannel(socket, new BufferedInputStream(socket.getInputStream()), codec);
+    }
+}
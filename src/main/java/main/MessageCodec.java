@@ -0,0 +1,30 @@
+package main;
+
+import java.io.IOException;
+
+public interface MessageCodec {
+    byte JAVA = 0;
+    byte BINARY = 1;
+
+    byte id();
+
+    byte[] encode(Message msg) throws IOException;
+
+    Message decode(byte[] data, int off, int len) throws IOException;
+
+    static MessageCodec forId(byte id) throws IOException {
+        switch (id) {
+            case JAVA: return new JavaSerializationCodec();
+            case BINARY: return new BinaryCodec();
+            default: throw new IOException("Unknown codec id: " + id);
+        }
+    }
+
+    static MessageCodec fromName(String name) {
+        return "java".equalsIgnoreCase(name) ? new JavaSerializationCodec() : new BinaryCodec();
+    }
+
+    static MessageCodec preferred() {
+        return fromName(System.getProperty("efood.codec", "binary"));
+    }
+}
@@ -0,0 +1,6 @@
+package main;
+
+@FunctionalInterface
+public interface MessageHandler {
+    Message handle(Message msg) throws Exception;
+}
@@ -0,0 +1,271 @@
+package main;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single selector thread for all sockets; only decoded messages reach the executor, so idle
+ * connections cost a small buffer and no thread. Speaks the framed protocol only.
+ *
+ * Backpressure: at most MAX_QUEUED messages are queued or running server-wide and
+ * MAX_IN_FLIGHT_PER_CONN per connection; past that the connection stops being read until
+ * replies drain. Lock-step (id 0) messages of one connection run one at a time so replies
+ * keep their order; pipelined ones run concurrently.
+ */
+public class NioServerEngine extends ServerEngine {
+    private static final int MAX_QUEUED = Integer.getInteger("efood.nio.maxQueued", 4096);
+    private static final int MAX_IN_FLIGHT_PER_CONN = 256;
+    private static final int INITIAL_BUFFER = 1024;
+
+    private final Semaphore permits = new Semaphore(MAX_QUEUED);
+    private final Queue<Conn> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Set<Conn> stalled = new LinkedHashSet<>();
+    private Selector selector;
+    private ServerSocketChannel server;
+
+    public NioServerEngine(MessageHandler handler, ExecutorService executor) {
+        super(handler, executor);
+    }
+
+    @Override
+    public void bind(int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    @Override
+    public void serve() throws IOException {
+        while (server.isOpen()) {
+            selector.select(stalled.isEmpty() ? 0 : 10);
+            flushPendingWrites();
+            retryStalled();
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                if (!key.isValid()) continue;
+                try {
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Conn c = (Conn) key.attachment();
+                        if (key.isReadable()) read(c);
+                        if (key.isValid() && key.isWritable()) write(c);
+                    }
+                } catch (IOException e) {
+                    if (key.attachment() instanceof Conn) close((Conn) key.attachment());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (server != null) server.close();
+        if (selector != null) selector.close();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = server.accept()) != null) {
+            ch.configureBlocking(false);
+            ch.socket().setTcpNoDelay(true);
+            Conn c = new Conn(ch);
+            c.key = ch.register(selector, SelectionKey.OP_READ, c);
+        }
+    }
+
+    private void read(Conn c) throws IOException {
+        int n = c.ch.read(c.in);
+        if (n < 0) {
+            close(c);
+            return;
+        }
+        c.in.flip();
+        try {
+            if (c.codec == null) {
+                if (c.in.remaining() < 4) return;
+                byte m0 = c.in.get(), m1 = c.in.get(), version = c.in.get(), codecId = c.in.get();
+                if (m0 != MessageChannel.MAGIC[0] || m1 != MessageChannel.MAGIC[1]
+                        || version != MessageChannel.VERSION) {
+                    System.err.println("NIO server: rejecting non-framed peer " + c.ch.getRemoteAddress());
+                    close(c);
+                    return;
+                }
+                c.codec = MessageCodec.forId(codecId);
+            }
+            while (c.in.remaining() >= 4) {
+                int len = c.in.getInt(c.in.position());
+                if (len < 0 || len > MessageChannel.MAX_FRAME) {
+                    throw new IOException("Bad frame length: " + len);
+                }
+                if (c.in.remaining() < 4 + len) {
+                    if (c.in.capacity() < 4 + len) {
+                        ByteBuffer bigger = ByteBuffer.allocate(4 + len);
+                        bigger.put(c.in);
+                        c.in = bigger;
+                        bigger.flip();
+                    }
+                    break;
+                }
+                c.in.getInt();
+                byte[] frame = new byte[len];
+                c.in.get(frame);
+                dispatch(c, c.codec.decode(frame, 0, len));
+            }
+        } finally {
+            c.in.compact();
+        }
+    }
+
+    private void dispatch(Conn c, Message msg) {
+        if (c.backlog.isEmpty() && c.load() < MAX_IN_FLIGHT_PER_CONN && permits.tryAcquire()) {
+            submit(c, msg);
+            return;
+        }
+        c.backlog.add(msg);
+        if (!c.readPaused) {
+            c.readPaused = true;
+            c.key.interestOps(c.key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        stalled.add(c);
+    }
+
+    private void retryStalled() {
+        Iterator<Conn> it = stalled.iterator();
+        while (it.hasNext()) {
+            Conn c = it.next();
+            if (c.closed) {
+                it.remove();
+                continue;
+            }
+            while (!c.backlog.isEmpty() && c.load() < MAX_IN_FLIGHT_PER_CONN && permits.tryAcquire()) {
+                submit(c, c.backlog.poll());
+            }
+            if (c.backlog.isEmpty()) {
+                it.remove();
+                c.readPaused = false;
+                if (c.key.isValid()) {
+                    c.key.interestOps(c.key.interestOps() | SelectionKey.OP_READ);
+                }
+            }
+        }
+    }
+
+    private void submit(Conn c, Message msg) {
+        c.inFlight.incrementAndGet();
+        if (msg.isPipelined()) {
+            executor.execute(() -> process(c, msg));
+            return;
+        }
+        synchronized (c) {
+            if (c.serialBusy) {
+                c.serial.add(msg);
+                return;
+            }
+            c.serialBusy = true;
+        }
+        executor.execute(() -> processSerial(c, msg));
+    }
+
+    private void processSerial(Conn c, Message first) {
+        Message msg = first;
+        while (msg != null) {
+            process(c, msg);
+            synchronized (c) {
+                msg = c.serial.poll();
+                if (msg == null) c.serialBusy = false;
+            }
+        }
+    }
+
+    private void process(Conn c, Message msg) {
+        try {
+            Message resp;
+            try {
+                resp = handler.handle(msg);
+            } catch (Exception e) {
+                resp = new Message(Message.MessageType.RESULT, "ERROR: " + e.getMessage());
+            }
+            if (msg.isPipelined()) {
+                resp = resp.withRequestId(msg.getRequestId());
+            }
+            byte[] frame = c.codec.encode(resp);
+            ByteBuffer bb = ByteBuffer.allocate(4 + frame.length);
+            bb.putInt(frame.length).put(frame).flip();
+            c.out.add(bb);
+            pendingWrites.add(c);
+        } catch (IOException e) {
+            System.err.println("NIO server: encode failed: " + e);
+        } finally {
+            c.inFlight.decrementAndGet();
+            permits.release();
+            selector.wakeup();
+        }
+    }
+
+    private void flushPendingWrites() {
+        Conn c;
+        while ((c = pendingWrites.poll()) != null) {
+            if (c.closed || !c.key.isValid()) continue;
+            try {
+                write(c);
+            } catch (IOException e) {
+                close(c);
+            }
+        }
+    }
+
+    private void write(Conn c) throws IOException {
+        ByteBuffer bb;
+        while ((bb = c.out.peek()) != null) {
+            c.ch.write(bb);
+            if (bb.hasRemaining()) break;
+            c.out.poll();
+        }
+        if (!c.key.isValid()) return;
+        int ops = c.key.interestOps();
+        c.key.interestOps(c.out.isEmpty() ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE);
+    }
+
+    private void close(Conn c) {
+        c.closed = true;
+        if (c.key != null) c.key.cancel();
+        try { c.ch.close(); } catch (IOException ignored) {}
+    }
+
+    private static final class Conn {
+        final SocketChannel ch;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER);
+        MessageCodec codec;
+        final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        // selector thread only
+        final Deque<Message> backlog = new ArrayDeque<>();
+        boolean readPaused;
+        // guarded by this
+        final Deque<Message> serial = new ArrayDeque<>();
+        boolean serialBusy;
+        volatile boolean closed;
+
+        Conn(SocketChannel ch) {
+            this.ch = ch;
+        }
+
+        int load() {
+            return inFlight.get() + out.size();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package main;
+
+import java.io.*;
+import java.net.Socket;
+
+/** Legacy peers that talk raw ObjectOutputStream/ObjectInputStream, e.g. the consoles. */
+public class ObjectStreamChannel implements MessageChannel {
+    private final Socket socket;
+    private final ObjectOutputStream oos;
+    private final ObjectInputStream ois;
+
+    public ObjectStreamChannel(Socket socket, InputStream in) throws IOException {
+        this.socket = socket;
+        this.oos = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        oos.flush();
+        this.ois = new ObjectInputStream(in);
+    }
+
+    @Override
+    public Message read() throws IOException {
+        try {
+            return (Message) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void write(Message msg) throws IOException {
+        synchronized (oos) {
+            oos.writeObject(msg);
+            // Long-lived stream: do not let later messages alias earlier objects
+            oos.reset();
+            oos.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        try { socket.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,136 @@
+package main;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class PipelinedConnection implements Closeable {
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+
+    private final Socket socket;
+    private final MessageChannel channel;
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<Long, CompletableFuture<Message>> pending = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    public PipelinedConnection(String host, int port) throws IOException {
+        this(host, port, MessageCodec.preferred());
+    }
+
+    public PipelinedConnection(String host, int port, MessageCodec codec) throws IOException {
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            this.channel = MessageChannel.connect(socket, codec);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        Thread reader = new Thread(this::readLoop, "pipeline-reader-" + host + ":" + port);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public CompletableFuture<Message> submit(Message msg) {
+        return submit(msg, 0);
+    }
+
+    /**
+     * Sends without waiting. Unless {@code timeoutMs} is 0 the future fails with a
+     * {@link TimeoutException} if no answer arrives in time, and a late answer is dropped.
+     */
+    public CompletableFuture<Message> submit(Message msg, long timeoutMs) {
+        long id = nextId.incrementAndGet();
+        CompletableFuture<Message> f = new CompletableFuture<>();
+        pending.put(id, f);
+        try {
+            if (closed) throw new NotSentException("connection closed");
+            channel.write(msg.withRequestId(id));
+        } catch (IOException e) {
+            pending.remove(id);
+            f.completeExceptionally(e);
+            close();
+            return f;
+        }
+        if (timeoutMs > 0) {
+            f.orTimeout(timeoutMs, TimeUnit.MILLISECONDS).whenComplete((resp, e) -> {
+                if (e instanceof TimeoutException) pending.remove(id, f);
+            });
+        }
+        return f;
+    }
+
+    public Message request(Message msg) throws IOException {
+        return request(msg, 0);
+    }
+
+    /**
+     * Sends and waits up to {@code timeoutMs} (0 = no limit) for the answer. Giving up, by
+     * timeout or interrupt, throws an {@link InterruptedIOException} and leaves the connection
+     * open: other requests pipelined on it are unaffected, and a late answer is dropped.
+     */
+    public Message request(Message msg, long timeoutMs) throws IOException {
+        CompletableFuture<Message> f = submit(msg, timeoutMs);
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.values().remove(f);
+            throw (InterruptedIOException) new InterruptedIOException("interrupted").initCause(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) throw new SocketTimeoutException("no answer in " + timeoutMs + " ms");
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    public int inFlight() {
+        return pending.size();
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    private void readLoop() {
+        IOException failure = null;
+        try {
+            while (!closed) {
+                Message resp = channel.read();
+                CompletableFuture<Message> f = pending.remove(resp.getRequestId());
+                if (f != null) {
+                    f.complete(resp);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            close();
+            IOException cause = failure != null ? failure : new EOFException("connection closed");
+            pending.values().forEach(f -> f.completeExceptionally(cause));
+            pending.clear();
+        }
+    }
+
+    /** The request failed before any of it was written, so the worker cannot have seen it. */
+    public static class NotSentException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public NotSentException(String message) {
+            super(message);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try { socket.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,10 @@
+package main;
+
+/** What a search order needs to rank a result, whether a full Restaurant or a summary. */
+public interface Rankable {
+    String getName();
+    double getLatitude();
+    double getLongitude();
+    double getAverageRating();
+    int getNoOfVotes();
+}
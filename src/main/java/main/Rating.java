@@ -15,6 +15,7 @@ public class Rating implements Serializable {
 
     public String getStoreName() { return storeName; }
     public int getStars() { return stars; }
+    public boolean isValid() { return Restaurant.validRating(stars); }
 
     @Override
     public String toString() {
@@ -0,0 +1,71 @@
+package main;
+
+import static main.Checks.check;
+import static main.Checks.finish;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * Votes on a restaurant: many threads voting at once lose no vote and no star, a reader
+ * meanwhile never sees an average outside the stars' range, and votes outside 0..5 are
+ * refused before they can reach the packed counters.
+ */
+public class RatingTest {
+    private static final int THREADS = 8;
+    private static final int VOTES_PER_THREAD = 50_000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("--- CONCURRENT VOTES ---");
+        Restaurant r = new Restaurant("PizzaFun", 40.01, 23.01, "pizza", 3, PriceCategory.TWO_DOLLARS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> voters = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int stars = t % (Restaurant.MAX_STARS + 1);
+            Thread th = new Thread(() -> {
+                try { start.await(); } catch (InterruptedException e) { return; }
+                for (int i = 0; i < VOTES_PER_THREAD; i++) r.addRating(stars);
+            });
+            th.start();
+            voters.add(th);
+        }
+        start.countDown();
+        int outOfRange = 0;
+        while (voters.stream().anyMatch(Thread::isAlive)) {
+            double avg = r.getAverageRating();
+            if (avg < 0 || avg > Restaurant.MAX_STARS) outOfRange++;
+        }
+        for (Thread th : voters) th.join();
+
+        long starSum = 3;
+        for (int t = 0; t < THREADS; t++) starSum += (long) (t % (Restaurant.MAX_STARS + 1)) * VOTES_PER_THREAD;
+        int votes = 1 + THREADS * VOTES_PER_THREAD;
+        check("no vote is lost", votes, r.getNoOfVotes());
+        check("no star is lost", String.format(Locale.ROOT, "%.6f", (double) starSum / votes),
+                String.format(Locale.ROOT, "%.6f", r.getAverageRating()));
+        check("averages read meanwhile stayed within the stars", 0, outOfRange);
+
+        System.out.println("\n--- OUT OF RANGE ---");
+        Restaurant sushi = new Restaurant("SushiGo", 40.02, 23.02, "sushi", 4, PriceCategory.THREE_DOLLARS);
+        for (int stars : new int[] {-1, Restaurant.MAX_STARS + 1, 2_000_000_000, Integer.MIN_VALUE}) {
+            check(stars + " stars is refused", "IllegalArgumentException", outcome(sushi, stars));
+        }
+        check("refused votes leave the rating alone", "4.0 of 1", sushi.getAverageRating() + " of " + sushi.getNoOfVotes());
+        check("0 and 5 stars are votes", "ok ok", outcome(sushi, 0) + " " + outcome(sushi, Restaurant.MAX_STARS));
+        check("the master refuses them too", List.of(false, true, true, false),
+                List.of(new Rating("SushiGo", -1).isValid(), new Rating("SushiGo", 0).isValid(),
+                        new Rating("SushiGo", 5).isValid(), new Rating("SushiGo", 6).isValid()));
+
+        finish("Rating");
+    }
+
+    private static String outcome(Restaurant r, int stars) {
+        try {
+            r.addRating(stars);
+            return "ok";
+        } catch (IllegalArgumentException e) {
+            return "IllegalArgumentException";
+        }
+    }
+}
@@ -8,14 +8,21 @@ public class ReduceResult implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private final List<Restaurant> restaurants;
-    private final Map<String, Integer> ventasPorKey;
+    private final List<RestaurantSummary> summaries;
+    private final Map<String, Long> ventasPorKey;
+    private List<String> missingWorkers = new ArrayList<>();
 
-    public ReduceResult(List<Restaurant> restaurants, Map<String, Integer> ventasPorKey) {
+    public ReduceResult(List<Restaurant> restaurants, Map<String, Long> ventasPorKey) {
+        this(restaurants, List.of(), ventasPorKey);
+    }
+
+    public ReduceResult(List<Restaurant> restaurants, List<RestaurantSummary> summaries, Map<String, Long> ventasPorKey) {
         this.restaurants = new ArrayList<>(restaurants);
+        this.summaries = new ArrayList<>(summaries);
         this.ventasPorKey = new HashMap<>(ventasPorKey);
 
-        int total = this.ventasPorKey.values().stream()
-                .mapToInt(Integer::intValue)
+        long total = this.ventasPorKey.values().stream()
+                .mapToLong(Long::longValue)
                 .sum();
         this.ventasPorKey.put("total", total);
     }
@@ -24,12 +31,30 @@ public class ReduceResult implements Serializable {
         return Collections.unmodifiableList(restaurants);
     }
 
-    public Map<String, Integer> getVentasPorKey() {
+    public List<RestaurantSummary> getSummaries() {
+        return Collections.unmodifiableList(summaries);
+    }
+
+    public Map<String, Long> getVentasPorKey() {
         return Collections.unmodifiableMap(ventasPorKey);
     }
 
+    public void setMissingWorkers(List<String> missingWorkers) {
+        this.missingWorkers = new ArrayList<>(missingWorkers);
+    }
+
+    public List<String> getMissingWorkers() {
+        return Collections.unmodifiableList(missingWorkers);
+    }
+
+    public boolean isPartial() {
+        return !missingWorkers.isEmpty();
+    }
+
     @Override
     public String toString() {
-        return "ReduceResult{restaurants=" + restaurants + ", ventasPorKey=" + ventasPorKey + '}';
+        return "ReduceResult{restaurants=" + restaurants +
+                (summaries.isEmpty() ? "" : ", summaries=" + summaries) + ", ventasPorKey=" + ventasPorKey +
+                (isPartial() ? ", partial=true, missingWorkers=" + missingWorkers : "") + '}';
     }
 }
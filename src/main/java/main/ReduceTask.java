@@ -5,15 +5,88 @@ import java.util.*;
 public class ReduceTask {
 
     public ReduceResult combine(List<MapResult> partials) {
-        List<Restaurant> all = new ArrayList<>();
-        Map<String,Integer> ventas = new HashMap<>();
+        // Keyed by name: during a shard cut-over a restaurant can briefly be live on two workers
+        Map<String,Restaurant> all = new LinkedHashMap<>();
+        Map<String,Long> ventas = new HashMap<>();
 
         for (MapResult mr : partials) {
-            all.addAll(mr.getRestaurants());
+            for (Restaurant r : mr.getRestaurants()) all.putIfAbsent(r.getName(), r);
             mr.getVentasPorKey().forEach(
-                (k,v) -> ventas.merge(k, v, Integer::sum)
+                (k,v) -> ventas.merge(k, v, Long::sum)
             );
         }
-        return new ReduceResult(all, ventas);
+        return new ReduceResult(new ArrayList<>(all.values()), ventas);
+    }
+
+    /**
+     * Search reduce: workers send their local top-K already sorted, so a k-way merge over the
+     * list heads yields the global top-K after at most K steps.
+     */
+    public ReduceResult combine(List<MapResult> partials, FilterSpec fs) {
+        List<List<Restaurant>> full = new ArrayList<>();
+        List<List<RestaurantSummary>> summaries = new ArrayList<>();
+        for (MapResult mr : partials) {
+            full.add(mr.getRestaurants());
+            summaries.add(mr.getSummaries());
+        }
+        return new ReduceResult(merge(full, fs), merge(summaries, fs), Map.of());
+    }
+
+    static <T extends Rankable> List<T> merge(List<List<T>> lists, FilterSpec fs) {
+        Comparator<Rankable> order = fs.getOrder().comparator(fs);
+        int limit = fs.getLimit();
+        List<T> merged = new ArrayList<>();
+        // Deduped by name: during a shard cut-over a restaurant can briefly be live on two workers
+        Set<String> seen = new HashSet<>();
+        if (order == null) {
+            for (List<T> list : lists) {
+                for (T r : list) {
+                    if (limit > 0 && merged.size() == limit) return merged;
+                    if (seen.add(r.getName())) merged.add(r);
+                }
+            }
+            return merged;
+        }
+
+        PriorityQueue<Cursor<T>> heads = new PriorityQueue<>((a, b) -> order.compare(a.head(), b.head()));
+        for (List<T> list : lists) {
+            if (!list.isEmpty()) heads.add(new Cursor<>(list));
+        }
+        while (!heads.isEmpty() && (limit == 0 || merged.size() < limit)) {
+            Cursor<T> c = heads.poll();
+            T r = c.head();
+            if (seen.add(r.getName())) merged.add(r);
+            if (c.advance()) heads.add(c);
+        }
+        return merged;
+    }
+
+    public ReduceResult combine(GatherResult<MapResult> gathered) {
+        ReduceResult rr = combine(gathered.getResults());
+        rr.setMissingWorkers(gathered.getMissingWorkerIds());
+        return rr;
+    }
+
+    public ReduceResult combine(GatherResult<MapResult> gathered, FilterSpec fs) {
+        ReduceResult rr = combine(gathered.getResults(), fs);
+        rr.setMissingWorkers(gathered.getMissingWorkerIds());
+        return rr;
+    }
+
+    private static final class Cursor<T> {
+        private final List<T> list;
+        private int i;
+
+        Cursor(List<T> list) {
+            this.list = list;
+        }
+
+        T head() {
+            return list.get(i);
+        }
+
+        boolean advance() {
+            return ++i < list.size();
+        }
     }
 }
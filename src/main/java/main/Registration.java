@@ -0,0 +1,28 @@
+package main;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * REGISTER payload: the worker plus how many restaurants it came up with. A known worker that
+ * restarts with none (no efood.dataDir, or a lost one) has to be re-seeded by the master.
+ */
+public class Registration implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final WorkerInfo worker;
+    private final int restaurants;
+
+    public Registration(WorkerInfo worker, int restaurants) {
+        this.worker = Objects.requireNonNull(worker);
+        this.restaurants = restaurants;
+    }
+
+    public WorkerInfo getWorker() { return worker; }
+    public int getRestaurants() { return restaurants; }
+
+    @Override
+    public String toString() {
+        return "Registration{worker=" + worker + ", restaurants=" + restaurants + '}';
+    }
+}
@@ -0,0 +1,101 @@
+package main;
+
+import static main.Checks.check;
+import static main.Checks.finish;
+
+import java.io.File;
+import java.net.Socket;
+import java.util.*;
+
+
+/**
+ * Failover with two replicas: three worker processes, one killed outright. Searches and reports
+ * must stay complete while the master still believes it is alive, after it is removed and its
+ * restaurants re-replicated, and after a second worker dies once that copy is done.
+ */
+public class ReplicationTest {
+    private static final int MASTER_PORT = 5655;
+    private static final int RESTAURANTS = 300;
+    private static final long FAILURE_TIMEOUT_MS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        // Read by MasterServer's static fields, so set before the class is first used
+        System.setProperty("efood.replicas", "2");
+        System.setProperty("efood.failureTimeoutMs", String.valueOf(FAILURE_TIMEOUT_MS));
+        System.setProperty("efood.heartbeatMs", "500");
+
+        MasterServer master = new MasterServer(MASTER_PORT);
+        new Thread(() -> {
+            try { master.start(); }
+            catch (Exception e) { e.printStackTrace(); }
+        }, "MasterThread").start();
+
+        Map<String, Process> workers = new LinkedHashMap<>();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> workers.values().forEach(Process::destroyForcibly)));
+        Thread.sleep(1000);
+        for (int i = 1; i <= 3; i++) {
+            workers.put("w" + i, startWorker("w" + i, 6100 + i));
+            Thread.sleep(1000);
+        }
+        Thread.sleep(1500);
+
+        try (Socket client = new Socket("localhost", MASTER_PORT);
+             MessageChannel channel = MessageChannel.connect(client, MessageCodec.preferred())) {
+
+            System.out.println("--- LOAD ---");
+            for (int i = 0; i < RESTAURANTS; i++) {
+                channel.write(new Message(Message.MessageType.CREATE_RESTAURANT,
+                        new Restaurant("R" + i, 40.0 + i * 1e-5, 23.0, "souvlaki", 4, PriceCategory.ONE_DOLLAR)));
+                channel.read();
+                channel.write(new Message(Message.MessageType.ADD_PRODUCT, new ProductAction("R" + i, "gyros", 3.5)));
+                channel.read();
+            }
+            for (int i = 0; i < RESTAURANTS; i++) {
+                channel.write(new Message(Message.MessageType.SALE, new Sale("R" + i, Map.of("gyros", 1))));
+                channel.read();
+            }
+            Thread.sleep(1000);
+            expectComplete(channel, "all workers up");
+
+            System.out.println("\n--- KILL w2 ---");
+            workers.remove("w2").destroyForcibly().waitFor();
+            expectComplete(channel, "before the master notices");
+
+            System.out.println("\n--- w2 REMOVED ---");
+            Thread.sleep(FAILURE_TIMEOUT_MS + 3000);
+            expectComplete(channel, "after its restaurants are re-replicated");
+
+            System.out.println("\n--- KILL w3 ---");
+            workers.remove("w3").destroyForcibly().waitFor();
+            expectComplete(channel, "with one worker left holding every copy");
+        } finally {
+            workers.values().forEach(Process::destroyForcibly);
+        }
+
+        finish("Replication");
+    }
+
+    private static Process startWorker(String id, int port) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), WorkerNode.class.getName(),
+                id, "localhost", String.valueOf(port), "localhost", String.valueOf(MASTER_PORT))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+    }
+
+    private static void expectComplete(MessageChannel channel, String when) throws Exception {
+        channel.write(new Message(Message.MessageType.TASK, new FilterSpec(40.0, 23.0, Set.of("souvlaki"), 0, null)));
+        ReduceResult rr = (ReduceResult) channel.read().getPayload();
+        Set<String> names = new HashSet<>();
+        for (Restaurant r : rr.getRestaurants()) names.add(r.getName());
+        check("search " + when + ": every restaurant once",
+                RESTAURANTS + " distinct of " + RESTAURANTS + ", complete",
+                names.size() + " distinct of " + rr.getRestaurants().size() + (rr.isPartial() ? ", partial" : ", complete"));
+
+        channel.write(new Message(Message.MessageType.REPORT, "all"));
+        @SuppressWarnings("unchecked")
+        Map<String, Long> report = (Map<String, Long>) channel.read().getPayload();
+        check("report " + when + ": every sale once", (long) RESTAURANTS, report.get("total"));
+    }
+}
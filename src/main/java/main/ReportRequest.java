@@ -0,0 +1,25 @@
+package main;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/** REPORT payload for replicated shards: the report type plus the ring arcs this worker answers for. */
+public class ReportRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String type;
+    private final TokenScope scope;
+
+    public ReportRequest(String type, TokenScope scope) {
+        this.type = Objects.requireNonNull(type);
+        this.scope = scope;
+    }
+
+    public String getType() { return type; }
+    public TokenScope getScope() { return scope; }
+
+    @Override
+    public String toString() {
+        return "ReportRequest{type='" + type + "', scope=" + scope + '}';
+    }
+}
@@ -1,9 +1,10 @@
 package main;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.Objects;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 
@@ -12,38 +13,58 @@ public class ReportTask implements Serializable {
 
     private final String reportType;
     private final WorkerInfo targetWorker;
+    private final TokenScope scope;
 
     public ReportTask(String reportType, WorkerInfo targetWorker) {
+        this(reportType, targetWorker, null);
+    }
+
+    /** With a scope the worker counts only the ring arcs it was picked to answer for. */
+    public ReportTask(String reportType, WorkerInfo targetWorker, TokenScope scope) {
         this.reportType = Objects.requireNonNull(reportType);
         this.targetWorker = Objects.requireNonNull(targetWorker);
+        this.scope = scope;
     }
 
-    public MapResult execute() throws IOException, ClassNotFoundException {
-        try (Socket s = new Socket(targetWorker.getHost(), targetWorker.getPort());
-             ObjectOutputStream oos = new ObjectOutputStream(s.getOutputStream());
-             ObjectInputStream  ois = new ObjectInputStream(s.getInputStream())) {
+    public WorkerInfo getTargetWorker() { return targetWorker; }
 
-            oos.writeObject(new Message(Message.MessageType.REPORT, reportType));
-            oos.flush();
+    public MapResult execute(WorkerConnectionPool pool) throws IOException {
+        return result(pool.send(request()));
+    }
 
-            Message resp = (Message) ois.readObject();
-            if (resp.getType() != Message.MessageType.RESULT) {
-                throw new IOException("ReportTask: unexpected response: " + resp.getType());
+    /** Pipelined variant of {@link #execute}: no thread waits for the worker's answer. */
+    public CompletableFuture<MapResult> submit(WorkerConnectionPool pool) {
+        return pool.submit(request()).thenCompose(resp -> {
+            try {
+                return CompletableFuture.completedFuture(result(resp));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
             }
+        });
+    }
 
-            Object payload = resp.getPayload();
-            if (payload instanceof MapResult) {
-                return (MapResult) payload;
-            } else if (payload instanceof Map) {
-
-                MapResult mr = new MapResult();
-                @SuppressWarnings("unchecked")
-                Map<String,Integer> ventas = (Map<String,Integer>) payload;
-                ventas.forEach(mr::addVenta);
-                return mr;
-            } else {
-                throw new IOException("ReportTask: expected payload type: " + payload.getClass());
-            }
+    private Message request() {
+        Object request = scope == null ? reportType : new ReportRequest(reportType, scope);
+        return new Message(Message.MessageType.REPORT, request);
+    }
+
+    private static MapResult result(Message resp) throws IOException {
+        if (resp.getType() != Message.MessageType.RESULT) {
+            throw new IOException("ReportTask: unexpected response: " + resp.getType());
+        }
+
+        Object payload = resp.getPayload();
+        if (payload instanceof MapResult) {
+            return (MapResult) payload;
+        } else if (payload instanceof Map) {
+
+            MapResult mr = new MapResult();
+            @SuppressWarnings("unchecked")
+            Map<String,Long> ventas = (Map<String,Long>) payload;
+            ventas.forEach(mr::addVenta);
+            return mr;
+        } else {
+            throw new IOException("ReportTask: expected payload type: " + payload.getClass());
         }
     }
 }
\ No newline at end of file
@@ -2,22 +2,36 @@ package main;
 
 import java.io.Serializable;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 
-public class Restaurant implements Serializable {
+public class Restaurant implements Rankable, Serializable {
     private static final long serialVersionUID = 1L;
+    /** Votes are whole stars from 0 to this. */
+    public static final int MAX_STARS = 5;
 
     private final String name;
     private final double latitude;
     private final double longitude;
     private final String foodCategory;
     private final PriceCategory priceCategory;
-    private int noOfVotes;
-    private double averageRating;
-    private final Map<String, Product> products = new HashMap<>();
-    private final Map<String, Integer> sales = new HashMap<>();
+    // Rating = (baseSum + starSum) / (baseVotes + count). The base is the initial rating as one
+    // vote (or a restored average); new votes are packed as count << 32 | starSum in one word,
+    // so a vote is a single atomic add and a read sees sum and count from the same instant. (A
+    // worker still locks its index for the votes that move the average to another whole star.)
+    // Votes are capped at MAX_STARS, which keeps starSum from carrying into the count.
+    private volatile double baseSum;
+    private volatile int baseVotes;
+    private final AtomicLong votes = new AtomicLong();
+    // HashRing.hash(name), computed on first use; 0 means not yet
+    private transient long placementToken;
+    // Read concurrently by searches and serialization while managers edit the menu
+    private final Map<String, Product> products = new ConcurrentHashMap<>();
+    private final SalesCounter sales = new SalesCounter();
+    private final SalesTimeline timeline = new SalesTimeline();
 
     public Restaurant(String name,
                       double latitude,
@@ -29,8 +43,8 @@ public class Restaurant implements Serializable {
         this.latitude = latitude;
         this.longitude = longitude;
         this.foodCategory = foodCategory;
-        this.noOfVotes = 1;
-        this.averageRating = initialRating;
+        this.baseSum = initialRating;
+        this.baseVotes = 1;
         this.priceCategory = priceCategory;
     }
 
@@ -39,14 +53,38 @@ public class Restaurant implements Serializable {
     public double getLongitude() { return longitude; }
     public String getFoodCategory() { return foodCategory; }
     public PriceCategory getPriceCategory() { return priceCategory; }
-    public int getNoOfVotes() { return noOfVotes; }
-    public double getAverageRating() { return averageRating; }
+    /** Position of this restaurant on the placement ring, for token-scoped searches. */
+    public long getPlacementToken() {
+        long t = placementToken;
+        if (t == 0) placementToken = t = HashRing.hash(name);
+        return t;
+    }
+
+    public int getNoOfVotes() { return baseVotes + (int) (votes.get() >>> 32); }
+
+    public double getAverageRating() {
+        long v = votes.get();
+        return (baseSum + (v & 0xFFFFFFFFL)) / (baseVotes + (v >>> 32));
+    }
 
     public Map<String, Product> getProducts() {
         return Collections.unmodifiableMap(products);
     }
-    public Map<String, Integer> getSales() {
-        return Collections.unmodifiableMap(sales);
+    public Map<String, Long> getSales() {
+        return sales.snapshot();
+    }
+    public long getTotalSales() {
+        return sales.total();
+    }
+    public long getSalesOf(String productName) {
+        return sales.get(productName);
+    }
+    public SalesTimeline getSalesTimeline() {
+        return timeline;
+    }
+    /** Products with at least one recorded sale. */
+    public Set<String> getSoldProducts() {
+        return sales.products();
     }
 
     public synchronized void addProduct(String productName, double price) {
@@ -56,20 +94,49 @@ public class Restaurant implements Serializable {
         products.remove(productName);
     }
 
-    public synchronized void addSale(String productName, int qty) {
-        sales.merge(productName, qty, Integer::sum);
+    /** Adds to the running counts only (restored totals); returns true on the product's first sale. */
+    public boolean addSale(String productName, long qty) {
+        return sales.add(productName, qty);
+    }
+
+    /** A sale that happened at {@code at} (epoch millis): counted and placed in its time bucket. */
+    public boolean addSale(String productName, long qty, long at) {
+        timeline.add(productName, qty, at);
+        return sales.add(productName, qty);
+    }
+
+    synchronized void restoreRating(double averageRating, int noOfVotes) {
+        this.baseSum = averageRating * noOfVotes;
+        this.baseVotes = noOfVotes;
+        votes.set(0);
+    }
+
+    /** Independent copy of the current state, to be written out while this one keeps changing. */
+    public Restaurant copy() {
+        Restaurant c = new Restaurant(name, latitude, longitude, foodCategory, 0, priceCategory);
+        c.restoreRating(getAverageRating(), getNoOfVotes());
+        c.products.putAll(products);
+        sales.snapshot().forEach(c.sales::add);
+        timeline.forEachBucket(c.timeline::restore);
+        return c;
+    }
+
+    public static boolean validRating(int stars) {
+        return stars >= 0 && stars <= MAX_STARS;
     }
 
-    public synchronized void addRating(int rating) {
-        averageRating = (averageRating * noOfVotes + rating) / (++noOfVotes);
-        System.out.println("Updated rating for " + name + ": " + averageRating);
+    public void addRating(int rating) {
+        if (!validRating(rating)) {
+            throw new IllegalArgumentException("rating must be 0.." + MAX_STARS + ": " + rating);
+        }
+        votes.addAndGet((1L << 32) | rating);
     }
 
 
     @Override
     public String toString() {
         return "Restaurant{name='" + name + "', lat=" + latitude + ", lon=" + longitude +
-                ", category='" + foodCategory + "', avgRating=" + averageRating +
+                ", category='" + foodCategory + "', avgRating=" + getAverageRating() +
                 ", priceCat=" + priceCategory + ", products=" + products.keySet() +
                 "}";
     }
@@ -0,0 +1,509 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Single-pass loader for restaurants.json.
+ *
+ * A byte-level tokenizer reads the catalog through a small buffer and builds each Restaurant
+ * as soon as its object closes, so {@link #stream} needs memory for one restaurant at a time.
+ * Keys are matched as raw bytes and only values are turned into Strings. Large files are cut
+ * at top-level object boundaries (one cheap scan) and the chunks parsed in parallel.
+ * Line and block comments are skipped, like the header of our sample file.
+ */
+public final class RestaurantJsonLoader {
+    static final int THREADS = Integer.getInteger("efood.loaderThreads", Runtime.getRuntime().availableProcessors());
+    static final long PARALLEL_MIN_BYTES = 8L << 20;
+
+    private RestaurantJsonLoader() {}
+
+    /** Loads the whole catalog, in parallel chunks when the file is large enough. */
+    public static List<Restaurant> load(Path path) throws IOException {
+        long size = Files.size(path);
+        if (THREADS <= 1 || size < PARALLEL_MIN_BYTES) {
+            List<Restaurant> out = new ArrayList<>();
+            stream(path, out::add);
+            return out;
+        }
+        long[] cuts = split(path, size, THREADS);
+        ExecutorService pool = Executors.newFixedThreadPool(cuts.length - 1, r -> {
+            Thread t = new Thread(r, "json-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<List<Restaurant>>> parts = new ArrayList<>();
+            for (int i = 0; i + 1 < cuts.length; i++) {
+                long from = cuts[i], to = cuts[i + 1];
+                parts.add(pool.submit(() -> {
+                    List<Restaurant> out = new ArrayList<>();
+                    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                        ch.position(from);
+                        new Parser(new BoundedInput(Channels.newInputStream(ch), to - from)).objects(out::add);
+                    }
+                    return out;
+                }));
+            }
+            List<Restaurant> all = new ArrayList<>();
+            for (Future<List<Restaurant>> f : parts) all.addAll(f.get());
+            return all;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while loading " + path, e);
+        } catch (java.util.concurrent.ExecutionException e) {
+            Throwable c = e.getCause();
+            throw c instanceof IOException ? (IOException) c : new IOException(c);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Parses the file sequentially, handing each restaurant to {@code out}; returns the count. */
+    public static long stream(Path path, Consumer<Restaurant> out) throws IOException {
+        long[] n = {0};
+        try (InputStream in = Files.newInputStream(path)) {
+            new Parser(in).objects(r -> {
+                n[0]++;
+                out.accept(r);
+            });
+        }
+        return n[0];
+    }
+
+    /**
+     * Offsets where top-level objects start, roughly {@code size / parts} apart, plus the file
+     * end. Tracks strings and comments so braces inside them do not count.
+     */
+    static long[] split(Path path, long size, int parts) throws IOException {
+        long step = Math.max(1, size / parts);
+        List<Long> cuts = new ArrayList<>();
+        long next = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+            int depth = 0;
+            boolean inString = false, escaped = false;
+            long pos = -1;
+            int c;
+            while ((c = in.read()) != -1) {
+                pos++;
+                if (inString) {
+                    if (escaped) escaped = false;
+                    else if (c == '\\') escaped = true;
+                    else if (c == '"') inString = false;
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '/') {
+                    // Same comments as Parser.skipWs; a lone '/' is the parser's error to report
+                    int k = in.read();
+                    pos++;
+                    if (k == '/') {
+                        while ((c = in.read()) != -1) {
+                            pos++;
+                            if (c == '\n') break;
+                        }
+                    } else if (k == '*') {
+                        int p = 0;
+                        while ((c = in.read()) != -1) {
+                            pos++;
+                            if (p == '*' && c == '/') break;
+                            p = c;
+                        }
+                    }
+                } else if (c == '[' || c == '{') {
+                    if (c == '{' && depth == 1 && pos >= next) {
+                        cuts.add(pos);
+                        next = pos + step;
+                    }
+                    depth++;
+                } else if (c == ']' || c == '}') {
+                    depth--;
+                }
+            }
+        }
+        if (cuts.isEmpty()) cuts.add(0L);
+        cuts.set(0, 0L);
+        long[] out = new long[cuts.size() + 1];
+        for (int i = 0; i < cuts.size(); i++) out[i] = cuts.get(i);
+        out[cuts.size()] = size;
+        return out;
+    }
+
+    /** Limits a stream to one chunk of the file. */
+    private static final class BoundedInput extends InputStream {
+        private final InputStream in;
+        private long left;
+
+        BoundedInput(InputStream in, long left) {
+            this.in = in;
+            this.left = left;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (left <= 0) return -1;
+            int c = in.read();
+            if (c >= 0) left--;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (left <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, left));
+            if (n > 0) left -= n;
+            return n;
+        }
+    }
+
+    private static final class Parser {
+        private static final byte[] K_NAME = bytes("name");
+        private static final byte[] K_LAT = bytes("latitude");
+        private static final byte[] K_LON = bytes("longitude");
+        private static final byte[] K_CATEGORY = bytes("category");
+        private static final byte[] K_RATING = bytes("averageRating");
+        private static final byte[] K_PRICE_CAT = bytes("priceCategory");
+        private static final byte[] K_PRODUCTS = bytes("products");
+        private static final byte[] K_RATINGS = bytes("ratings");
+        private static final byte[] K_PRICE = bytes("price");
+
+        private final InputStream in;
+        private final byte[] buf = new byte[1 << 16];
+        private int pos, limit;
+        private long offset;
+        private byte[] scratch = new byte[256];
+        private int len;
+
+        // Reused per restaurant
+        private final List<String> productNames = new ArrayList<>();
+        private final List<Double> productPrices = new ArrayList<>();
+        private final List<Integer> ratings = new ArrayList<>();
+
+        Parser(InputStream in) {
+            this.in = in;
+        }
+
+        /** Reads restaurant objects, optionally wrapped in a top-level array, until the input ends. */
+        void objects(Consumer<Restaurant> out) throws IOException {
+            if (peek() == 0xEF) literal("\u00EF\u00BB\u00BF");  // UTF-8 BOM
+            skipWs();
+            if (peek() == '[') pos++;
+            while (true) {
+                skipWs();
+                int c = peek();
+                if (c == ',') {
+                    pos++;
+                } else if (c == ']' || c == -1) {
+                    return;
+                } else if (c == '{') {
+                    out.accept(restaurant());
+                } else {
+                    throw error("expected a restaurant object");
+                }
+            }
+        }
+
+        private Restaurant restaurant() throws IOException {
+            expect('{');
+            String name = "", cat = "";
+            double lat = 0, lon = 0, rating = 0;
+            PriceCategory pc = null;
+            productNames.clear();
+            productPrices.clear();
+            ratings.clear();
+            if (!endOf('}')) {
+                do {
+                    key();
+                    if (is(K_NAME)) name = string();
+                    else if (is(K_LAT)) lat = number();
+                    else if (is(K_LON)) lon = number();
+                    else if (is(K_CATEGORY)) cat = string();
+                    else if (is(K_RATING)) rating = number();
+                    else if (is(K_PRICE_CAT)) pc = priceCategory(string());
+                    else if (is(K_PRODUCTS)) products();
+                    else if (is(K_RATINGS)) ratings();
+                    else skipValue();
+                } while (next('}'));
+            }
+
+            Restaurant r = new Restaurant(name, lat, lon, cat, rating, pc);
+            for (int i = 0; i < productNames.size(); i++) r.addProduct(productNames.get(i), productPrices.get(i));
+            for (int v : ratings) r.addRating(v);
+            return r;
+        }
+
+        private void products() throws IOException {
+            expect('[');
+            if (endOf(']')) return;
+            do {
+                expect('{');
+                String pn = "";
+                double price = 0;
+                if (!endOf('}')) {
+                    do {
+                        key();
+                        if (is(K_NAME)) pn = string();
+                        else if (is(K_PRICE)) price = number();
+                        else skipValue();
+                    } while (next('}'));
+                }
+                productNames.add(pn);
+                productPrices.add(price);
+            } while (next(']'));
+        }
+
+        private void ratings() throws IOException {
+            expect('[');
+            if (endOf(']')) return;
+            do {
+                double v = number();
+                if (v < 0 || v > Restaurant.MAX_STARS) throw new IOException("rating out of 0.." + Restaurant.MAX_STARS + ": " + v);
+                ratings.add((int) v);
+            } while (next(']'));
+        }
+
+        private static PriceCategory priceCategory(String s) throws IOException {
+            if (s.isEmpty()) return null;
+            try {
+                return PriceCategory.valueOf(s);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("unknown priceCategory: " + s);
+            }
+        }
+
+        // ---- tokens ----
+
+        /** Reads a key and its colon into scratch. */
+        private void key() throws IOException {
+            skipWs();
+            readString();
+            skipWs();
+            expect(':');
+        }
+
+        private boolean is(byte[] k) {
+            return len == k.length && Arrays.equals(scratch, 0, len, k, 0, k.length);
+        }
+
+        private String string() throws IOException {
+            skipWs();
+            if (peek() == 'n') {
+                literal("null");
+                return "";
+            }
+            readString();
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+
+        private double number() throws IOException {
+            skipWs();
+            len = 0;
+            int c;
+            while ((c = peek()) != -1 && (c >= '0' && c <= '9' || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E')) {
+                put(c);
+                pos++;
+            }
+            if (len == 0) {
+                if (c == 'n') {
+                    literal("null");
+                    return 0;
+                }
+                throw error("expected a number");
+            }
+            try {
+                return Double.parseDouble(new String(scratch, 0, len, StandardCharsets.ISO_8859_1));
+            } catch (NumberFormatException e) {
+                throw error("bad number");
+            }
+        }
+
+        /** Raw UTF-8 bytes of a JSON string, escapes resolved, into scratch[0..len). */
+        private void readString() throws IOException {
+            expect('"');
+            len = 0;
+            while (true) {
+                int c = read();
+                if (c == '"') return;
+                if (c == -1) throw error("unterminated string");
+                if (c != '\\') {
+                    put(c);
+                    continue;
+                }
+                int e = read();
+                switch (e) {
+                    case '"', '\\', '/' -> put(e);
+                    case 'b' -> put('\b');
+                    case 'f' -> put('\f');
+                    case 'n' -> put('\n');
+                    case 'r' -> put('\r');
+                    case 't' -> put('\t');
+                    case 'u' -> {
+                        int cp = hex4();
+                        if (Character.isHighSurrogate((char) cp) && peek() == '\\') {
+                            pos++;
+                            if (read() != 'u') throw error("bad surrogate pair");
+                            cp = Character.toCodePoint((char) cp, (char) hex4());
+                        }
+                        putCodePoint(cp);
+                    }
+                    default -> throw error("bad escape");
+                }
+            }
+        }
+
+        private int hex4() throws IOException {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                int d = Character.digit(read(), 16);
+                if (d < 0) throw error("bad \\u escape");
+                v = (v << 4) | d;
+            }
+            return v;
+        }
+
+        private void putCodePoint(int cp) {
+            if (cp < 0x80) {
+                put(cp);
+            } else if (cp < 0x800) {
+                put(0xC0 | cp >> 6);
+                put(0x80 | cp & 0x3F);
+            } else if (cp < 0x10000) {
+                put(0xE0 | cp >> 12);
+                put(0x80 | cp >> 6 & 0x3F);
+                put(0x80 | cp & 0x3F);
+            } else {
+                put(0xF0 | cp >> 18);
+                put(0x80 | cp >> 12 & 0x3F);
+                put(0x80 | cp >> 6 & 0x3F);
+                put(0x80 | cp & 0x3F);
+            }
+        }
+
+        private void skipValue() throws IOException {
+            skipWs();
+            int c = peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '{') {
+                pos++;
+                if (endOf('}')) return;
+                do {
+                    key();
+                    skipValue();
+                } while (next('}'));
+            } else if (c == '[') {
+                pos++;
+                if (endOf(']')) return;
+                do {
+                    skipValue();
+                } while (next(']'));
+            } else if (c == 't') {
+                literal("true");
+            } else if (c == 'f') {
+                literal("false");
+            } else if (c == 'n') {
+                literal("null");
+            } else {
+                number();
+            }
+        }
+
+        private void literal(String word) throws IOException {
+            for (int i = 0; i < word.length(); i++) {
+                if (read() != word.charAt(i)) throw error("expected " + word);
+            }
+        }
+
+        /** After an element: true if a comma follows, false if the container closes. */
+        private boolean next(char close) throws IOException {
+            skipWs();
+            int c = read();
+            if (c == ',') return true;
+            if (c == close) return false;
+            throw error("expected ',' or '" + close + "'");
+        }
+
+        /** Right after an opening bracket: consumes {@code close} if the container is empty. */
+        private boolean endOf(char close) throws IOException {
+            skipWs();
+            if (peek() == close) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) throws IOException {
+            skipWs();
+            if (read() != c) throw error("expected '" + c + "'");
+        }
+
+        private void skipWs() throws IOException {
+            while (true) {
+                int c = peek();
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    pos++;
+                } else if (c == '/') {
+                    pos++;
+                    int k = read();
+                    if (k == '/') {
+                        while ((c = read()) != -1 && c != '\n') { }
+                    } else if (k == '*') {
+                        int p = 0;
+                        while ((c = read()) != -1 && !(p == '*' && c == '/')) p = c;
+                    } else {
+                        throw error("unexpected '/'");
+                    }
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void put(int b) {
+            if (len == scratch.length) scratch = Arrays.copyOf(scratch, len * 2);
+            scratch[len++] = (byte) b;
+        }
+
+        private int peek() throws IOException {
+            if (pos == limit && !fill()) return -1;
+            return buf[pos] & 0xFF;
+        }
+
+        private int read() throws IOException {
+            if (pos == limit && !fill()) return -1;
+            return buf[pos++] & 0xFF;
+        }
+
+        private boolean fill() throws IOException {
+            offset += limit;
+            pos = 0;
+            limit = 0;
+            int n = in.read(buf, 0, buf.length);
+            if (n <= 0) return false;
+            limit = n;
+            return true;
+        }
+
+        private IOException error(String what) {
+            return new IOException(what + " at byte " + (offset + pos));
+        }
+
+        private static byte[] bytes(String s) {
+            return s.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+}
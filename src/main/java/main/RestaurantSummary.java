@@ -0,0 +1,82 @@
+package main;
+
+import java.io.Serializable;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Search-result projection of a Restaurant: the name plus the selected fields, without the
+ * menu and sales maps. Unselected fields are not sent and read back as defaults.
+ * The full restaurant can be fetched by name with a DETAILS request.
+ */
+public class RestaurantSummary implements Rankable, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Field { CATEGORY, RATING, PRICE, LOCATION }
+
+    /** What the client lists by default: name, category, rating and price tier. */
+    public static final Set<Field> DEFAULT_FIELDS = EnumSet.of(Field.CATEGORY, Field.RATING, Field.PRICE);
+
+    private final String name;
+    private final int fields;
+    private final String foodCategory;
+    private final double averageRating;
+    private final int noOfVotes;
+    private final PriceCategory priceCategory;
+    private final double latitude;
+    private final double longitude;
+
+    public RestaurantSummary(Restaurant r, Set<Field> selected) {
+        this(r.getName(), mask(selected), r.getFoodCategory(), r.getAverageRating(), r.getNoOfVotes(),
+                r.getPriceCategory(), r.getLatitude(), r.getLongitude());
+    }
+
+    RestaurantSummary(String name, int fields, String foodCategory, double averageRating, int noOfVotes,
+                      PriceCategory priceCategory, double latitude, double longitude) {
+        this.name = name;
+        this.fields = fields;
+        this.foodCategory = has(fields, Field.CATEGORY) ? foodCategory : null;
+        this.averageRating = has(fields, Field.RATING) ? averageRating : 0;
+        this.noOfVotes = has(fields, Field.RATING) ? noOfVotes : 0;
+        this.priceCategory = has(fields, Field.PRICE) ? priceCategory : null;
+        this.latitude = has(fields, Field.LOCATION) ? latitude : 0;
+        this.longitude = has(fields, Field.LOCATION) ? longitude : 0;
+    }
+
+    static int mask(Set<Field> selected) {
+        int m = 0;
+        for (Field f : selected) m |= 1 << f.ordinal();
+        return m;
+    }
+
+    static Set<Field> fields(int mask) {
+        Set<Field> out = EnumSet.noneOf(Field.class);
+        for (Field f : Field.values()) if (has(mask, f)) out.add(f);
+        return out;
+    }
+
+    static boolean has(int mask, Field f) {
+        return (mask & (1 << f.ordinal())) != 0;
+    }
+
+    public boolean has(Field f) { return has(fields, f); }
+    int getFieldMask() { return fields; }
+
+    @Override public String getName() { return name; }
+    public String getFoodCategory() { return foodCategory; }
+    @Override public double getAverageRating() { return averageRating; }
+    @Override public int getNoOfVotes() { return noOfVotes; }
+    public PriceCategory getPriceCategory() { return priceCategory; }
+    @Override public double getLatitude() { return latitude; }
+    @Override public double getLongitude() { return longitude; }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Summary{name='").append(name).append('\'');
+        if (has(Field.CATEGORY)) sb.append(", category='").append(foodCategory).append('\'');
+        if (has(Field.RATING)) sb.append(", avgRating=").append(averageRating);
+        if (has(Field.PRICE)) sb.append(", priceCat=").append(priceCategory);
+        if (has(Field.LOCATION)) sb.append(", lat=").append(latitude).append(", lon=").append(longitude);
+        return sb.append('}').toString();
+    }
+}
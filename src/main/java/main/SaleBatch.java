@@ -0,0 +1,34 @@
+package main;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sales for one worker, coalesced by the master: at most one Sale per store. {@code time} is
+ * when the master sent them (epoch millis), so the worker's time buckets, and a replay of its
+ * log, place the sales where they happened; 0 means "when applied".
+ */
+public class SaleBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Sale> sales;
+    private final long time;
+
+    public SaleBatch(List<Sale> sales) {
+        this(sales, 0L);
+    }
+
+    public SaleBatch(List<Sale> sales, long time) {
+        this.sales = new ArrayList<>(sales);
+        this.time = time;
+    }
+
+    public List<Sale> getSales() { return sales; }
+    public long getTime() { return time; }
+
+    @Override
+    public String toString() {
+        return "SaleBatch{sales=" + sales.size() + '}';
+    }
+}
@@ -0,0 +1,109 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects the sales headed to one worker and ships them as SALE_BATCH messages. With no
+ * window (the default) a sale goes out at once when no batch is in flight to that worker;
+ * sales arriving while one is in flight queue up and leave together when it returns, so
+ * batches grow with load without adding latency when idle. With {@code efood.saleBatchMs}
+ * set, sales are instead held up to that long. Either way a batch leaves early once
+ * {@code maxSales} have queued. Sales for the same store are merged (quantities summed per
+ * product), and each caller gets a future that completes when its batch has been applied.
+ */
+final class SaleBatcher {
+    static final int MAX_SALES = Integer.getInteger("efood.saleBatchSize", 256);
+    static final long WINDOW_MS = Long.getLong("efood.saleBatchMs", 0);
+
+    private final Function<Message, CompletableFuture<Message>> submit;
+    private final ScheduledExecutorService timer;
+
+    private List<Sale> pending = new ArrayList<>();
+    private CompletableFuture<Void> pendingDone = new CompletableFuture<>();
+    private int inFlight;
+
+    SaleBatcher(Function<Message, CompletableFuture<Message>> submit, ScheduledExecutorService timer) {
+        this.submit = submit;
+        this.timer = timer;
+    }
+
+    CompletableFuture<Void> add(Sale sale) {
+        List<Sale> batch = null;
+        CompletableFuture<Void> done;
+        synchronized (this) {
+            done = pendingDone;
+            pending.add(sale);
+            if (pending.size() >= MAX_SALES || (WINDOW_MS == 0 && inFlight == 0)) {
+                batch = take();
+            } else if (WINDOW_MS > 0 && pending.size() == 1) {
+                timer.schedule(() -> flushIfStill(done), WINDOW_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch != null) send(batch, done);
+        return done;
+    }
+
+    private void flushIfStill(CompletableFuture<Void> window) {
+        List<Sale> batch;
+        synchronized (this) {
+            // The size threshold may already have shipped this window's sales
+            if (pendingDone != window || pending.isEmpty()) return;
+            batch = take();
+        }
+        send(batch, window);
+    }
+
+    /** Detaches the queued sales; caller holds the monitor. */
+    private List<Sale> take() {
+        List<Sale> batch = pending;
+        pending = new ArrayList<>();
+        pendingDone = new CompletableFuture<>();
+        inFlight++;
+        return batch;
+    }
+
+    private void send(List<Sale> batch, CompletableFuture<Void> done) {
+        submit.apply(new Message(Message.MessageType.SALE_BATCH, new SaleBatch(coalesce(batch), System.currentTimeMillis())))
+                .whenComplete((resp, err) -> {
+                    if (err != null) {
+                        done.completeExceptionally(err);
+                    } else if (ShardStreamer.isError(resp)) {
+                        done.completeExceptionally(new IllegalStateException(String.valueOf(resp.getPayload())));
+                    } else {
+                        done.complete(null);
+                    }
+                    sendQueued();
+                });
+    }
+
+    /** A batch came back: ship what queued meanwhile. */
+    private void sendQueued() {
+        List<Sale> batch;
+        CompletableFuture<Void> done;
+        synchronized (this) {
+            inFlight--;
+            if (WINDOW_MS > 0 || inFlight > 0 || pending.isEmpty()) return;
+            done = pendingDone;
+            batch = take();
+        }
+        send(batch, done);
+    }
+    static List<Sale> coalesce(List<Sale> sales) {
+        Map<String, Map<String, Integer>> byStore = new LinkedHashMap<>();
+        for (Sale s : sales) {
+            Map<String, Integer> items = byStore.computeIfAbsent(s.getStoreName(), k -> new HashMap<>());
+            s.getItems().forEach((product, qty) -> items.merge(product, qty, Integer::sum));
+        }
+        List<Sale> out = new ArrayList<>(byStore.size());
+        byStore.forEach((store, items) -> out.add(new Sale(store, items)));
+        return out;
+    }
+}
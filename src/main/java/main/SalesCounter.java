@@ -0,0 +1,62 @@
+package main;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-product sale counts of one restaurant. Increments are lock-free (a LongAdder per
+ * product spreads concurrent sales across cells instead of one monitor), and readers only
+ * ever see copies, so a report can run while sales keep arriving.
+ */
+public class SalesCounter implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private final LongAdder total = new LongAdder();
+
+    /** Returns true if this is the first sale of {@code product}, i.e. it just got its counter. */
+    public boolean add(String product, long qty) {
+        LongAdder c = counts.get(product);
+        boolean created = false;
+        if (c == null) {
+            LongAdder fresh = new LongAdder();
+            c = counts.putIfAbsent(product, fresh);
+            if (c == null) {
+                c = fresh;
+                created = true;
+            }
+        }
+        c.add(qty);
+        total.add(qty);
+        return created;
+    }
+
+    public long get(String product) {
+        LongAdder c = counts.get(product);
+        return c == null ? 0L : c.sum();
+    }
+
+    public long total() {
+        return total.sum();
+    }
+
+    public Set<String> products() {
+        return Collections.unmodifiableSet(counts.keySet());
+    }
+
+    public boolean isEmpty() {
+        return counts.isEmpty();
+    }
+
+    /** Point-in-time copy: every count is exact as of some moment during the call and never goes backwards. */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> out = new HashMap<>(Math.max(4, counts.size() * 2));
+        counts.forEach((k, v) -> out.put(k, v.sum()));
+        return out;
+    }
+}
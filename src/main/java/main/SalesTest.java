@@ -0,0 +1,105 @@
+package main;
+
+import static main.Checks.check;
+import static main.Checks.finish;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Sales counting under concurrency: many threads selling the same products lose no sale,
+ * exactly one of them sees each product's first sale, and a snapshot taken meanwhile never
+ * runs ahead of the counters or goes backwards. Then the worker's report views: every report
+ * type agrees with a recount of the restaurants, and restaurants joining or leaving the shard
+ * carry their sales with them.
+ */
+public class SalesTest {
+    private static final int THREADS = 8;
+    private static final int SALES_PER_THREAD = 20_000;
+    private static final String[] PRODUCTS = {"margherita", "coke", "fries", "salad"};
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("--- CONCURRENT COUNTERS ---");
+        SalesCounter counter = new SalesCounter();
+        AtomicInteger firsts = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> sellers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread th = new Thread(() -> {
+                try { start.await(); } catch (InterruptedException e) { return; }
+                for (int i = 0; i < SALES_PER_THREAD; i++) {
+                    if (counter.add(PRODUCTS[i % PRODUCTS.length], 1)) firsts.incrementAndGet();
+                }
+            });
+            th.start();
+            sellers.add(th);
+        }
+        start.countDown();
+        long lastTotal = 0;
+        int backwards = 0, ahead = 0;
+        while (sellers.stream().anyMatch(Thread::isAlive)) {
+            Map<String, Long> snap = counter.snapshot();
+            long sum = snap.values().stream().mapToLong(Long::longValue).sum();
+            if (sum < lastTotal) backwards++;
+            if (sum > (long) THREADS * SALES_PER_THREAD) ahead++;
+            lastTotal = sum;
+        }
+        for (Thread th : sellers) th.join();
+
+        long expectedEach = (long) THREADS * SALES_PER_THREAD / PRODUCTS.length;
+        Map<String, Long> expected = new TreeMap<>();
+        for (String p : PRODUCTS) expected.put(p, expectedEach);
+        check("no sale is lost", expected, new TreeMap<>(counter.snapshot()));
+        check("total matches the products", (long) THREADS * SALES_PER_THREAD, counter.total());
+        check("each product's first sale is seen once", PRODUCTS.length, firsts.get());
+        check("snapshots taken meanwhile never went backwards", 0, backwards);
+        check("snapshots taken meanwhile never ran ahead", 0, ahead);
+        check("unsold product counts zero", 0L, counter.get("pizza"));
+
+        System.out.println("\n--- REPORT VIEWS ---");
+        long now = System.currentTimeMillis();
+        SalesViews views = new SalesViews();
+        Restaurant pizza = new Restaurant("PizzaFun", 40.01, 23.01, "pizza", 4, PriceCategory.TWO_DOLLARS);
+        Restaurant napoli = new Restaurant("Napoli", 40.02, 23.02, "Pizza", 4, PriceCategory.ONE_DOLLAR);
+        Restaurant sushi = new Restaurant("SushiGo", 40.03, 23.03, "sushi", 3, PriceCategory.THREE_DOLLARS);
+        sell(views, pizza, "Margherita", 3, now - 2 * SalesTimeline.HOUR);
+        sell(views, pizza, "Coke", 2, now);
+        sell(views, napoli, "margherita", 5, now);
+        sell(views, sushi, "Maki", 4, now - 2 * SalesTimeline.HOUR);
+        sell(views, sushi, "coke", 1, now);
+        Set<Restaurant> shard = new HashSet<>(List.of(pizza, napoli, sushi));
+
+        check("all: per product as each menu spells it", Map.of("Margherita", 3L, "margherita", 5L, "Coke", 2L, "coke", 1L, "Maki", 4L),
+                report(views, "all", shard));
+        check("food: per restaurant of the category", Map.of("PizzaFun", 5L, "Napoli", 5L), report(views, "food:PIZZA", shard));
+        check("product: per restaurant selling it", Map.of("PizzaFun", 2L, "SushiGo", 1L), report(views, "product:coke", shard));
+        check("all@1h: only the last hour", Map.of("Coke", 2L, "margherita", 5L, "coke", 1L), report(views, "all@1h", shard));
+        check("food:sushi@3h..1h: only that window", Map.of("SushiGo", 4L), report(views, "food:sushi@3h..1h", shard));
+        long hourly = report(views, "hourly", shard).values().stream().mapToLong(Long::longValue).sum();
+        check("hourly: every sale of the last day in some hour", 15L, hourly);
+
+        shard.remove(napoli);
+        check("a restaurant no longer in the shard is not counted", Map.of("PizzaFun", 5L), report(views, "food:pizza", shard));
+        views.detach(napoli);
+        check("detach forgets it", Map.of("PizzaFun", 3L), report(views, "product:margherita", Set.of(pizza, napoli)));
+        Restaurant moved = napoli.copy();
+        views.attach(moved);
+        shard.add(moved);
+        check("attach brings its earlier sales", Map.of("PizzaFun", 3L, "Napoli", 5L), report(views, "product:margherita", shard));
+
+        finish("Sales");
+    }
+
+    /** Records a sale the way the worker does: counted, then listed in the views on its first sale. */
+    private static void sell(SalesViews views, Restaurant r, String product, long qty, long at) {
+        if (r.addSale(product, qty, at)) views.sold(r, product);
+    }
+
+    private static Map<String, Long> report(SalesViews views, String type, Set<Restaurant> shard) {
+        MapResult mr = new MapResult();
+        views.report(type, shard::contains, mr);
+        return new TreeMap<>(mr.getVentasPorKey());
+    }
+}
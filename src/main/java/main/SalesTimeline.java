@@ -0,0 +1,151 @@
+package main;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time-bucketed sale counts of one restaurant, per product, in three tiers: 60 one-minute
+ * buckets, 48 one-hour buckets and 30 one-day buckets. Sales land in the minute tier; a minute
+ * that ages out of it is folded into its hour, an hour into its day, and a day older than the
+ * last tier is dropped. Memory per product is therefore fixed whatever the uptime, and a time
+ * range is answered at the resolution of the tier holding each part of it.
+ *
+ * Each product's series has its own monitor, so only sales of the same product of the same
+ * restaurant ever wait on each other.
+ */
+public class SalesTimeline implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final long MINUTE = 60_000L;
+    static final long HOUR = 60 * MINUTE;
+    static final long DAY = 24 * HOUR;
+    static final long[] WIDTHS = {MINUTE, HOUR, DAY};
+    private static final int[] SIZES = {60, 48, 30};
+
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+
+    public void add(String product, long qty, long at) {
+        series(product).add(0, at / MINUTE, qty);
+    }
+
+    /** Sales of {@code product} in [from, to), every bucket overlapping the range counted whole. */
+    public long sum(String product, long from, long to, long now) {
+        Series s = series.get(product);
+        return s == null ? 0 : s.sum(from, to, now);
+    }
+
+    /** Sales of every product in [from, to). */
+    public long sum(long from, long to, long now) {
+        long total = 0;
+        for (Series s : series.values()) total += s.sum(from, to, now);
+        return total;
+    }
+
+    /** Visits every non-empty bucket overlapping [from, to) after aging the tiers to {@code now}. */
+    public void forEachBucket(long from, long to, long now, BucketVisitor v) {
+        series.forEach((product, s) -> s.visit(from, to, now, product, v));
+    }
+
+    /** Visits every non-empty bucket as stored, for serialization. */
+    public void forEachBucket(BucketVisitor v) {
+        series.forEach((product, s) -> s.visit(Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, product, v));
+    }
+
+    /** Puts back a bucket produced by {@link #forEachBucket(BucketVisitor)}. */
+    public void restore(String product, int tier, long period, long count) {
+        series(product).add(tier, period, count);
+    }
+
+    private Series series(String product) {
+        Series s = series.get(product);
+        return s != null ? s : series.computeIfAbsent(product, k -> new Series());
+    }
+
+    public interface BucketVisitor {
+        /** A bucket of tier {@code tier} covering [period * WIDTHS[tier], (period + 1) * WIDTHS[tier]). */
+        void bucket(String product, int tier, long period, long count);
+    }
+
+    private static final class Series implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        // Ring per tier, allocated on first use; slot of period p is p mod size
+        private final long[][] counts = new long[WIDTHS.length][];
+        // Newest period each tier holds; the tier covers (head - size, head]
+        private final long[] head = new long[WIDTHS.length];
+
+        synchronized void add(int tier, long period, long qty) {
+            while (true) {
+                if (counts[tier] == null) {
+                    counts[tier] = new long[SIZES[tier]];
+                    head[tier] = period;
+                }
+                if (period > head[tier]) advance(tier, period);
+                if (period > head[tier] - SIZES[tier]) {
+                    counts[tier][slot(tier, period)] += qty;
+                    return;
+                }
+                // Older than this tier keeps: straight to the coarser one, or dropped after the last
+                if (tier + 1 == WIDTHS.length) return;
+                period = Math.floorDiv(period * WIDTHS[tier], WIDTHS[tier + 1]);
+                tier++;
+            }
+        }
+
+        /** Moves the tier's window to end at {@code period}, folding what falls out into the next tier. */
+        private void advance(int tier, long period) {
+            long size = SIZES[tier];
+            long firstOut = head[tier] - size + 1;
+            long lastOut = Math.min(head[tier], period - size);
+            head[tier] = period;
+            for (long p = firstOut; p <= lastOut; p++) {
+                int s = slot(tier, p);
+                long c = counts[tier][s];
+                if (c == 0) continue;
+                counts[tier][s] = 0;
+                if (tier + 1 < WIDTHS.length) add(tier + 1, Math.floorDiv(p * WIDTHS[tier], WIDTHS[tier + 1]), c);
+            }
+        }
+
+        /** Ages every tier to {@code now}, so each one only holds what is inside its window. */
+        private void age(long now) {
+            if (now == Long.MIN_VALUE) return;
+            for (int t = 0; t < WIDTHS.length; t++) {
+                if (counts[t] != null && now / WIDTHS[t] > head[t]) advance(t, now / WIDTHS[t]);
+            }
+        }
+
+        synchronized long sum(long from, long to, long now) {
+            long[] total = {0};
+            visit(from, to, now, null, (product, tier, period, count) -> total[0] += count);
+            return total[0];
+        }
+
+        /**
+         * A coarser tier only holds what aged out of the finer one, so its newest bucket really
+         * spans up to where the finer tier's window starts; buckets are matched on that span.
+         */
+        synchronized void visit(long from, long to, long now, String product, BucketVisitor v) {
+            age(now);
+            long finerStart = Long.MAX_VALUE;
+            for (int t = 0; t < WIDTHS.length; t++) {
+                if (counts[t] == null) continue;
+                long w = WIDTHS[t];
+                long first = head[t] - SIZES[t] + 1;
+                if (from != Long.MIN_VALUE) first = Math.max(first, Math.floorDiv(from, w));
+                for (long p = first; p <= head[t] && (to == Long.MAX_VALUE || p * w < to); p++) {
+                    long c = counts[t][slot(t, p)];
+                    if (c != 0 && (from == Long.MIN_VALUE || Math.min((p + 1) * w, finerStart) > from)) {
+                        v.bucket(product, t, p, c);
+                    }
+                }
+                finerStart = (head[t] - SIZES[t] + 1) * w;
+            }
+        }
+
+        private int slot(int tier, long period) {
+            return (int) Math.floorMod(period, (long) SIZES[tier]);
+        }
+    }
+}
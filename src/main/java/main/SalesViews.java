@@ -0,0 +1,191 @@
+package main;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Worker-side views that let sales reports visit only the restaurants that sold what is asked,
+ * instead of every restaurant and every product in the shard.
+ *
+ * The views hold no counts of their own: they list which restaurants (and which of their
+ * products) have sales, and a report reads those restaurants' live counters. A sale therefore
+ * touches a view only the first time a restaurant sells a product, and a restaurant leaving
+ * the shard cannot leave stale totals behind. Thread-safe.
+ */
+public class SalesViews {
+    // Lower-cased product name -> (restaurant, product as spelled on its menu) pairs with sales
+    private final Map<String, Set<Sold>> byProduct = new ConcurrentHashMap<>();
+    // Lower-cased food category -> restaurants with any sale
+    private final Map<String, Set<Restaurant>> byCategory = new ConcurrentHashMap<>();
+
+    private static final DateTimeFormatter HOUR_LABEL =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:00").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DAY_LABEL =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC);
+
+    /** {@code r} sold {@code product} for the first time. */
+    public void sold(Restaurant r, String product) {
+        byProduct.computeIfAbsent(key(product), k -> ConcurrentHashMap.newKeySet()).add(new Sold(r, product));
+        byCategory.computeIfAbsent(key(r.getFoodCategory()), k -> ConcurrentHashMap.newKeySet()).add(r);
+    }
+
+    /** {@code r} joined the shard, possibly with sales recorded elsewhere. */
+    public void attach(Restaurant r) {
+        for (String product : r.getSoldProducts()) sold(r, product);
+    }
+
+    public void detach(Restaurant r) {
+        for (String product : r.getSoldProducts()) {
+            Set<Sold> s = byProduct.get(key(product));
+            if (s != null) s.remove(new Sold(r, product));
+        }
+        Set<Restaurant> c = byCategory.get(key(r.getFoodCategory()));
+        if (c != null) c.remove(r);
+    }
+
+    /**
+     * Fills {@code mr} for an {@code all}, {@code food:} or {@code product:} report, optionally
+     * limited to a time range with an {@code @<range>} suffix, or for an {@code hourly} report
+     * (sales per hour, last 24 hours unless a range is given). A range is {@code <ago>} or
+     * {@code <ago>..<ago>}, each a number followed by s, m, h or d (e.g. {@code all@15m},
+     * {@code product:pizza@2h..1h}). A sale racing a restaurant's removal can re-list it after
+     * {@link #detach}, so {@code live} filters out restaurants that are no longer the shard's copy.
+     */
+    public void report(String type, Predicate<Restaurant> live, MapResult mr) {
+        long now = System.currentTimeMillis();
+        int at = type.lastIndexOf('@');
+        long[] range = at < 0 ? null : parseRange(type.substring(at + 1), now);
+        if (range != null) {
+            type = type.substring(0, at);
+        } else if ("hourly".equals(type)) {
+            range = new long[]{now - SalesTimeline.DAY, now};
+        }
+        if (range == null) {
+            cumulative(type, live, mr);
+        } else if ("hourly".equals(type)) {
+            hourly(range[0], range[1], now, live, mr);
+        } else {
+            windowed(type, range[0], range[1], now, live, mr);
+        }
+    }
+
+    private void cumulative(String type, Predicate<Restaurant> live, MapResult mr) {
+        if ("all".equals(type)) {
+            for (Set<Sold> set : byProduct.values()) {
+                for (Sold s : set) {
+                    if (live.test(s.restaurant)) mr.addVenta(s.product, s.restaurant.getSalesOf(s.product));
+                }
+            }
+        } else if (type.startsWith("food:")) {
+            for (Restaurant r : category(type.substring("food:".length()))) {
+                long totalSales = r.getTotalSales();
+                if (totalSales > 0 && live.test(r)) mr.addVenta(r.getName(), totalSales);
+            }
+        } else if (type.startsWith("product:")) {
+            for (Sold s : product(type.substring("product:".length()))) {
+                if (live.test(s.restaurant)) mr.addVenta(s.restaurant.getName(), s.restaurant.getSalesOf(s.product));
+            }
+        }
+    }
+
+    private void windowed(String type, long from, long to, long now, Predicate<Restaurant> live, MapResult mr) {
+        if ("all".equals(type)) {
+            for (Set<Sold> set : byProduct.values()) {
+                for (Sold s : set) {
+                    long q = s.restaurant.getSalesTimeline().sum(s.product, from, to, now);
+                    if (q > 0 && live.test(s.restaurant)) mr.addVenta(s.product, q);
+                }
+            }
+        } else if (type.startsWith("food:")) {
+            for (Restaurant r : category(type.substring("food:".length()))) {
+                long q = r.getSalesTimeline().sum(from, to, now);
+                if (q > 0 && live.test(r)) mr.addVenta(r.getName(), q);
+            }
+        } else if (type.startsWith("product:")) {
+            for (Sold s : product(type.substring("product:".length()))) {
+                long q = s.restaurant.getSalesTimeline().sum(s.product, from, to, now);
+                if (q > 0 && live.test(s.restaurant)) mr.addVenta(s.restaurant.getName(), q);
+            }
+        }
+    }
+
+    /** Keys are the hour each bucket starts in (UTC); buckets older than the hour tier are keyed by day. */
+    private void hourly(long from, long to, long now, Predicate<Restaurant> live, MapResult mr) {
+        for (Set<Restaurant> set : byCategory.values()) {
+            for (Restaurant r : set) {
+                if (!live.test(r)) continue;
+                r.getSalesTimeline().forEachBucket(from, to, now, (product, tier, period, count) -> {
+                    long start = period * SalesTimeline.WIDTHS[tier];
+                    mr.addVenta((tier < 2 ? HOUR_LABEL : DAY_LABEL).format(
+                            Instant.ofEpochMilli(start - Math.floorMod(start, SalesTimeline.HOUR))), count);
+                });
+            }
+        }
+    }
+
+    private Set<Restaurant> category(String name) {
+        return byCategory.getOrDefault(key(name), Set.of());
+    }
+
+    private Set<Sold> product(String name) {
+        return byProduct.getOrDefault(key(name), Set.of());
+    }
+
+    /** [from, to) in epoch millis for {@code <ago>} or {@code <ago>..<ago>}; null if not a range. */
+    static long[] parseRange(String spec, long now) {
+        int dots = spec.indexOf("..");
+        long fromAgo = duration(dots < 0 ? spec : spec.substring(0, dots));
+        long toAgo = dots < 0 ? 0 : duration(spec.substring(dots + 2));
+        if (fromAgo < 0 || toAgo < 0 || toAgo >= fromAgo) return null;
+        return new long[]{now - fromAgo, now - toAgo};
+    }
+
+    private static long duration(String s) {
+        if (s.length() < 2) return -1;
+        long unit;
+        switch (s.charAt(s.length() - 1)) {
+            case 's': unit = 1_000L; break;
+            case 'm': unit = SalesTimeline.MINUTE; break;
+            case 'h': unit = SalesTimeline.HOUR; break;
+            case 'd': unit = SalesTimeline.DAY; break;
+            default: return -1;
+        }
+        try {
+            return Long.parseLong(s.substring(0, s.length() - 1)) * unit;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String key(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Sold {
+        final Restaurant restaurant;
+        final String product;
+
+        Sold(Restaurant restaurant, String product) {
+            this.restaurant = restaurant;
+            this.product = product;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Sold)) return false;
+            Sold s = (Sold) o;
+            return restaurant == s.restaurant && product.equals(s.product);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(restaurant) + product.hashCode();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package main;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class ScatterGather {
+    private final ExecutorService executor;
+
+    public ScatterGather(int threads) {
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "scatter-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    /**
+     * Fires every call at once and waits until all have answered or the deadline passes.
+     * Calls still running at the deadline are reported as timed out and their answers dropped.
+     */
+    public <T> GatherResult<T> gather(Map<WorkerInfo, Callable<T>> calls, long deadlineMs) {
+        GatherResult<T> out = new GatherResult<>();
+        if (calls.isEmpty()) return out;
+
+        CompletionService<T> cs = new ExecutorCompletionService<>(executor);
+        Map<Future<T>, WorkerInfo> pending = new HashMap<>();
+        for (Map.Entry<WorkerInfo, Callable<T>> e : calls.entrySet()) {
+            pending.put(cs.submit(e.getValue()), e.getKey());
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        try {
+            while (!pending.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                Future<T> f = cs.poll(remaining, TimeUnit.NANOSECONDS);
+                if (f == null) break;
+                WorkerInfo w = pending.remove(f);
+                try {
+                    out.addResult(f.get());
+                } catch (ExecutionException ex) {
+                    System.err.println("Scatter call failed in " + w + ": " + ex.getCause());
+                    out.addFailed(w);
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Map.Entry<Future<T>, WorkerInfo> e : pending.entrySet()) {
+            e.getKey().cancel(true);
+            out.addTimedOut(e.getValue());
+        }
+        return out;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
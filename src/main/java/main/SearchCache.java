@@ -0,0 +1,218 @@
+package main;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Master-side cache of search results, keyed by a normalized FilterSpec.
+ *
+ * The key snaps the search point to a small grid cell and sorts the category set, so nearby
+ * identical searches share one entry; the search itself runs at the caller's exact point, and
+ * a later search from elsewhere in the cell gets that answer. Entries live in an LRU bounded
+ * by size and expire after a TTL. Invalidation is
+ * precise: writes to a restaurant drop the entries listing it, and writes that can make a
+ * restaurant match for the first time (create, rating change) drop the entries whose search
+ * area and filters cover it.
+ */
+public class SearchCache {
+    static final int MAX_ENTRIES = Integer.getInteger("efood.searchCacheSize", 1024);
+    static final long TTL_MS = Long.getLong("efood.searchCacheTtlMs", 30_000);
+    static final double CELL_DEG = Double.parseDouble(System.getProperty("efood.searchCacheCellDeg", "0.001"));
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final double cellDeg;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    // Restaurant name -> cached searches listing it
+    private final Map<String, Set<Key>> byName = new HashMap<>();
+    // Bumped by every invalidation; a search that saw an older value does not get cached
+    private long epoch;
+    private long fullEpoch;
+
+    private long hits, misses, evictions, expirations, invalidations;
+
+    public SearchCache() {
+        this(MAX_ENTRIES, TTL_MS, CELL_DEG);
+    }
+
+    public SearchCache(int maxEntries, long ttlMs, double cellDeg) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.cellDeg = cellDeg;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    private Key key(FilterSpec fs) {
+        return cellDeg <= 0 ? new Key(fs, fs.getLatitude(), fs.getLongitude())
+                : new Key(fs, Math.floor(fs.getLatitude() / cellDeg), Math.floor(fs.getLongitude() / cellDeg));
+    }
+
+    /** Value to hand back to {@link #put}; lets a put notice invalidations during the search. */
+    public synchronized long epoch(FilterSpec fs) {
+        return fs.isSummary() ? epoch : epoch + fullEpoch;
+    }
+
+    public synchronized ReduceResult get(FilterSpec fs) {
+        Key k = key(fs);
+        Entry e = entries.get(k);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        if (System.currentTimeMillis() - e.createdAt > ttlMs) {
+            remove(k);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.result;
+    }
+
+    /** Caches {@code result}, the answer to {@code fs} run at its exact point. */
+    public synchronized void put(FilterSpec fs, ReduceResult result, long seenEpoch) {
+        if (result.isPartial() || seenEpoch != epoch(fs)) return;
+        Key k = key(fs);
+        remove(k);
+        Entry e = new Entry(fs, result);
+        entries.put(k, e);
+        for (String name : e.names) byName.computeIfAbsent(name, n -> new HashSet<>()).add(k);
+        while (entries.size() > maxEntries) {
+            remove(entries.keySet().iterator().next());
+            evictions++;
+        }
+    }
+
+    /**
+     * The restaurant's listed data changed. Summaries carry no menu or sales, so when
+     * {@code fullOnly} only entries holding full restaurants are dropped.
+     */
+    public synchronized void invalidateListed(String name, boolean fullOnly) {
+        if (fullOnly) fullEpoch++;
+        else epoch++;
+        Set<Key> keys = byName.get(name);
+        if (keys == null) return;
+        for (Key k : new HashSet<>(keys)) {
+            Entry e = entries.get(k);
+            if (e != null && (!fullOnly || !e.spec.isSummary())) {
+                remove(k);
+                invalidations++;
+            }
+        }
+    }
+
+    /** {@code r} may now match searches it was not in: drop every entry whose filters cover it. */
+    public synchronized void invalidateCovering(Restaurant r) {
+        epoch++;
+        for (Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Key, Entry> me = it.next();
+            if (covers(me.getValue().spec, r)) {
+                it.remove();
+                unindex(me.getKey(), me.getValue());
+                invalidations++;
+            }
+        }
+    }
+
+    /** Restaurants were reloaded from the master's copy; nothing cached can be trusted. */
+    public synchronized void invalidateAll() {
+        epoch++;
+        fullEpoch++;
+        invalidations += entries.size();
+        entries.clear();
+        byName.clear();
+    }
+
+    private static boolean covers(FilterSpec fs, Restaurant r) {
+        if (fs.getFoodCategories() != null && !fs.getFoodCategories().isEmpty()
+                && !fs.getFoodCategories().contains(r.getFoodCategory())) return false;
+        if (fs.getPriceCategory() != null && fs.getPriceCategory() != r.getPriceCategory()) return false;
+        return SpatialGrid.haversine(fs.getLatitude(), fs.getLongitude(), r.getLatitude(), r.getLongitude())
+                <= fs.getRadiusKm();
+    }
+
+    private void remove(Key k) {
+        Entry e = entries.remove(k);
+        if (e != null) unindex(k, e);
+    }
+
+    private void unindex(Key k, Entry e) {
+        for (String name : e.names) {
+            Set<Key> keys = byName.get(name);
+            if (keys != null && keys.remove(k) && keys.isEmpty()) byName.remove(name);
+        }
+    }
+
+    public synchronized Map<String, Long> stats() {
+        Map<String, Long> m = new LinkedHashMap<>();
+        m.put("searchCache.entries", (long) entries.size());
+        m.put("searchCache.hits", hits);
+        m.put("searchCache.misses", misses);
+        m.put("searchCache.evictions", evictions);
+        m.put("searchCache.expirations", expirations);
+        m.put("searchCache.invalidations", invalidations);
+        return m;
+    }
+
+    private static final class Entry {
+        // As searched: invalidation tests the point the result was computed at
+        final FilterSpec spec;
+        final ReduceResult result;
+        final Set<String> names = new HashSet<>();
+        final long createdAt = System.currentTimeMillis();
+
+        Entry(FilterSpec spec, ReduceResult result) {
+            this.spec = spec;
+            this.result = result;
+            for (Restaurant r : result.getRestaurants()) names.add(r.getName());
+            for (RestaurantSummary s : result.getSummaries()) names.add(s.getName());
+        }
+    }
+
+    private static final class Key {
+        // Cell indices, or the exact point when snapping is off
+        private final double lat, lon;
+        private final String categories;
+        private final int minStars;
+        private final PriceCategory price;
+        private final SearchOrder order;
+        private final int limit;
+        private final Set<RestaurantSummary.Field> fields;
+
+        Key(FilterSpec fs, double lat, double lon) {
+            this.lat = lat;
+            this.lon = lon;
+            this.categories = fs.getFoodCategories() == null ? "" : String.join(",", new TreeSet<>(fs.getFoodCategories()));
+            this.minStars = fs.getMinStars();
+            this.price = fs.getPriceCategory();
+            this.order = fs.getOrder();
+            this.limit = fs.getLimit();
+            this.fields = fs.getSummaryFields();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return Double.compare(lat, k.lat) == 0 && Double.compare(lon, k.lon) == 0
+                    && minStars == k.minStars && limit == k.limit && price == k.price && order == k.order
+                    && categories.equals(k.categories) && Objects.equals(fields, k.fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lat, lon, categories, minStars, price, order, limit, fields);
+        }
+    }
+}
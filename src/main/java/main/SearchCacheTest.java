@@ -0,0 +1,115 @@
+package main;
+
+import static main.Checks.check;
+import static main.Checks.finish;
+
+import java.util.*;
+
+
+/**
+ * The master's search cache on its own: searches from one cell share an entry, writes drop
+ * exactly the entries they can change, a search that raced an invalidation is not cached,
+ * and partial, expired or least-recently-used entries go away.
+ */
+public class SearchCacheTest {
+    public static void main(String[] args) throws Exception {
+        Restaurant pizza = new Restaurant("PizzaFun", 40.0105, 23.0105, "pizza", 4, PriceCategory.TWO_DOLLARS);
+        Restaurant sushi = new Restaurant("SushiGo", 40.0205, 23.0205, "sushi", 3, PriceCategory.THREE_DOLLARS);
+        FilterSpec here = search(40.0102, 23.0102, null);
+        FilterSpec sameCell = search(40.0108, 23.0109, null);
+        FilterSpec nextCell = search(40.0112, 23.0102, null);
+        FilterSpec pizzaOnly = search(40.0102, 23.0102, Set.of("pizza"));
+
+        System.out.println("--- KEYS ---");
+        SearchCache cache = new SearchCache(16, 60_000, 0.001);
+        ReduceResult both = result(pizza, sushi);
+        check("first search misses", null, cache.get(here));
+        cache.put(here, both, cache.epoch(here));
+        check("same search hits", both, cache.get(here));
+        check("another point in the cell hits", both, cache.get(sameCell));
+        check("the next cell misses", null, cache.get(nextCell));
+        check("other filters miss", null, cache.get(pizzaOnly));
+        check("summaries are cached apart", null, cache.get(here.summarized(RestaurantSummary.DEFAULT_FIELDS)));
+        SearchCache exact = new SearchCache(16, 60_000, 0);
+        exact.put(here, both, exact.epoch(here));
+        check("cell size 0 keys on the exact point", null, exact.get(sameCell));
+
+        System.out.println("\n--- EPOCH ---");
+        cache = new SearchCache(16, 60_000, 0.001);
+        long seen = cache.epoch(here);
+        cache.invalidateListed("SushiGo", false);
+        cache.put(here, both, seen);
+        check("a search that raced an invalidation is not cached", null, cache.get(here));
+
+        FilterSpec summary = here.summarized(RestaurantSummary.DEFAULT_FIELDS);
+        ReduceResult summaries = summaries(pizza, sushi);
+        long seenFull = cache.epoch(here), seenSummary = cache.epoch(summary);
+        cache.invalidateListed("PizzaFun", true);
+        cache.put(here, both, seenFull);
+        cache.put(summary, summaries, seenSummary);
+        check("a menu or sales change spoils a racing full search", null, cache.get(here));
+        check("but not a racing summary search", summaries, cache.get(summary));
+
+        System.out.println("\n--- INVALIDATION ---");
+        cache = new SearchCache(16, 60_000, 0.001);
+        ReduceResult justPizza = result(pizza);
+        ReduceResult justSushi = result(sushi);
+        FilterSpec sushiOnly = search(40.0102, 23.0102, Set.of("sushi"));
+        cache.put(pizzaOnly, justPizza, cache.epoch(pizzaOnly));
+        cache.put(sushiOnly, justSushi, cache.epoch(sushiOnly));
+        cache.put(summary, summaries, cache.epoch(summary));
+        cache.invalidateListed("PizzaFun", true);
+        check("menu change drops full entries listing it", null, cache.get(pizzaOnly));
+        check("and keeps summaries listing it", summaries, cache.get(summary));
+        check("and keeps entries not listing it", justSushi, cache.get(sushiOnly));
+        cache.invalidateListed("PizzaFun", false);
+        check("rating change drops summaries listing it too", null, cache.get(summary));
+
+        FilterSpec far = search(37.98, 23.73, Set.of("sushi"));
+        ReduceResult none = result();
+        cache.put(far, none, cache.epoch(far));
+        cache.invalidateCovering(new Restaurant("NewSushi", 40.0110, 23.0110, "sushi", 5, PriceCategory.ONE_DOLLAR));
+        check("a new restaurant drops entries whose area and filters cover it", null, cache.get(sushiOnly));
+        check("and keeps entries too far away", none, cache.get(far));
+        cache.invalidateAll();
+        check("reload drops everything", null, cache.get(far));
+
+        System.out.println("\n--- NOT CACHED / EXPIRY / LRU ---");
+        cache = new SearchCache(2, 60_000, 0.001);
+        ReduceResult partial = result(pizza);
+        partial.setMissingWorkers(List.of("w2"));
+        cache.put(here, partial, cache.epoch(here));
+        check("partial results are not cached", null, cache.get(here));
+
+        cache.put(here, both, cache.epoch(here));
+        cache.put(nextCell, both, cache.epoch(nextCell));
+        cache.get(here);
+        cache.put(pizzaOnly, justPizza, cache.epoch(pizzaOnly));
+        check("least recently used entry is evicted", null, cache.get(nextCell));
+        check("recently used entry stays", both, cache.get(here));
+
+        SearchCache shortLived = new SearchCache(16, 50, 0.001);
+        shortLived.put(here, both, shortLived.epoch(here));
+        Thread.sleep(120);
+        check("entries expire after the TTL", null, shortLived.get(here));
+        Map<String, Long> stats = shortLived.stats();
+        check("expiry is counted", 1L, stats.get("searchCache.expirations"));
+        System.out.println("Stats> " + stats);
+
+        finish("SearchCache");
+    }
+
+    private static FilterSpec search(double lat, double lon, Set<String> categories) {
+        return new FilterSpec(lat, lon, categories, 0, null);
+    }
+
+    private static ReduceResult result(Restaurant... rs) {
+        return new ReduceResult(List.of(rs), Map.of());
+    }
+
+    private static ReduceResult summaries(Restaurant... rs) {
+        List<RestaurantSummary> list = new ArrayList<>();
+        for (Restaurant r : rs) list.add(new RestaurantSummary(r, RestaurantSummary.DEFAULT_FIELDS));
+        return new ReduceResult(List.of(), list, Map.of());
+    }
+}
@@ -0,0 +1,361 @@
+package main;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Worker-side search indexes: the spatial grid plus inverted bitmaps on food category,
+ * price category and rating (bucketed by whole stars, so "rating >= minStars" is a union of
+ * buckets). Each restaurant gets a slot number used as its bit position.
+ *
+ * {@link #search} is the query planner: it intersects the bitmaps that apply, smallest
+ * first, then either walks that set or the grid cells around the point, whichever is
+ * expected to touch fewer restaurants.
+ *
+ * Versions share structure: {@link #edit} starts a new version, and each part of it (a page
+ * of slots, a shard of the name map, a bitmap, a grid cell) is copied only when the new
+ * version first changes it, so a write costs about a page and a bitmap, not the whole index.
+ * A version that has been edited from is never changed again, so searches may run on it from
+ * any number of threads without locking while a single writer builds the next version.
+ */
+public class SearchIndex {
+    private static final int STAR_BUCKETS = 6;
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE = 1 << PAGE_BITS;
+    private static final int NAME_SHARDS = 32;
+
+    private SpatialGrid grid;
+    // Slot -> restaurant and slot -> star bucket, in pages of PAGE slots (null = never used)
+    private Restaurant[][] slotPages;
+    private byte[][] starPages;
+    private HashMap<String, Integer>[] slotByName;
+    private FreeSlot freeSlots;
+    private int nextSlot;
+    private int size;
+
+    private HashMap<String, BitSet> byCategory;
+    private EnumMap<PriceCategory, BitSet> byPrice;
+    private BitSet[] byStars;
+
+    // What this version may write in place: the top-level tables it has copied, and the pages,
+    // name shards and bitmaps it created or copied. Everything else is shared with older versions
+    private boolean ownsTables = true, ownsCategories = true, ownsPrices = true, ownsStars = true;
+    private Set<Object> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public SearchIndex(double cellDeg) {
+        this.grid = new SpatialGrid(cellDeg);
+        this.slotPages = new Restaurant[1][];
+        this.starPages = new byte[1][];
+        this.slotByName = newNameShards(NAME_SHARDS);
+        this.byCategory = new HashMap<>();
+        this.byPrice = new EnumMap<>(PriceCategory.class);
+        this.byStars = new BitSet[STAR_BUCKETS];
+        for (int i = 0; i < STAR_BUCKETS; i++) byStars[i] = newBits();
+        for (PriceCategory pc : PriceCategory.values()) byPrice.put(pc, newBits());
+    }
+
+    /** A new version sharing everything with this one, which must not be changed afterwards. */
+    public SearchIndex edit() {
+        SearchIndex next = new SearchIndex(this);
+        ownsTables = ownsCategories = ownsPrices = ownsStars = false;
+        owned = Collections.newSetFromMap(new IdentityHashMap<>());
+        return next;
+    }
+
+    private SearchIndex(SearchIndex from) {
+        grid = from.grid.edit();
+        slotPages = from.slotPages;
+        starPages = from.starPages;
+        slotByName = from.slotByName;
+        freeSlots = from.freeSlots;
+        nextSlot = from.nextSlot;
+        size = from.size;
+        byCategory = from.byCategory;
+        byPrice = from.byPrice;
+        byStars = from.byStars;
+        ownsTables = ownsCategories = ownsPrices = ownsStars = false;
+    }
+
+    public void add(Restaurant r) {
+        if (slotOf(r.getName()) != null) {
+            remove(r.getName());
+        }
+        int slot;
+        if (freeSlots != null) {
+            slot = freeSlots.slot;
+            freeSlots = freeSlots.next;
+        } else {
+            slot = nextSlot++;
+        }
+        setSlot(slot, r);
+        names(r.getName()).put(r.getName(), slot);
+        size++;
+        categoryBits(r.getFoodCategory(), true).set(slot);
+        if (r.getPriceCategory() != null) priceBits(r.getPriceCategory()).set(slot);
+        byte b = bucketOf(r.getAverageRating());
+        setStarBucket(slot, b);
+        starBits(b).set(slot);
+        grid.add(r);
+    }
+
+    public Restaurant remove(String name) {
+        Integer slot = slotOf(name);
+        if (slot == null) return null;
+        names(name).remove(name);
+        size--;
+        Restaurant r = slotAt(slot);
+        setSlot(slot, null);
+        BitSet cat = categoryBits(r.getFoodCategory(), false);
+        cat.clear(slot);
+        if (cat.isEmpty()) byCategory.remove(r.getFoodCategory());
+        if (r.getPriceCategory() != null) priceBits(r.getPriceCategory()).clear(slot);
+        starBits(starBucketAt(slot)).clear(slot);
+        grid.remove(r);
+        freeSlots = new FreeSlot(slot, freeSlots);
+        return r;
+    }
+
+    /** Moves the restaurant to its new rating bucket after its average changed. */
+    public void updateRating(Restaurant r) {
+        Integer slot = slotOf(r.getName());
+        if (slot == null) return;
+        byte b = bucketOf(r.getAverageRating());
+        byte old = starBucketAt(slot);
+        if (b != old) {
+            starBits(old).clear(slot);
+            starBits(b).set(slot);
+            setStarBucket(slot, b);
+        }
+    }
+
+    /** Whether {@code r} already sits in the bucket of its current average (true if not indexed). */
+    public boolean ratingIndexed(Restaurant r) {
+        Integer slot = slotOf(r.getName());
+        return slot == null || starBucketAt(slot) == bucketOf(r.getAverageRating());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // ---- slot table ----
+
+    private Restaurant slotAt(int slot) {
+        Restaurant[] page = slotPages[slot >>> PAGE_BITS];
+        return page == null ? null : page[slot & (PAGE - 1)];
+    }
+
+    private byte starBucketAt(int slot) {
+        return starPages[slot >>> PAGE_BITS][slot & (PAGE - 1)];
+    }
+
+    private Integer slotOf(String name) {
+        HashMap<String, Integer> shard = slotByName[nameShard(name)];
+        return shard == null ? null : shard.get(name);
+    }
+
+    private void setSlot(int slot, Restaurant r) {
+        ownTables();
+        int p = slot >>> PAGE_BITS;
+        if (p >= slotPages.length) {
+            slotPages = Arrays.copyOf(slotPages, Math.max(p + 1, slotPages.length * 2));
+            starPages = Arrays.copyOf(starPages, slotPages.length);
+        }
+        Restaurant[] page = slotPages[p];
+        if (page == null) {
+            page = new Restaurant[PAGE];
+            owned.add(page);
+            starPages[p] = own(new byte[PAGE]);
+        } else if (!owned.contains(page)) {
+            page = own(page.clone());
+        }
+        slotPages[p] = page;
+        page[slot & (PAGE - 1)] = r;
+    }
+
+    private void setStarBucket(int slot, byte b) {
+        ownTables();
+        int p = slot >>> PAGE_BITS;
+        byte[] page = starPages[p];
+        if (!owned.contains(page)) starPages[p] = page = own(page.clone());
+        page[slot & (PAGE - 1)] = b;
+    }
+
+    private HashMap<String, Integer> names(String name) {
+        ownTables();
+        int i = nameShard(name);
+        HashMap<String, Integer> shard = slotByName[i];
+        if (shard == null) {
+            shard = own(new HashMap<>());
+        } else if (!owned.contains(shard)) {
+            shard = own(new HashMap<>(shard));
+        }
+        return slotByName[i] = shard;
+    }
+
+    /** Spreads names over the shards using high hash bits; the catalog already split them on low ones. */
+    private static int nameShard(String name) {
+        return (name.hashCode() * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(NAME_SHARDS));
+    }
+
+    // ---- copy on first write ----
+
+    private void ownTables() {
+        if (ownsTables) return;
+        slotPages = slotPages.clone();
+        starPages = starPages.clone();
+        slotByName = slotByName.clone();
+        ownsTables = true;
+    }
+
+    private BitSet categoryBits(String category, boolean create) {
+        if (!ownsCategories) {
+            byCategory = new HashMap<>(byCategory);
+            ownsCategories = true;
+        }
+        BitSet b = byCategory.get(category);
+        if (b == null) {
+            if (!create) return new BitSet();
+            b = newBits();
+        } else if (!owned.contains(b)) {
+            b = own((BitSet) b.clone());
+        }
+        byCategory.put(category, b);
+        return b;
+    }
+
+    private BitSet priceBits(PriceCategory pc) {
+        if (!ownsPrices) {
+            byPrice = new EnumMap<>(byPrice);
+            ownsPrices = true;
+        }
+        BitSet b = byPrice.get(pc);
+        if (!owned.contains(b)) byPrice.put(pc, b = own((BitSet) b.clone()));
+        return b;
+    }
+
+    private BitSet starBits(int bucket) {
+        if (!ownsStars) {
+            byStars = byStars.clone();
+            ownsStars = true;
+        }
+        BitSet b = byStars[bucket];
+        if (!owned.contains(b)) byStars[bucket] = b = own((BitSet) b.clone());
+        return b;
+    }
+
+    private <T> T own(T part) {
+        owned.add(part);
+        return part;
+    }
+
+    private BitSet newBits() {
+        return own(new BitSet());
+    }
+
+    // Java has no generic array creation; the array only ever holds maps of this type
+    @SuppressWarnings("unchecked")
+    private static HashMap<String, Integer>[] newNameShards(int n) {
+        return (HashMap<String, Integer>[]) new HashMap<?, ?>[n];
+    }
+
+    /** Persistent stack of released slots, so versions share it instead of copying it. */
+    private static final class FreeSlot {
+        final int slot;
+        final FreeSlot next;
+
+        FreeSlot(int slot, FreeSlot next) {
+            this.slot = slot;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Feeds {@code out} every restaurant that may match {@code fs}. Candidates already satisfy
+     * the indexed filters and the distance; callers keep their exact check as the last word.
+     */
+    public void search(FilterSpec fs, Consumer<Restaurant> out) {
+        BitSet candidates = select(fs);
+        boolean skipDistance = fs.getLatitude() == 0.0 && fs.getLongitude() == 0.0;
+
+        if (skipDistance) {
+            if (candidates == null) {
+                for (Restaurant[] page : slotPages) {
+                    if (page == null) continue;
+                    for (Restaurant r : page) {
+                        if (r != null) out.accept(r);
+                    }
+                }
+            } else {
+                forEach(candidates, out);
+            }
+            return;
+        }
+
+        double lat = fs.getLatitude(), lon = fs.getLongitude(), radius = fs.getRadiusKm();
+        if (candidates != null && candidates.cardinality() <= grid.estimate(lat, lon, radius)) {
+            forEach(candidates, r -> {
+                if (SpatialGrid.haversine(lat, lon, r.getLatitude(), r.getLongitude()) <= radius) {
+                    out.accept(r);
+                }
+            });
+        } else if (candidates == null) {
+            grid.within(lat, lon, radius, out);
+        } else {
+            grid.within(lat, lon, radius, r -> {
+                Integer slot = slotOf(r.getName());
+                if (slot != null && candidates.get(slot)) out.accept(r);
+            });
+        }
+    }
+
+    /** Upper bound on the restaurants {@link #search} would visit, without planning it. */
+    public int cost(FilterSpec fs) {
+        if (fs.getLatitude() == 0.0 && fs.getLongitude() == 0.0) return size;
+        return Math.min(size, grid.estimate(fs.getLatitude(), fs.getLongitude(), fs.getRadiusKm()));
+    }
+
+    /** Intersection of the bitmaps that apply to {@code fs}, most selective first; null if none apply. */
+    BitSet select(FilterSpec fs) {
+        List<BitSet> filters = new ArrayList<>(3);
+
+        Set<String> cats = fs.getFoodCategories();
+        if (cats != null && !cats.isEmpty()) {
+            BitSet union = new BitSet();
+            for (String c : cats) {
+                BitSet b = byCategory.get(c);
+                if (b != null) union.or(b);
+            }
+            filters.add(union);
+        }
+        if (fs.getPriceCategory() != null) {
+            filters.add(byPrice.get(fs.getPriceCategory()));
+        }
+        if (fs.getMinStars() > 0) {
+            BitSet union = new BitSet();
+            for (int b = Math.min(fs.getMinStars(), STAR_BUCKETS); b < STAR_BUCKETS; b++) {
+                union.or(byStars[b]);
+            }
+            filters.add(union);
+        }
+        if (filters.isEmpty()) return null;
+
+        filters.sort(Comparator.comparingInt(BitSet::cardinality));
+        BitSet result = (BitSet) filters.get(0).clone();
+        for (int i = 1; i < filters.size() && !result.isEmpty(); i++) {
+            result.and(filters.get(i));
+        }
+        return result;
+    }
+
+    private void forEach(BitSet set, Consumer<Restaurant> out) {
+        for (int slot = set.nextSetBit(0); slot >= 0; slot = set.nextSetBit(slot + 1)) {
+            Restaurant r = slotAt(slot);
+            if (r != null) out.accept(r);
+        }
+    }
+
+    private static byte bucketOf(double rating) {
+        return (byte) Math.max(0, Math.min(STAR_BUCKETS - 1, (int) Math.floor(rating)));
+    }
+}
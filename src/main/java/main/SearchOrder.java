@@ -0,0 +1,41 @@
+package main;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+/** How a search ranks its matches; best first, ties broken by name so every worker agrees. */
+public enum SearchOrder implements Serializable {
+    NONE, DISTANCE, RATING, SCORE;
+
+    // Share of the SCORE that comes from closeness; the rest comes from rating
+    static final double SCORE_DISTANCE_WEIGHT =
+            Double.parseDouble(System.getProperty("efood.scoreDistanceWeight", "0.5"));
+
+    private static final Comparator<Rankable> BY_NAME = Comparator.comparing(Rankable::getName);
+
+    /** Comparator for this order around the search point, or null for NONE. */
+    public Comparator<Rankable> comparator(FilterSpec fs) {
+        switch (this) {
+            case DISTANCE:
+                return Comparator.<Rankable>comparingDouble(r -> distanceKm(fs, r)).thenComparing(BY_NAME);
+            case RATING:
+                return Comparator.<Rankable>comparingDouble(r -> -r.getAverageRating())
+                        .thenComparing(Comparator.comparingInt(Rankable::getNoOfVotes).reversed())
+                        .thenComparing(BY_NAME);
+            case SCORE:
+                return Comparator.<Rankable>comparingDouble(r -> -score(fs, r)).thenComparing(BY_NAME);
+            default:
+                return null;
+        }
+    }
+
+    static double distanceKm(FilterSpec fs, Rankable r) {
+        return SpatialGrid.haversine(fs.getLatitude(), fs.getLongitude(), r.getLatitude(), r.getLongitude());
+    }
+
+    /** 0..1: rating out of five blended with how close the restaurant is within the radius. */
+    static double score(FilterSpec fs, Rankable r) {
+        double closeness = Math.max(0, 1 - distanceKm(fs, r) / fs.getRadiusKm());
+        return (1 - SCORE_DISTANCE_WEIGHT) * r.getAverageRating() / 5.0 + SCORE_DISTANCE_WEIGHT * closeness;
+    }
+}
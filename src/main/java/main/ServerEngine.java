@@ -0,0 +1,32 @@
+package main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Accepts connections and feeds their messages to a {@link MessageHandler}.
+ * Chosen at startup with -Defood.server=blocking|nio.
+ */
+public abstract class ServerEngine implements Closeable {
+    protected final MessageHandler handler;
+    protected final ExecutorService executor;
+
+    protected ServerEngine(MessageHandler handler, ExecutorService executor) {
+        this.handler = handler;
+        this.executor = executor;
+    }
+
+    public static ServerEngine create(MessageHandler handler, ExecutorService executor) {
+        String mode = System.getProperty("efood.server", "blocking");
+        if ("nio".equalsIgnoreCase(mode)) {
+            return new NioServerEngine(handler, executor);
+        }
+        return new BlockingServerEngine(handler, executor);
+    }
+
+    public abstract void bind(int port) throws IOException;
+
+    /** Runs the accept loop on the calling thread until the engine is closed. */
+    public abstract void serve() throws IOException;
+}
@@ -0,0 +1,29 @@
+package main;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch of restaurants in transit. With migration id 0 the receiver adds them right away;
+ * otherwise they are staged under that id until SHARD_ACTIVATE.
+ */
+public class ShardBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long migrationId;
+    private final List<Restaurant> restaurants;
+
+    public ShardBatch(long migrationId, List<Restaurant> restaurants) {
+        this.migrationId = migrationId;
+        this.restaurants = new ArrayList<>(restaurants);
+    }
+
+    public long getMigrationId() { return migrationId; }
+    public List<Restaurant> getRestaurants() { return restaurants; }
+
+    @Override
+    public String toString() {
+        return "ShardBatch{migrationId=" + migrationId + ", restaurants=" + restaurants.size() + '}';
+    }
+}
@@ -0,0 +1,40 @@
+package main;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Master → source worker: stream these restaurants to {@code target}. A copy leaves them on
+ * the source too (a new replica); with DROP_SHARD there is no target and the names are dropped.
+ */
+public class ShardMigration implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long id;
+    private final WorkerInfo target;
+    private final List<String> names;
+    private final boolean copy;
+
+    public ShardMigration(long id, WorkerInfo target, List<String> names) {
+        this(id, target, names, false);
+    }
+
+    public ShardMigration(long id, WorkerInfo target, List<String> names, boolean copy) {
+        this.id = id;
+        this.target = target;
+        this.names = new ArrayList<>(names);
+        this.copy = copy;
+    }
+
+    public long getId() { return id; }
+    public WorkerInfo getTarget() { return target; }
+    public List<String> getNames() { return names; }
+    public boolean isCopy() { return copy; }
+
+    @Override
+    public String toString() {
+        return "ShardMigration{id=" + id + ", target=" + (target == null ? "-" : target.getId())
+                + (copy ? ", copy" : "") + ", restaurants=" + names.size() + '}';
+    }
+}
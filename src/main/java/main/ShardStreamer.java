@@ -0,0 +1,72 @@
+package main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Sends restaurants as SHARD_BATCH messages over a pipelined connection, keeping at most
+ * WINDOW batches unacknowledged so a fast sender cannot flood the receiver.
+ */
+public final class ShardStreamer {
+    static final int BATCH_SIZE = Integer.getInteger("efood.migrationBatch", 500);
+    static final int WINDOW = 4;
+
+    private ShardStreamer() {}
+
+    public static int stream(Function<Message, CompletableFuture<Message>> submit,
+                             long migrationId, Collection<Restaurant> restaurants) throws IOException {
+        Semaphore window = new Semaphore(WINDOW);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Restaurant> batch = new ArrayList<>(BATCH_SIZE);
+        int sent = 0;
+        try {
+            for (Restaurant r : restaurants) {
+                batch.add(r);
+                if (batch.size() == BATCH_SIZE) {
+                    send(submit, window, failure, new ShardBatch(migrationId, batch));
+                    sent += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                send(submit, window, failure, new ShardBatch(migrationId, batch));
+                sent += batch.size();
+            }
+            window.acquire(WINDOW);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while streaming shard", e);
+        }
+        if (failure.get() != null) {
+            throw new IOException("shard batch failed: " + failure.get().getMessage(), failure.get());
+        }
+        return sent;
+    }
+
+    private static void send(Function<Message, CompletableFuture<Message>> submit, Semaphore window,
+                             AtomicReference<Throwable> failure, ShardBatch batch)
+            throws InterruptedException, IOException {
+        if (failure.get() != null) {
+            throw new IOException("shard batch failed: " + failure.get().getMessage(), failure.get());
+        }
+        window.acquire();
+        submit.apply(new Message(Message.MessageType.SHARD_BATCH, batch)).whenComplete((resp, err) -> {
+            if (err != null) {
+                failure.compareAndSet(null, err);
+            } else if (isError(resp)) {
+                failure.compareAndSet(null, new IOException(String.valueOf(resp.getPayload())));
+            }
+            window.release();
+        });
+    }
+
+    static boolean isError(Message resp) {
+        return resp.getPayload() instanceof String && ((String) resp.getPayload()).startsWith("ERROR");
+    }
+}
@@ -0,0 +1,183 @@
+package main;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Uniform lat/lon grid over restaurants. A radius query only visits the cells overlapping the
+ * query's bounding box, prefilters on the box and runs the exact haversine check last.
+ *
+ * Versioned like {@link SearchIndex}: {@link #edit} shares every cell with the new version,
+ * which copies a cell the first time it changes it.
+ */
+public class SpatialGrid {
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+    private static final double KM_PER_DEG_LAT = Math.PI * EARTH_RADIUS_KM / 180.0;
+
+    private final double cellDeg;
+    private final int lonCells;
+    private static final int SHARDS = 32;
+
+    // Cell key -> restaurants, split into shards by key so a new version copies one small map
+    private Map<Long, List<Restaurant>>[] cells;
+    private int size;
+    // What this version may write in place; everything else is shared with older versions
+    private boolean ownsShards = true;
+    private Set<Object> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public SpatialGrid(double cellDeg) {
+        this(cellDeg, newShards(SHARDS), 0);
+    }
+
+    private SpatialGrid(double cellDeg, Map<Long, List<Restaurant>>[] cells, int size) {
+        this.cellDeg = cellDeg;
+        this.lonCells = (int) Math.ceil(360.0 / cellDeg);
+        this.cells = cells;
+        this.size = size;
+    }
+
+    /** A new version sharing every cell with this one, which must not be changed afterwards. */
+    public SpatialGrid edit() {
+        SpatialGrid next = new SpatialGrid(cellDeg, cells, size);
+        next.ownsShards = false;
+        ownsShards = false;
+        owned = Collections.newSetFromMap(new IdentityHashMap<>());
+        return next;
+    }
+
+    public void add(Restaurant r) {
+        ownedCell(cellOf(r.getLatitude(), r.getLongitude()), true).add(r);
+        size++;
+    }
+
+    public void remove(Restaurant r) {
+        long key = cellOf(r.getLatitude(), r.getLongitude());
+        List<Restaurant> cell = ownedCell(key, false);
+        if (cell == null) return;
+        int before = cell.size();
+        cell.removeIf(existing -> existing.getName().equals(r.getName()));
+        size -= before - cell.size();
+        if (cell.isEmpty()) cells[shard(key)].remove(key);
+    }
+
+    private List<Restaurant> cell(long key) {
+        Map<Long, List<Restaurant>> shard = cells[shard(key)];
+        return shard == null ? null : shard.get(key);
+    }
+
+    /** The cell at {@code key}, copied first if it is shared; null if absent and not {@code create}. */
+    private List<Restaurant> ownedCell(long key, boolean create) {
+        List<Restaurant> cell = cell(key);
+        if (cell == null && !create) return null;
+        if (!ownsShards) {
+            cells = cells.clone();
+            ownsShards = true;
+        }
+        int i = shard(key);
+        Map<Long, List<Restaurant>> shard = cells[i];
+        if (shard == null || !owned.contains(shard)) {
+            shard = shard == null ? new HashMap<>() : new HashMap<>(shard);
+            owned.add(shard);
+            cells[i] = shard;
+        }
+        if (cell == null || !owned.contains(cell)) {
+            cell = cell == null ? new ArrayList<>() : new ArrayList<>(cell);
+            owned.add(cell);
+            shard.put(key, cell);
+        }
+        return cell;
+    }
+
+    // Java has no generic array creation; the array only ever holds maps of this type
+    @SuppressWarnings("unchecked")
+    private static Map<Long, List<Restaurant>>[] newShards(int n) {
+        return (Map<Long, List<Restaurant>>[]) new Map<?, ?>[n];
+    }
+
+    private static int shard(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(SHARDS)));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Calls {@code out} for every restaurant within {@code radiusKm} of the point. */
+    public void within(double lat, double lon, double radiusKm, Consumer<Restaurant> out) {
+        Box box = new Box(lat, lon, radiusKm);
+        for (int la = box.latFrom; la <= box.latTo; la++) {
+            for (int lo = box.lonFrom; lo <= box.lonTo; lo++) {
+                List<Restaurant> cell = cell(key(la, Math.floorMod(lo, lonCells)));
+                if (cell == null) continue;
+                for (Restaurant r : cell) {
+                    // Bounding-box prefilter before the trigonometry
+                    if (r.getLatitude() < box.minLat || r.getLatitude() > box.maxLat) continue;
+                    double dl = Math.abs(r.getLongitude() - lon);
+                    if (Math.min(dl, 360.0 - dl) > box.dLon) continue;
+                    if (haversine(lat, lon, r.getLatitude(), r.getLongitude()) <= radiusKm) {
+                        out.accept(r);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Number of restaurants in the cells a radius query would visit; an upper bound on its matches. */
+    public int estimate(double lat, double lon, double radiusKm) {
+        Box box = new Box(lat, lon, radiusKm);
+        int n = 0;
+        for (int la = box.latFrom; la <= box.latTo; la++) {
+            for (int lo = box.lonFrom; lo <= box.lonTo; lo++) {
+                List<Restaurant> cell = cell(key(la, Math.floorMod(lo, lonCells)));
+                if (cell != null) n += cell.size();
+            }
+        }
+        return n;
+    }
+
+    static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat/2)*Math.sin(dLat/2)
+                + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon/2)*Math.sin(dLon/2);
+        return EARTH_RADIUS_KM * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
+    }
+
+    private long cellOf(double lat, double lon) {
+        return key(latIndex(lat), Math.floorMod((int) Math.floor((lon + 180.0) / cellDeg), lonCells));
+    }
+
+    private int latIndex(double lat) {
+        return (int) Math.floor((Math.max(-90.0, Math.min(90.0, lat)) + 90.0) / cellDeg);
+    }
+
+    private static long key(int latIdx, int lonIdx) {
+        return ((long) latIdx << 32) | (lonIdx & 0xFFFFFFFFL);
+    }
+
+    private final class Box {
+        final double minLat, maxLat, dLon;
+        final int latFrom, latTo, lonFrom, lonTo;
+
+        Box(double lat, double lon, double radiusKm) {
+            double dLat = radiusKm / KM_PER_DEG_LAT;
+            minLat = lat - dLat;
+            maxLat = lat + dLat;
+            double cosLat = Math.cos(Math.toRadians(Math.min(89.0, Math.max(Math.abs(minLat), Math.abs(maxLat)))));
+            dLon = Math.min(180.0, radiusKm / (KM_PER_DEG_LAT * cosLat));
+
+            latFrom = latIndex(minLat);
+            latTo = latIndex(maxLat);
+            int from = (int) Math.floor((lon - dLon + 180.0) / cellDeg);
+            int to = (int) Math.floor((lon + dLon + 180.0) / cellDeg);
+            if (to - from + 1 >= lonCells) {
+                from = 0;
+                to = lonCells - 1;
+            }
+            lonFrom = from;
+            lonTo = to;
+        }
+    }
+}
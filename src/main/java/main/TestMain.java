@@ -3,6 +3,7 @@ package main;
 import java.io.*;
 import java.net.Socket;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 
 public class TestMain {
@@ -25,17 +26,15 @@ public class TestMain {
         Thread.sleep(1000);
 
         try (Socket client = new Socket("localhost", masterPort);
-             ObjectOutputStream oos = new ObjectOutputStream(client.getOutputStream());
-             ObjectInputStream  ois = new ObjectInputStream(client.getInputStream())) {
+             MessageChannel channel = MessageChannel.connect(client, MessageCodec.preferred())) {
 
             System.out.println("--- ADD_RESTAURANT ---");
             Restaurant r = new Restaurant(
                     "PizzaFun", 40.01, 23.01,
                     "pizza", 5, PriceCategory.TWO_DOLLARS
             );
-            oos.writeObject(new Message(Message.MessageType.ADD_RESTAURANT, r));
-            oos.flush();
-            System.out.println("Master> " + ois.readObject());
+            channel.write(new Message(Message.MessageType.ADD_RESTAURANT, r));
+            System.out.println("Master> " + channel.read());
 
             System.out.println("\n--- TASK ---");
             FilterSpec fs = new FilterSpec(
@@ -43,38 +42,51 @@ public class TestMain {
                     new HashSet<>(Arrays.asList("pizza")),
                     4, PriceCategory.TWO_DOLLARS
             );
-            oos.writeObject(new Message(Message.MessageType.TASK, fs));
-            oos.flush();
-            Message taskResp = (Message) ois.readObject();
+            channel.write(new Message(Message.MessageType.TASK, fs));
+            Message taskResp = channel.read();
             System.out.println("Master> " + taskResp.getPayload());
 
             System.out.println("\n--- SALE ---");
             Map<String,Integer> items = Map.of("PizzaFun", 3);
             Sale sale = new Sale("PizzaFun", items);
-            oos.writeObject(new Message(Message.MessageType.SALE, sale));
-            oos.flush();
-            System.out.println("Master> " + ois.readObject());
+            channel.write(new Message(Message.MessageType.SALE, sale));
+            System.out.println("Master> " + channel.read());
 
             System.out.println("\n--- REPORT (food) ---");
-            oos.writeObject(new Message(Message.MessageType.REPORT, "food"));
-            oos.flush();
-            Message repResp = (Message) ois.readObject();
+            channel.write(new Message(Message.MessageType.REPORT, "food"));
+            Message repResp = channel.read();
             System.out.println("Master> " + repResp.getPayload());
 
             System.out.println("\n--- RATE ---");
             Rating rating = new Rating("PizzaFun", 4);
-            oos.writeObject(new Message(Message.MessageType.RATE, rating));
-            oos.flush();
-            System.out.println("Master> " + ois.readObject());
+            channel.write(new Message(Message.MessageType.RATE, rating));
+            System.out.println("Master> " + channel.read());
 
             System.out.println("\n--- TASK after RATE ---");
-            oos.writeObject(new Message(Message.MessageType.TASK, fs));
-            oos.flush();
-            Message afterRate = (Message) ois.readObject();
+            channel.write(new Message(Message.MessageType.TASK, fs));
+            Message afterRate = channel.read();
             System.out.println("Master> " + afterRate.getPayload());
 
         }
 
+        System.out.println("\n--- PIPELINED TASKs ---");
+        try (PipelinedConnection pc = new PipelinedConnection("localhost", masterPort)) {
+            FilterSpec fs = new FilterSpec(
+                    40.0, 23.0,
+                    new HashSet<>(Arrays.asList("pizza")),
+                    0, null
+            );
+            List<CompletableFuture<Message>> inFlight = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                inFlight.add(pc.submit(new Message(Message.MessageType.TASK, fs)));
+            }
+            int ok = 0;
+            for (CompletableFuture<Message> f : inFlight) {
+                if (f.get().getPayload() instanceof ReduceResult) ok++;
+            }
+            System.out.println("Master> " + ok + "/" + inFlight.size() + " pipelined searches answered");
+        }
+
         System.out.println("\n=== Integration Test Finished ===");
         System.exit(0);
     }
@@ -0,0 +1,95 @@
+package main;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A set of arcs of the placement ring (see {@link HashRing#hash}) that one worker answers for
+ * in a search or report. With replicated shards every restaurant lives on several workers;
+ * the master splits the ring so each arc is served by exactly one of its replicas and nothing
+ * is counted twice.
+ *
+ * Arcs are stored as inclusive [start, end] token intervals, sorted and merged, so
+ * {@link #contains} is a binary search.
+ */
+public class TokenScope implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] starts;
+    private final long[] ends;
+
+    TokenScope(long[] starts, long[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    public boolean contains(long token) {
+        int i = Arrays.binarySearch(ends, token);
+        if (i < 0) i = -i - 1;
+        return i < ends.length && token >= starts[i];
+    }
+
+    int size() {
+        return ends.length;
+    }
+
+    long startAt(int i) {
+        return starts[i];
+    }
+
+    long endAt(int i) {
+        return ends[i];
+    }
+
+    @Override
+    public String toString() {
+        return "TokenScope{arcs=" + ends.length + '}';
+    }
+
+    static final class Builder {
+        private long[] starts = new long[16];
+        private long[] ends = new long[16];
+        private int n;
+
+        /** Adds the ring arc (prev, point]; prev >= point means it wraps past the top of the ring. */
+        Builder addArc(long prev, long point) {
+            if (prev < point) {
+                append(prev + 1, point);
+            } else {
+                if (prev != Long.MAX_VALUE) append(prev + 1, Long.MAX_VALUE);
+                append(Long.MIN_VALUE, point);
+            }
+            return this;
+        }
+
+        private void append(long start, long end) {
+            if (n == ends.length) {
+                starts = Arrays.copyOf(starts, n * 2);
+                ends = Arrays.copyOf(ends, n * 2);
+            }
+            starts[n] = start;
+            ends[n] = end;
+            n++;
+        }
+
+        TokenScope build() {
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Long.compare(starts[a], starts[b]));
+            long[] s = new long[n];
+            long[] e = new long[n];
+            int m = 0;
+            for (int i : order) {
+                // Touching or overlapping the previous interval: extend it
+                if (m > 0 && (e[m - 1] == Long.MAX_VALUE || starts[i] <= e[m - 1] + 1)) {
+                    e[m - 1] = Math.max(e[m - 1], ends[i]);
+                } else {
+                    s[m] = starts[i];
+                    e[m] = ends[i];
+                    m++;
+                }
+            }
+            return new TokenScope(Arrays.copyOf(s, m), Arrays.copyOf(e, m));
+        }
+    }
+}
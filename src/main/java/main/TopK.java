@@ -0,0 +1,64 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects search matches, keeping only the best {@code limit} under the search order.
+ * A bounded heap holds the current worst on top, so each match costs O(log limit) and a
+ * broad search never materialises more than {@code limit} restaurants.
+ */
+final class TopK {
+    private final Comparator<Rankable> order;
+    private final int limit;
+    private final PriorityQueue<Restaurant> heap;
+    private final List<Restaurant> all;
+
+    TopK(FilterSpec fs) {
+        this.order = fs.getOrder().comparator(fs);
+        this.limit = fs.getLimit();
+        if (order != null && limit > 0) {
+            heap = new PriorityQueue<>(limit + 1, order.reversed());
+            all = null;
+        } else {
+            heap = null;
+            all = new ArrayList<>();
+        }
+    }
+
+    void offer(Restaurant r) {
+        if (heap != null) {
+            if (heap.size() < limit) {
+                heap.add(r);
+            } else if (order.compare(r, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(r);
+            }
+        } else if (order != null || limit == 0 || all.size() < limit) {
+            all.add(r);
+        }
+    }
+
+    /** Folds in what another TopK for the same search kept, e.g. one per searched segment. */
+    void addAll(TopK other) {
+        if (other.heap != null) {
+            for (Restaurant r : other.heap) offer(r);
+        } else {
+            for (Restaurant r : other.all) offer(r);
+        }
+    }
+
+    /** The kept matches, best first (in index order when the search is unranked). */
+    List<Restaurant> sorted() {
+        if (heap != null) {
+            List<Restaurant> out = new ArrayList<>(heap);
+            out.sort(order);
+            return out;
+        }
+        if (order != null) all.sort(order);
+        return Collections.unmodifiableList(all);
+    }
+}
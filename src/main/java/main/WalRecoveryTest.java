@@ -0,0 +1,165 @@
+package main;
+
+import static main.Checks.check;
+import static main.Checks.finish;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.util.*;
+
+
+/**
+ * Crash recovery of a worker's store: records appended, a snapshot taken while writes go on,
+ * the store reopened and replayed, then again after a torn frame, a run of zeros or an
+ * undecodable frame was left at the log's tail.
+ */
+public class WalRecoveryTest {
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("efood-wal");
+        Map<String, Restaurant> live = new TreeMap<>();
+
+        System.out.println("--- APPEND ---");
+        WorkerStore store = open(dir, live);
+        write(store, live, new Message(Message.MessageType.ADD_RESTAURANT,
+                new Restaurant("PizzaFun", 40.01, 23.01, "pizza", 4, PriceCategory.TWO_DOLLARS)));
+        write(store, live, new Message(Message.MessageType.ADD_RESTAURANT,
+                new Restaurant("SushiGo", 40.02, 23.02, "sushi", 3, PriceCategory.THREE_DOLLARS)));
+        write(store, live, new Message(Message.MessageType.ADD_PRODUCT, new ProductAction("PizzaFun", "margherita", 8.5)));
+        write(store, live, new Message(Message.MessageType.RATE, new Rating("PizzaFun", 5)));
+        write(store, live, sale("PizzaFun", "margherita", 3));
+        System.out.println("State> " + describe(live));
+
+        System.out.println("\n--- SNAPSHOT while writing ---");
+        WorkerStore.SnapshotWriter snap = store.beginSnapshot(live.values());
+        // Lands in the new segment only; the snapshot copy must not see it, or replay counts it twice
+        write(store, live, new Message(Message.MessageType.RATE, new Rating("SushiGo", 1)));
+        write(store, live, sale("PizzaFun", "margherita", 2));
+        store.commitSnapshot(snap);
+        write(store, live, new Message(Message.MessageType.REMOVE_PRODUCT, new ProductAction("PizzaFun", "margherita", null)));
+        store.close();
+
+        System.out.println("\n--- REPLAY ---");
+        // What a crash mid-snapshot leaves behind
+        Path stale = Files.write(dir.resolve("snapshot-99.tmp"), new byte[] {1, 2, 3});
+        Map<String, Restaurant> recovered = new TreeMap<>();
+        store = open(dir, recovered);
+        check("snapshot plus log tail restores the shard", describe(live), describe(recovered));
+        check("unfinished snapshot is removed", false, Files.exists(stale));
+        write(store, recovered, new Message(Message.MessageType.RATE, new Rating("SushiGo", 2)));
+        apply(live, new Message(Message.MessageType.RATE, new Rating("SushiGo", 2)));
+        store.close();
+
+        System.out.println("\n--- TORN TAIL ---");
+        Path segment = lastSegment(dir);
+        long intact = Files.size(segment);
+        byte[] frame = WriteAheadLog.frame(new BinaryCodec().encode(sale("PizzaFun", "margherita", 100)));
+        try (OutputStream out = Files.newOutputStream(segment, StandardOpenOption.APPEND)) {
+            out.write(frame, 0, frame.length / 2);
+        }
+        recovered = new TreeMap<>();
+        store = open(dir, recovered);
+        check("half-written record is dropped", describe(live), describe(recovered));
+        check("torn tail is truncated", intact, Files.size(segment));
+
+        System.out.println("\n--- APPEND after truncation ---");
+        write(store, recovered, new Message(Message.MessageType.RATE, new Rating("PizzaFun", 2)));
+        apply(live, new Message(Message.MessageType.RATE, new Rating("PizzaFun", 2)));
+        store.close();
+        recovered = new TreeMap<>();
+        open(dir, recovered).close();
+        check("records after the torn tail replay too", describe(live), describe(recovered));
+
+        System.out.println("\n--- ZEROED TAIL ---");
+        segment = lastSegment(dir);
+        intact = Files.size(segment);
+        try (OutputStream out = Files.newOutputStream(segment, StandardOpenOption.APPEND)) {
+            out.write(new byte[4096]);
+        }
+        recovered = new TreeMap<>();
+        store = open(dir, recovered);
+        store.close();
+        check("zeros past the last record are not a record", describe(live), describe(recovered));
+        check("zeroed tail is truncated", intact, Files.size(segment));
+
+        System.out.println("\n--- UNDECODABLE TAIL ---");
+        byte[] garbage = WriteAheadLog.frame(new byte[] {(byte) 0xFF});
+        try (OutputStream out = Files.newOutputStream(segment, StandardOpenOption.APPEND)) {
+            out.write(garbage);
+        }
+        recovered = new TreeMap<>();
+        store = open(dir, recovered);
+        store.close();
+        check("a checksummed frame that does not decode ends the log", describe(live), describe(recovered));
+        check("undecodable tail is truncated", intact, Files.size(segment));
+
+        finish("WAL Recovery");
+    }
+
+    private static WorkerStore open(Path dir, Map<String, Restaurant> shard) throws IOException {
+        WorkerStore store = new WorkerStore(dir, "test");
+        long n = store.recover(r -> shard.put(r.getName(), r), m -> apply(shard, m));
+        System.out.println("Store> recovered " + shard.size() + " restaurants, replayed " + n + " records");
+        return store;
+    }
+
+    /** Applies then logs, as the worker does. */
+    private static void write(WorkerStore store, Map<String, Restaurant> shard, Message m) throws IOException {
+        apply(shard, m);
+        store.awaitDurable(store.append(m));
+    }
+
+    /** The subset of WorkerNode's replay this test uses. */
+    private static void apply(Map<String, Restaurant> shard, Message m) {
+        switch (m.getType()) {
+            case ADD_RESTAURANT -> {
+                Restaurant r = (Restaurant) m.getPayload();
+                shard.put(r.getName(), r);
+            }
+            case ADD_PRODUCT -> {
+                ProductAction pa = (ProductAction) m.getPayload();
+                shard.get(pa.getStoreName()).addProduct(pa.getProductName(), pa.getPrice());
+            }
+            case REMOVE_PRODUCT -> {
+                ProductAction pa = (ProductAction) m.getPayload();
+                shard.get(pa.getStoreName()).removeProduct(pa.getProductName());
+            }
+            case RATE -> {
+                Rating rt = (Rating) m.getPayload();
+                shard.get(rt.getStoreName()).addRating(rt.getStars());
+            }
+            case SALE_BATCH -> {
+                SaleBatch b = (SaleBatch) m.getPayload();
+                for (Sale s : b.getSales()) {
+                    Restaurant r = shard.get(s.getStoreName());
+                    s.getItems().forEach((product, qty) -> r.addSale(product, qty, b.getTime()));
+                }
+            }
+            default -> throw new IllegalStateException("unexpected record " + m.getType());
+        }
+    }
+
+    private static Message sale(String store, String product, int qty) {
+        return new Message(Message.MessageType.SALE_BATCH,
+                new SaleBatch(List.of(new Sale(store, Map.of(product, qty))), 1_700_000_000_000L));
+    }
+
+    private static String describe(Map<String, Restaurant> shard) {
+        StringBuilder sb = new StringBuilder();
+        for (Restaurant r : shard.values()) {
+            sb.append(r.getName()).append(" avg=").append(String.format(Locale.ROOT, "%.3f", r.getAverageRating()))
+                    .append(" votes=").append(r.getNoOfVotes())
+                    .append(" menu=").append(new TreeSet<>(r.getProducts().keySet()))
+                    .append(" sales=").append(new TreeMap<>(r.getSales())).append("; ");
+        }
+        return sb.toString();
+    }
+
+    private static Path lastSegment(Path dir) throws IOException {
+        TreeSet<Path> segments = new TreeSet<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "wal-*.log")) {
+            for (Path p : ds) segments.add(p);
+        }
+        return segments.last();
+    }
+}
@@ -0,0 +1,207 @@
+package main;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class WorkerConnectionPool {
+    private static final int CHANNELS = Integer.getInteger("efood.workerChannels", 2);
+    // Reads, which are safe to send twice when an answer is lost
+    private static final Set<Message.MessageType> RETRYABLE = EnumSet.of(Message.MessageType.PING,
+            Message.MessageType.TASK, Message.MessageType.REPORT, Message.MessageType.DETAILS, Message.MessageType.STATS);
+    static final long REQUEST_TIMEOUT_MS = Long.getLong("efood.requestTimeoutMs", 30_000);
+
+    private final WorkerInfo worker;
+    private final PipelinedConnection[] channels = new PipelinedConnection[CHANNELS];
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean healthy = true;
+    private volatile boolean closed = false;
+    // When the worker last answered anything; the master's failure detector reads it
+    private volatile long lastSeen = System.nanoTime();
+    // lastSeen starts at creation; this tells a fresh pool apart from one that heard the worker
+    private volatile boolean answered = false;
+    private volatile CompletableFuture<?> heartbeat = CompletableFuture.completedFuture(null);
+    // When the first heartbeat sent since lastSeen went out; not after lastSeen = none outstanding
+    private volatile long probedAt = lastSeen;
+    // Searches and reports, timed for hedging; filled once, read without locking
+    private final Map<Message.MessageType, LatencyTracker> latencies = new EnumMap<>(Message.MessageType.class);
+
+    public WorkerConnectionPool(WorkerInfo worker) {
+        this.worker = worker;
+        latencies.put(Message.MessageType.TASK, new LatencyTracker());
+        latencies.put(Message.MessageType.REPORT, new LatencyTracker());
+    }
+
+    public Message send(Message msg) throws IOException {
+        return send(msg, REQUEST_TIMEOUT_MS);
+    }
+
+    /**
+     * Sends and waits up to {@code timeoutMs} for the answer. A timeout or interrupt is the
+     * caller giving up, not a broken link, so it neither drops the channels nor retries.
+     */
+    public Message send(Message msg, long timeoutMs) throws IOException {
+        int slot = Math.floorMod(next.getAndIncrement(), CHANNELS);
+        PipelinedConnection ch = channel(slot);
+        long t0 = System.nanoTime();
+        try {
+            Message resp = ch.request(msg, timeoutMs);
+            seen();
+            record(msg, t0);
+            return resp;
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // The worker probably restarted: drop every channel and retry once on a fresh one,
+            // unless the request is a write the worker may already have applied
+            closeChannels();
+            if (!RETRYABLE.contains(msg.getType()) && !(e instanceof PipelinedConnection.NotSentException)) {
+                throw e;
+            }
+            try {
+                Message resp = channel(slot).request(msg, timeoutMs);
+                seen();
+                record(msg, t0);
+                return resp;
+            } catch (InterruptedIOException e2) {
+                throw e2;
+            } catch (IOException e2) {
+                healthy = false;
+                throw e2;
+            }
+        }
+    }
+
+    /**
+     * Pipelined send without waiting; used to keep several requests in flight. The future
+     * fails if the worker has not answered within efood.requestTimeoutMs.
+     */
+    public CompletableFuture<Message> submit(Message msg) {
+        int slot = Math.floorMod(next.getAndIncrement(), CHANNELS);
+        long t0 = System.nanoTime();
+        try {
+            CompletableFuture<Message> f = channel(slot).submit(msg, REQUEST_TIMEOUT_MS);
+            f.whenComplete((resp, e) -> {
+                if (e == null) {
+                    seen();
+                    record(msg, t0);
+                } else {
+                    healthy = false;
+                }
+            });
+            return f;
+        } catch (IOException e) {
+            // Could not even connect; let replica selection skip it until it answers again
+            healthy = false;
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /** Recent answer times of {@code type} requests (TASK or REPORT); null for other types. */
+    public LatencyTracker latency(Message.MessageType type) {
+        return latencies.get(type);
+    }
+
+    /** The worker answered, or contacted the master itself: it is alive now. */
+    public void seen() {
+        healthy = true;
+        answered = true;
+        lastSeen = System.nanoTime();
+    }
+
+    /** Whether the worker ever answered through this pool. */
+    public boolean hasAnswered() {
+        return answered;
+    }
+
+    private void record(Message msg, long t0) {
+        LatencyTracker t = latencies.get(msg.getType());
+        if (t != null) t.record(System.nanoTime() - t0);
+    }
+
+    public boolean ping() {
+        try {
+            return send(new Message(Message.MessageType.PING, null)).getType() == Message.MessageType.PONG;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sends a PING unless the previous one is still unanswered. Never waits for the answer, so
+     * a stalled worker cannot hold up the caller; see {@link #silentMillis}.
+     */
+    public void heartbeat() {
+        if (!heartbeat.isDone()) return;
+        boolean open = true;
+        synchronized (this) {
+            for (PipelinedConnection ch : channels) {
+                if (ch != null && !ch.isOpen()) open = false;
+            }
+        }
+        if (!open) closeChannels();
+        if (probedAt - lastSeen <= 0) probedAt = System.nanoTime();
+        heartbeat = submit(new Message(Message.MessageType.PING, null));
+    }
+
+    /** Milliseconds since the worker last answered a request or heartbeat. */
+    public long silentMillis() {
+        return (System.nanoTime() - lastSeen) / 1_000_000;
+    }
+
+    /**
+     * Milliseconds the worker has left a heartbeat unanswered: since the first one sent after
+     * its last answer, or 0 if none was sent since. Unlike {@link #silentMillis}, a gap in the
+     * heartbeats themselves (the caller busy elsewhere) does not count against the worker.
+     */
+    public long unansweredMillis() {
+        long p = probedAt;
+        return p - lastSeen > 0 ? (System.nanoTime() - p) / 1_000_000 : 0;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public WorkerInfo getWorker() {
+        return worker;
+    }
+
+    public synchronized int inFlight() {
+        int n = 0;
+        for (PipelinedConnection ch : channels) {
+            if (ch != null) n += ch.inFlight();
+        }
+        return n;
+    }
+
+    public void close() {
+        closed = true;
+        closeChannels();
+    }
+
+    private synchronized PipelinedConnection channel(int slot) throws IOException {
+        if (closed) throw new IOException("pool closed for " + worker);
+        PipelinedConnection ch = channels[slot];
+        if (ch == null || !ch.isOpen()) {
+            ch = new PipelinedConnection(worker.getHost(), worker.getPort());
+            channels[slot] = ch;
+        }
+        return ch;
+    }
+
+    private synchronized void closeChannels() {
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] != null) {
+                channels[i].close();
+                channels[i] = null;
+            }
+        }
+    }
+}
@@ -1,81 +1,99 @@
 package main;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
 
-public class WorkerHandler implements Runnable {
-    private final Socket socket;
+public class WorkerHandler implements MessageHandler {
     private final WorkerNode worker;
 
-    public WorkerHandler(Socket socket, WorkerNode worker) {
-        this.socket = socket;
+    public WorkerHandler(WorkerNode worker) {
         this.worker = worker;
     }
 
     @Override
-    public void run() {
-        try (
-                socket;
-                ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
-                ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-        ) {
-            Message msg;
-            while ((msg = (Message) ois.readObject()) != null) {
-                System.out.println("WorkerHandler has received: " + msg.getType());
-                switch (msg.getType()) {
-                    case ADD_RESTAURANT -> {
-                        worker.addRestaurant((Restaurant) msg.getPayload());
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    case REMOVE_RESTAURANT -> {
-                        worker.removeRestaurant((Restaurant) msg.getPayload());
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    case ADD_PRODUCT -> {
-                        ProductAction pa = (ProductAction) msg.getPayload();
-                        worker.addProduct(pa.getStoreName(), pa.getProductName(), pa.getPrice());
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    case REMOVE_PRODUCT -> {
-                        ProductAction pa2 = (ProductAction) msg.getPayload();
-                        worker.removeProduct(pa2.getStoreName(), pa2.getProductName());
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    case RATE -> {
-                        Rating rt = (Rating) msg.getPayload();
-                        worker.rate(rt.getStoreName(), rt.getStars());
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                    }
-                    case TASK -> {
-                        FilterSpec fs = (FilterSpec) msg.getPayload();
-                        MapResult mr = worker.handleSearch(fs);
-                        oos.writeObject(new Message(Message.MessageType.RESULT, mr));
-                    }
-                    case SALE -> {
-                        Sale sale = (Sale) msg.getPayload();
-                        worker.handleSale(sale);
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "OK"));
-                        oos.flush();
-                    }
+    public Message handle(Message msg) throws IOException {
+        System.out.println("WorkerHandler has received: " + msg.getType());
+        switch (msg.getType()) {
+            case ADD_RESTAURANT -> {
+                worker.addRestaurant((Restaurant) msg.getPayload());
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case REMOVE_RESTAURANT -> {
+                worker.removeRestaurant((Restaurant) msg.getPayload());
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case ADD_PRODUCT -> {
+                ProductAction pa = (ProductAction) msg.getPayload();
+                worker.addProduct(pa.getStoreName(), pa.getProductName(), pa.getPrice());
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case REMOVE_PRODUCT -> {
+                ProductAction pa2 = (ProductAction) msg.getPayload();
+                worker.removeProduct(pa2.getStoreName(), pa2.getProductName());
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case RATE -> {
+                Rating rt = (Rating) msg.getPayload();
+                worker.rate(rt.getStoreName(), rt.getStars());
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case TASK -> {
+                FilterSpec fs = (FilterSpec) msg.getPayload();
+                MapResult mr = worker.handleSearch(fs);
+                return new Message(Message.MessageType.RESULT, mr);
+            }
+            case SALE -> {
+                Sale sale = (Sale) msg.getPayload();
+                worker.handleSale(sale);
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
 
-                    case REPORT -> {
-                        String type = (String) msg.getPayload();
-                        MapResult mr = worker.handleReport(type);
-                        oos.writeObject(new Message(Message.MessageType.RESULT, mr));
-                    }
-                    case PING -> {
-                        oos.writeObject(new Message(Message.MessageType.PONG, "OK"));
-                    }
-                    default -> {
-                        oos.writeObject(new Message(Message.MessageType.RESULT, "UNKNOWN"));
-                    }
+            case SALE_BATCH -> {
+                int applied = worker.handleSaleBatch((SaleBatch) msg.getPayload());
+                return new Message(Message.MessageType.RESULT, "OK " + applied);
+            }
+            case REPORT -> {
+                MapResult mr;
+                if (msg.getPayload() instanceof ReportRequest) {
+                    ReportRequest rq = (ReportRequest) msg.getPayload();
+                    mr = worker.handleReport(rq.getType(), rq.getScope());
+                } else {
+                    mr = worker.handleReport((String) msg.getPayload());
                 }
-                oos.flush();
+                return new Message(Message.MessageType.RESULT, mr);
+            }
+            case DETAILS -> {
+                return new Message(Message.MessageType.RESULT, worker.details((String) msg.getPayload()));
+            }
+            case MIGRATE_SHARD -> {
+                int sent = worker.migrateOut((ShardMigration) msg.getPayload());
+                return new Message(Message.MessageType.RESULT, "OK " + sent);
+            }
+            case MIGRATE_COMMIT -> {
+                int moved = worker.commitMigration((Long) msg.getPayload());
+                return new Message(Message.MessageType.RESULT, "OK " + moved);
+            }
+            case DROP_SHARD -> {
+                int dropped = worker.dropShard((ShardMigration) msg.getPayload());
+                return new Message(Message.MessageType.RESULT, "OK " + dropped);
+            }
+            case SHARD_BATCH -> {
+                worker.receiveBatch((ShardBatch) msg.getPayload());
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case SHARD_ACTIVATE -> {
+                int n = worker.activateStaged((Long) msg.getPayload());
+                return new Message(Message.MessageType.RESULT, "OK " + n);
+            }
+            case SHARD_ABORT -> {
+                worker.abortMigration((Long) msg.getPayload());
+                return new Message(Message.MessageType.RESULT, "OK");
+            }
+            case PING -> {
+                return new Message(Message.MessageType.PONG, "OK");
+            }
+            default -> {
+                return new Message(Message.MessageType.RESULT, "UNKNOWN");
             }
-        } catch (EOFException eof) {
-            // Normal close
-        } catch (Exception e) {
-            System.err.println("Error in WorkerHandler: " + e);
         }
     }
 }
@@ -1,6 +1,7 @@
 package main;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 
 public class WorkerInfo implements Serializable {
@@ -9,11 +10,18 @@ public class WorkerInfo implements Serializable {
     private final String id;
     private final String host;
     private final int port;
+    // Relative capacity; a worker of weight 2 gets twice the share of the hash ring
+    private final int weight;
 
     public WorkerInfo(String id, String host, int port) {
+        this(id, host, port, 1);
+    }
+
+    public WorkerInfo(String id, String host, int port, int weight) {
         this.id = id;
         this.host = host;
         this.port = port;
+        this.weight = weight;
     }
 
     public String getId() {
@@ -28,8 +36,26 @@ public class WorkerInfo implements Serializable {
         return port;
     }
 
+    public int getWeight() {
+        return weight;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof WorkerInfo)) return false;
+        WorkerInfo other = (WorkerInfo) o;
+        return port == other.port && id.equals(other.id) && host.equals(other.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, host, port);
+    }
+
     @Override
     public String toString() {
-        return "WorkerInfo{id='" + id + "', host='" + host + "', port=" + port + '}';
+        return "WorkerInfo{id='" + id + "', host='" + host + "', port=" + port +
+                (weight != 1 ? ", weight=" + weight : "") + '}';
     }
 }
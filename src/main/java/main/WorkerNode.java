@@ -1,170 +1,572 @@
 package main;
 
 import java.io.*;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 
 public class WorkerNode {
+    private static final double GRID_CELL_DEG =
+            Double.parseDouble(System.getProperty("efood.gridCellDeg", "0.05"));
+    private static final int CATALOG_SEGMENTS = Integer.getInteger("efood.catalogSegments",
+            Math.max(16, Runtime.getRuntime().availableProcessors()));
+    // Searches expected to visit at least this many restaurants fan out over the segments
+    private static final long PARALLEL_SEARCH_MIN = Long.getLong("efood.parallelSearchMin", 20_000);
+    private static final int SEARCH_THREADS = Integer.getInteger("efood.searchThreads",
+            Runtime.getRuntime().availableProcessors());
+
     private final WorkerInfo info;
-    private final List<Restaurant> restaurants = new ArrayList<>();
+    // Per-restaurant state is thread-safe on its own (concurrent menus, lock-free sales counters)
+    private final Map<String, Restaurant> restaurants = new ConcurrentHashMap<>();
+    // Searches read whichever snapshot is current without locking; writers take turns on
+    // catalogWriter to build and publish the next one
+    private volatile Catalog catalog = Catalog.empty(CATALOG_SEGMENTS, GRID_CELL_DEG);
+    private final Object catalogWriter = new Object();
+    // Set while a rating reindex is between reading an average and publishing its bucket
+    private volatile boolean reindexingRating;
+    // Runs the segments of large searches; null when there is only one thread to use
+    private final ForkJoinPool searchPool = SEARCH_THREADS > 1 ? new ForkJoinPool(SEARCH_THREADS) : null;
+    // Which restaurants sold what, so reports skip the rest of the shard
+    private final SalesViews salesViews = new SalesViews();
+
+    // Source side of shard migrations: restaurants being streamed out, and which changed since
+    private final Map<Long, OutgoingMigration> outgoing = new ConcurrentHashMap<>();
+    private final Map<String, OutgoingMigration> migrating = new ConcurrentHashMap<>();
+    // Target side: batches received but not yet visible to searches
+    private final Map<Long, Map<String, Restaurant>> staged = new ConcurrentHashMap<>();
+
+    // Optional durability (efood.dataDir): mutations are applied and logged under the read lock,
+    // a snapshot takes the write lock to line the shard up with a fresh log segment. Each
+    // mutation also holds the stripes of the restaurants it touches from apply to append, so
+    // the log orders the writes to one restaurant the way they were applied
+    private WorkerStore store;
+    private final ReadWriteLock persistLock = new ReentrantReadWriteLock();
+    private static final int LOG_STRIPES = 64;
+    private final ReentrantLock[] logStripes = new ReentrantLock[LOG_STRIPES];
+    private static final String DATA_DIR = System.getProperty("efood.dataDir");
+
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "worker-maintenance");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ExecutorService pipelineExecutor = ConnectionLoop.newPipelineExecutor(
+            "worker-pipeline", Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
 
     public WorkerNode(WorkerInfo info) {
         this.info = info;
+        for (int i = 0; i < LOG_STRIPES; i++) logStripes[i] = new ReentrantLock();
     }
 
     public void start(String masterHost, int masterPort) throws Exception {
+        if (DATA_DIR != null) {
+            openStore(Paths.get(DATA_DIR, info.getId()));
+        }
 
+        ServerEngine engine = ServerEngine.create(new WorkerHandler(this), pipelineExecutor);
+        engine.bind(info.getPort());
+        System.out.println("Worker " + info.getId() + " listening on " + info.getPort());
         new Thread(() -> {
-            try (ServerSocket server = new ServerSocket(info.getPort())) {
-                System.out.println("Worker " + info.getId() + " listening on " + info.getPort());
-                while (true) {
-                    Socket s = server.accept();
-                    new Thread(new WorkerHandler(s, this)).start();
-                }
+            try (engine) {
+                engine.serve();
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }).start();
 
         try (Socket sock = new Socket(masterHost, masterPort);
-             ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
-             ObjectInputStream  ois = new ObjectInputStream(sock.getInputStream())) {
-            oos.writeObject(new Message(Message.MessageType.REGISTER, info));
-            oos.flush();
-            Message resp = (Message) ois.readObject();
+             MessageChannel channel = MessageChannel.connect(sock, MessageCodec.preferred())) {
+            channel.write(new Message(Message.MessageType.REGISTER, new Registration(info, restaurants.size())));
+            Message resp = channel.read();
             System.out.println("Register response from Master: " + resp.getPayload());
         }
     }
 
-    public synchronized void addRestaurant(Restaurant r) {
+    public void addRestaurant(Restaurant r) throws IOException {
         System.out.println("Worker " + info.getId() + ": addRestaurant invoked for " + r.getName());
-        restaurants.add(r);
+        logged(new Message(Message.MessageType.ADD_RESTAURANT, r), () -> putRestaurant(r));
     }
 
-    public synchronized void removeRestaurant(Restaurant r) {
-        restaurants.removeIf(existing -> existing.getName().equals(r.getName()));
+    private void putRestaurant(Restaurant r) {
+        updateCatalog(c -> {
+            replaced(restaurants.put(r.getName(), r), r);
+            c.add(r);
+        });
     }
 
-    public synchronized void addProduct(String store, String product, double price) {
-        restaurants.stream()
-                .filter(r -> r.getName().equals(store))
-                .findFirst()
-                .ifPresent(r -> r.addProduct(product, price));
+    /** Applies {@code edit} to the next catalog snapshot and publishes it. */
+    private void updateCatalog(Consumer<Catalog.Editor> edit) {
+        synchronized (catalogWriter) {
+            Catalog.Editor next = catalog.edit();
+            edit.accept(next);
+            catalog = next.build();
+        }
     }
 
-    public synchronized void removeProduct(String store, String product) {
-        restaurants.stream()
-                .filter(r -> r.getName().equals(store))
-                .findFirst()
-                .ifPresent(r -> r.removeProduct(product));
+    private void replaced(Restaurant old, Restaurant r) {
+        if (old == r) return;
+        if (old != null) salesViews.detach(old);
+        salesViews.attach(r);
     }
 
-    public synchronized void rate(String store, int stars) {
-        restaurants.stream()
-                .filter(r -> r.getName().equals(store))
-                .findFirst()
-                .ifPresent(r -> r.addRating(stars));
+    public void removeRestaurant(Restaurant r) throws IOException {
+        logged(new Message(Message.MessageType.REMOVE_RESTAURANT, r.getName()),
+                () -> removeRestaurants(List.of(r.getName())));
     }
 
-    public synchronized MapResult handleSearch(FilterSpec fs) {
-        MapResult mr = new MapResult();
+    public void addProduct(String store, String product, double price) throws IOException {
+        logged(new Message(Message.MessageType.ADD_PRODUCT, new ProductAction(store, product, price)),
+                () -> applyAddProduct(store, product, price));
+        markDirty(store);
+    }
 
-        boolean skipDistance = fs.getLatitude() == 0.0 && fs.getLongitude() == 0.0;
+    private void applyAddProduct(String store, String product, double price) {
+        Restaurant r = restaurants.get(store);
+        if (r != null) r.addProduct(product, price);
+    }
 
-        boolean skipPrice    = fs.getPriceCategory() == null;
+    public void removeProduct(String store, String product) throws IOException {
+        logged(new Message(Message.MessageType.REMOVE_PRODUCT, new ProductAction(store, product, null)),
+                () -> applyRemoveProduct(store, product));
+        markDirty(store);
+    }
+
+    private void applyRemoveProduct(String store, String product) {
+        Restaurant r = restaurants.get(store);
+        if (r != null) r.removeProduct(product);
+    }
+
+    public void rate(String store, int stars) throws IOException {
+        if (!restaurants.containsKey(store) || !Restaurant.validRating(stars)) return;
+        logged(new Message(Message.MessageType.RATE, new Rating(store, stars)), () -> applyRate(store, stars));
+        markDirty(store);
+    }
+
+    private void applyRate(String store, int stars) {
+        Restaurant r = restaurants.get(store);
+        // Logs written before votes were capped may hold ones addRating now refuses
+        if (r == null || !Restaurant.validRating(stars)) return;
+        // The vote is one atomic add; the catalog lock is only taken when the average crosses a whole star
+        r.addRating(stars);
+        reindexRating(r);
+    }
+
+    /**
+     * Moves the restaurant to its new rating bucket before the vote is acknowledged, so a
+     * search the master runs after the ack (and after dropping its cached results) cannot be
+     * prefiltered on the old bucket. Most votes leave the bucket alone, which the published
+     * snapshot shows without a lock, unless another reindex is in flight: it may have read the
+     * average before this vote and publish after this check. Otherwise the check is repeated
+     * under catalogWriter, which waits that reindex out.
+     */
+    private void reindexRating(Restaurant r) {
+        if (!reindexingRating && catalog.ratingIndexed(r)) return;
+        synchronized (catalogWriter) {
+            if (catalog.ratingIndexed(r)) return;
+            reindexingRating = true;
+            try {
+                Catalog.Editor next = catalog.edit();
+                next.updateRating(r);
+                catalog = next.build();
+            } finally {
+                reindexingRating = false;
+            }
+        }
+    }
+
+    // ---- persistence ----
+
+    private void openStore(Path dir) throws IOException {
+        long t0 = System.nanoTime();
+        store = new WorkerStore(dir, info.getId());
+        long replayed = store.recover(this::putRestaurant, this::replay);
+        System.out.println("Worker " + info.getId() + ": recovered " + restaurants.size() + " restaurants ("
+                + replayed + " log records) in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+        maintenance.scheduleWithFixedDelay(this::maybeSnapshot, 10, 10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Applies a mutation and, when persistence is on, logs it. The caller is answered only
+     * once the record is on disk; the wait happens outside the lock so a group of concurrent
+     * mutations shares one fsync.
+     */
+    private void logged(Message record, Runnable mutation) throws IOException {
+        if (store == null) {
+            mutation.run();
+            return;
+        }
+        long seq;
+        persistLock.readLock().lock();
+        try {
+            BitSet stripes = lockStripes(keysOf(record));
+            try {
+                mutation.run();
+                seq = store.append(record);
+            } finally {
+                unlockStripes(stripes);
+            }
+        } finally {
+            persistLock.readLock().unlock();
+        }
+        store.awaitDurable(seq);
+    }
+
+    /** Restaurants a logged mutation touches. */
+    private static List<String> keysOf(Message record) {
+        Object p = record.getPayload();
+        List<String> keys = new ArrayList<>();
+        switch (record.getType()) {
+            case ADD_RESTAURANT -> keys.add(((Restaurant) p).getName());
+            case REMOVE_RESTAURANT -> keys.add((String) p);
+            case ADD_PRODUCT, REMOVE_PRODUCT -> keys.add(((ProductAction) p).getStoreName());
+            case RATE -> keys.add(((Rating) p).getStoreName());
+            case SHARD_BATCH -> {
+                for (Restaurant r : ((ShardBatch) p).getRestaurants()) keys.add(r.getName());
+            }
+            case SALE_BATCH -> {
+                for (Sale sale : ((SaleBatch) p).getSales()) keys.add(sale.getStoreName());
+            }
+            default -> throw new IllegalArgumentException("not a logged mutation: " + record.getType());
+        }
+        return keys;
+    }
+
+    /** Locks the stripes of {@code keys} in ascending order, so two mutations never wait on each other in a cycle. */
+    private BitSet lockStripes(Collection<String> keys) {
+        BitSet stripes = new BitSet(LOG_STRIPES);
+        for (String k : keys) stripes.set(Math.floorMod(k.hashCode(), LOG_STRIPES));
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) logStripes[i].lock();
+        return stripes;
+    }
+
+    private void unlockStripes(BitSet stripes) {
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) logStripes[i].unlock();
+    }
+
+    private void replay(Message m) {
+        switch (m.getType()) {
+            case ADD_RESTAURANT -> putRestaurant((Restaurant) m.getPayload());
+            case REMOVE_RESTAURANT -> removeRestaurants(List.of((String) m.getPayload()));
+            case SHARD_BATCH -> {
+                for (Restaurant r : ((ShardBatch) m.getPayload()).getRestaurants()) putRestaurant(r);
+            }
+            case ADD_PRODUCT -> {
+                ProductAction pa = (ProductAction) m.getPayload();
+                applyAddProduct(pa.getStoreName(), pa.getProductName(), pa.getPrice());
+            }
+            case REMOVE_PRODUCT -> {
+                ProductAction pa = (ProductAction) m.getPayload();
+                applyRemoveProduct(pa.getStoreName(), pa.getProductName());
+            }
+            case RATE -> {
+                Rating rt = (Rating) m.getPayload();
+                applyRate(rt.getStoreName(), rt.getStars());
+            }
+            case SALE -> applySale((Sale) m.getPayload(), System.currentTimeMillis());
+            case SALE_BATCH -> {
+                SaleBatch b = (SaleBatch) m.getPayload();
+                for (Sale s : b.getSales()) applySale(s, b.getTime() != 0 ? b.getTime() : System.currentTimeMillis());
+            }
+            default -> System.err.println("WAL: skipping unexpected record " + m.getType());
+        }
+    }
+
+    private void maybeSnapshot() {
+        try {
+            if (store.shouldSnapshot()) snapshot();
+        } catch (IOException e) {
+            System.err.println("Worker " + info.getId() + ": snapshot failed: " + e);
+        }
+    }
+
+    /** Copies the shard while mutations are paused; writing it out, the fsync and cleanup run after resuming. */
+    public void snapshot() throws IOException {
+        WorkerStore.SnapshotWriter s;
+        persistLock.writeLock().lock();
+        try {
+            s = store.beginSnapshot(restaurants.values());
+        } finally {
+            persistLock.writeLock().unlock();
+        }
+        store.commitSnapshot(s);
+    }
+
+    // ---- shard migration ----
+
+    /**
+     * Source side: streams the listed restaurants to the target in batches. They stay live here
+     * (and keep taking writes) until {@link #commitMigration}; anything written meanwhile is
+     * remembered and re-sent at commit.
+     */
+    public int migrateOut(ShardMigration m) throws IOException {
+        WorkerInfo t = m.getTarget();
+        OutgoingMigration out = new OutgoingMigration(m, new PipelinedConnection(t.getHost(), t.getPort()));
+        outgoing.put(m.getId(), out);
+        List<Restaurant> toSend = new ArrayList<>(m.getNames().size());
+        for (String name : m.getNames()) {
+            migrating.put(name, out);
+            Restaurant r = restaurants.get(name);
+            if (r != null) toSend.add(r);
+        }
+        try {
+            int sent = ShardStreamer.stream(out.conn::submit, m.getId(), toSend);
+            System.out.println("Worker " + info.getId() + ": streamed " + sent + " restaurants to " + t.getId());
+            return sent;
+        } catch (IOException e) {
+            abortOutgoing(out);
+            throw e;
+        }
+    }
+
+    /** Source side cut-over: re-send what changed, make the target serve it, then drop it here. */
+    public int commitMigration(long id) throws IOException {
+        OutgoingMigration out = outgoing.get(id);
+        if (out == null) throw new IOException("unknown migration " + id);
+        try {
+            List<Restaurant> dirty = new ArrayList<>();
+            for (String name : out.dirty) {
+                Restaurant r = restaurants.get(name);
+                if (r != null) dirty.add(r);
+            }
+            ShardStreamer.stream(out.conn::submit, id, dirty);
+            Message resp = out.conn.request(new Message(Message.MessageType.SHARD_ACTIVATE, id));
+            if (ShardStreamer.isError(resp)) throw new IOException(String.valueOf(resp.getPayload()));
+        } catch (IOException e) {
+            abortOutgoing(out);
+            throw e;
+        }
+        // A copy made a new replica; this one stays
+        if (!out.migration.isCopy()) {
+            logBulk(Message.MessageType.REMOVE_RESTAURANT, out.migration.getNames(),
+                    () -> removeRestaurants(out.migration.getNames()));
+        }
+        finishOutgoing(out);
+        return out.migration.getNames().size();
+    }
+
+    /** This worker is no longer a replica of these restaurants. */
+    public int dropShard(ShardMigration m) throws IOException {
+        logBulk(Message.MessageType.REMOVE_RESTAURANT, m.getNames(), () -> removeRestaurants(m.getNames()));
+        return m.getNames().size();
+    }
+
+    /** Target side: stage a batch, or add it directly when it is not part of a migration. */
+    public void receiveBatch(ShardBatch batch) throws IOException {
+        if (batch.getMigrationId() == 0L) {
+            logged(new Message(Message.MessageType.SHARD_BATCH, batch), () -> addRestaurants(batch.getRestaurants()));
+            return;
+        }
+        Map<String, Restaurant> s = staged.computeIfAbsent(batch.getMigrationId(), k -> new ConcurrentHashMap<>());
+        for (Restaurant r : batch.getRestaurants()) s.put(r.getName(), r);
+    }
+
+    public int activateStaged(long id) throws IOException {
+        Map<String, Restaurant> s = staged.remove(id);
+        if (s == null) return 0;
+        List<Restaurant> batch = new ArrayList<>(s.values());
+        logged(new Message(Message.MessageType.SHARD_BATCH, new ShardBatch(0L, batch)), () -> addRestaurants(batch));
+        return batch.size();
+    }
+
+    /** Drops a staged shard (target side), or gives up a migration out of here (source side). */
+    public void abortMigration(long id) {
+        staged.remove(id);
+        OutgoingMigration out = outgoing.get(id);
+        if (out != null) abortOutgoing(out);
+    }
 
-        for (Restaurant r : restaurants) {
-            boolean distMatch = true;
-            if (!skipDistance) {
-                double dist = haversine(
-                        fs.getLatitude(), fs.getLongitude(),
-                        r.getLatitude(), r.getLongitude());
-                distMatch = dist <= fs.getRadiusKm();
+    private void addRestaurants(Collection<Restaurant> batch) {
+        updateCatalog(c -> {
+            for (Restaurant r : batch) {
+                replaced(restaurants.put(r.getName(), r), r);
+                c.add(r);
             }
+        });
+    }
+
+    /** One log record per name, one fsync for all of them. */
+    private void logBulk(Message.MessageType type, List<String> names, Runnable mutation) throws IOException {
+        if (store == null) {
+            mutation.run();
+            return;
+        }
+        long seq = 0;
+        persistLock.readLock().lock();
+        try {
+            BitSet stripes = lockStripes(names);
+            try {
+                mutation.run();
+                for (String name : names) seq = store.append(new Message(type, name));
+            } finally {
+                unlockStripes(stripes);
+            }
+        } finally {
+            persistLock.readLock().unlock();
+        }
+        store.awaitDurable(seq);
+    }
+
+    private void removeRestaurants(Collection<String> names) {
+        updateCatalog(c -> {
+            for (String name : names) {
+                Restaurant old = restaurants.remove(name);
+                if (old != null) salesViews.detach(old);
+                c.remove(name);
+            }
+        });
+    }
+
+    private void markDirty(String store) {
+        OutgoingMigration out = migrating.get(store);
+        if (out != null) out.dirty.add(store);
+    }
+
+    private void abortOutgoing(OutgoingMigration out) {
+        try {
+            out.conn.submit(new Message(Message.MessageType.SHARD_ABORT, out.migration.getId()));
+        } finally {
+            finishOutgoing(out);
+        }
+    }
 
+    private void finishOutgoing(OutgoingMigration out) {
+        outgoing.remove(out.migration.getId());
+        for (String name : out.migration.getNames()) migrating.remove(name, out);
+        out.conn.close();
+    }
+
+    private static final class OutgoingMigration {
+        final ShardMigration migration;
+        final PipelinedConnection conn;
+        final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+        OutgoingMigration(ShardMigration migration, PipelinedConnection conn) {
+            this.migration = migration;
+            this.conn = conn;
+        }
+    }
+
+    public MapResult handleSearch(FilterSpec fs) {
+        MapResult mr = new MapResult();
+
+        boolean skipPrice    = fs.getPriceCategory() == null;
+        TokenScope scope = fs.getScope();
+
+        BiConsumer<TopK, Restaurant> check = (top, r) -> {
+            // Another replica answers for restaurants outside our scope
+            if (scope != null && !scope.contains(r.getPlacementToken())) return;
             boolean catMatch   = fs.getFoodCategories().isEmpty()
                     || fs.getFoodCategories().contains(r.getFoodCategory());
             boolean starsMatch = r.getAverageRating() >= fs.getMinStars();
             boolean priceMatch = skipPrice
                     || r.getPriceCategory() == fs.getPriceCategory();
 
-            if (distMatch && catMatch && starsMatch && priceMatch) {
-                mr.addRestaurant(r);
+            if (catMatch && starsMatch && priceMatch) {
+                top.offer(r);
             }
+        };
+
+        // The index plans the scan (bitmaps and/or grid cells); check stays the exact filter.
+        // No lock: the snapshot read here never changes, writes publish a new one
+        Catalog snapshot = catalog;
+        TopK top = new TopK(fs);
+        if (searchPool != null && snapshot.cost(fs) >= PARALLEL_SEARCH_MIN) {
+            // Large scan: every segment on its own core with its own TopK, merged here
+            for (TopK part : snapshot.searchParallel(fs, () -> new TopK(fs), check, searchPool)) {
+                top.addAll(part);
+            }
+        } else {
+            snapshot.search(fs, r -> check.accept(top, r));
+        }
+        // Ranked results leave sorted, best first, so the master only has to merge them
+        if (fs.isSummary()) {
+            Set<RestaurantSummary.Field> fields = fs.getSummaryFields();
+            for (Restaurant r : top.sorted()) mr.appendSummary(new RestaurantSummary(r, fields));
+        } else {
+            for (Restaurant r : top.sorted()) mr.appendRestaurant(r);
         }
         return mr;
     }
 
+    /** Full record of one restaurant, for clients that listed it as a summary; null if not here. */
+    public Restaurant details(String name) {
+        return restaurants.get(name);
+    }
 
 
 
-    public synchronized void handleSale(Sale sale) {
-        restaurants.stream()
-                .filter(r -> r.getName().equals(sale.getStoreName()))
-                .findFirst()
-                .ifPresent(r -> {
-                    Map<String, Product> availableProducts = r.getProducts();
-                    for (Map.Entry<String, Integer> item : sale.getItems().entrySet()) {
-                        String productName = item.getKey();
-                        int qty = item.getValue();
-                        if (availableProducts.containsKey(productName)) {
-                            r.addSale(productName, qty);
-                        } else {
-                            System.out.println("Not valid product name: '" + productName + "' does not exist on " + r.getName());
-                        }
-                    }
-                });
-    }
-
 
+    public void handleSale(Sale sale) throws IOException {
+        if (!restaurants.containsKey(sale.getStoreName())) return;
+        // Logged as a one-sale batch so the record carries its time
+        long now = System.currentTimeMillis();
+        logged(new Message(Message.MessageType.SALE_BATCH, new SaleBatch(List.of(sale), now)), () -> applySale(sale, now));
+        markDirty(sale.getStoreName());
+    }
 
-    public synchronized MapResult handleReport(String type) {
-        MapResult mr = new MapResult();
+    /** Applies a coalesced batch with one log record (and one fsync); returns the sales applied. */
+    public int handleSaleBatch(SaleBatch batch) throws IOException {
+        List<Sale> mine = new ArrayList<>(batch.getSales().size());
+        for (Sale s : batch.getSales()) {
+            if (restaurants.containsKey(s.getStoreName())) mine.add(s);
+        }
+        if (mine.isEmpty()) return 0;
+        long at = batch.getTime() != 0 ? batch.getTime() : System.currentTimeMillis();
+        logged(new Message(Message.MessageType.SALE_BATCH, new SaleBatch(mine, at)), () -> {
+            for (Sale s : mine) applySale(s, at);
+        });
+        for (Sale s : mine) markDirty(s.getStoreName());
+        return mine.size();
+    }
 
-        if ("all".equals(type)) {
-            for (Restaurant r : restaurants) {
-                r.getSales().forEach(mr::addVenta);
-            }
-        } else if (type.startsWith("food:")) {
-            String foodCat = type.substring("food:".length()).toLowerCase();
-            for (Restaurant r : restaurants) {
-                if (r.getFoodCategory().equalsIgnoreCase(foodCat)) {
-                    int totalSales = r.getSales().values().stream().mapToInt(Integer::intValue).sum();
-                    if (totalSales > 0) {
-                        mr.addVenta(r.getName(), totalSales);
-                    }
-                }
-            }
-        } else if (type.startsWith("product:")) {
-            String product = type.substring("product:".length()).toLowerCase();
-            for (Restaurant r : restaurants) {
-                r.getSales().forEach((productName, quantity) -> {
-                    if (productName.equalsIgnoreCase(product)) {
-                        mr.addVenta(r.getName(), quantity);
-                    }
-                });
+    private void applySale(Sale sale, long at) {
+        Restaurant r = restaurants.get(sale.getStoreName());
+        if (r == null) return;
+        Map<String, Product> availableProducts = r.getProducts();
+        for (Map.Entry<String, Integer> item : sale.getItems().entrySet()) {
+            String productName = item.getKey();
+            int qty = item.getValue();
+            if (availableProducts.containsKey(productName)) {
+                if (r.addSale(productName, qty, at)) salesViews.sold(r, productName);
+            } else {
+                System.out.println("Not valid product name: '" + productName + "' does not exist on " + r.getName());
             }
         }
+    }
 
-        return mr;
+
+
+    /** Reads only the restaurants the sales views list for {@code type}, never the whole shard. */
+    public MapResult handleReport(String type) {
+        return handleReport(type, null);
     }
 
-    private static double haversine(double lat1, double lon1, double lat2, double lon2) {
-        double R = 6371.0088; // km
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(dLat/2)*Math.sin(dLat/2)
-                + Math.cos(Math.toRadians(lat1))
-                * Math.cos(Math.toRadians(lat2))
-                * Math.sin(dLon/2)*Math.sin(dLon/2);
-        return R * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
+    /** Same, counting only restaurants whose placement token is in {@code scope} (null = all). */
+    public MapResult handleReport(String type, TokenScope scope) {
+        MapResult mr = new MapResult();
+        salesViews.report(type, r -> restaurants.get(r.getName()) == r
+                && (scope == null || scope.contains(r.getPlacementToken())), mr);
+        return mr;
     }
 
     public static void main(String[] args) throws Exception {
 
-        WorkerInfo info = new WorkerInfo(args[0], args[1], Integer.parseInt(args[2]));
+        int weight = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+        WorkerInfo info = new WorkerInfo(args[0], args[1], Integer.parseInt(args[2]), weight);
         String masterHost = args[3];
         int masterPort = Integer.parseInt(args[4]);
         new WorkerNode(info).start(masterHost, masterPort);
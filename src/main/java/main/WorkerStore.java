@@ -0,0 +1,161 @@
+package main;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * On-disk state of one worker: the latest snapshot plus the log segments written after it.
+ *
+ * snapshot-N.bin holds the whole shard as it was when log segment N was started, so recovery
+ * loads it and replays segments N, N+1, ... Older snapshots and segments are deleted once a
+ * newer snapshot is safely renamed into place.
+ */
+public class WorkerStore implements Closeable {
+    static final long SNAPSHOT_BYTES = Long.getLong("efood.snapshotBytes", 64L << 20);
+    static final long SNAPSHOT_INTERVAL_MS = Long.getLong("efood.snapshotIntervalSec", 300) * 1000;
+    private static final int SNAPSHOT_BATCH = 1000;
+
+    private final Path dir;
+    private final String name;
+    private final MessageCodec codec = new BinaryCodec();
+    private WriteAheadLog wal;
+    private volatile long lastSnapshotAt = System.currentTimeMillis();
+
+    public WorkerStore(Path dir, String name) throws IOException {
+        this.dir = dir;
+        this.name = name;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * Restores the snapshot through {@code restore}, replays the log tail through {@code replay}
+     * and opens a fresh segment for new writes. Returns the number of records replayed.
+     */
+    public long recover(Consumer<Restaurant> restore, Consumer<Message> replay) throws IOException {
+        // Left by a crash before the rename; the snapshot it was becoming never counted
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "snapshot-*.tmp")) {
+            for (Path p : ds) Files.deleteIfExists(p);
+        }
+        TreeMap<Long, Path> snapshots = list("snapshot-", ".bin");
+        TreeMap<Long, Path> segments = list("wal-", ".log");
+        long from = 0;
+        if (!snapshots.isEmpty()) {
+            from = snapshots.lastKey();
+            long end = WriteAheadLog.readFrames(snapshots.lastEntry().getValue(), 0, m -> {
+                for (Restaurant r : ((ShardBatch) m.getPayload()).getRestaurants()) restore.accept(r);
+            });
+            if (end != Files.size(snapshots.lastEntry().getValue())) {
+                throw new IOException("corrupt snapshot " + snapshots.lastEntry().getValue());
+            }
+        }
+        long[] replayed = {0};
+        long next = from;
+        for (var e : segments.tailMap(from, true).entrySet()) {
+            long end = WriteAheadLog.readFrames(e.getValue(), 0, m -> {
+                replay.accept(m);
+                replayed[0]++;
+            });
+            if (end != Files.size(e.getValue())) {
+                System.err.println("WAL: torn tail in " + e.getValue().getFileName() + " at " + end + ", truncating");
+                WriteAheadLog.truncate(e.getValue(), end);
+            }
+            next = e.getKey() + 1;
+        }
+        wal = new WriteAheadLog(dir, next, name);
+        return replayed[0];
+    }
+
+    public long append(Message record) throws IOException {
+        return wal.append(record);
+    }
+
+    public void awaitDurable(long seq) throws IOException {
+        wal.awaitDurable(seq);
+    }
+
+    public boolean shouldSnapshot() throws IOException {
+        long bytes = wal.segmentBytes();
+        return bytes >= SNAPSHOT_BYTES
+                || (bytes > 0 && System.currentTimeMillis() - lastSnapshotAt >= SNAPSHOT_INTERVAL_MS);
+    }
+
+    /**
+     * Starts a snapshot: rotates the log and copies the shard. Must run with mutations paused
+     * so the copy matches the new segment's starting point exactly; the copy is only read
+     * afterwards, so {@link #commitSnapshot} can write it out once mutations resume.
+     */
+    public SnapshotWriter beginSnapshot(Collection<Restaurant> shard) throws IOException {
+        long segment = wal.rotate();
+        List<Restaurant> view = new ArrayList<>(shard.size());
+        for (Restaurant r : shard) view.add(r.copy());
+        return new SnapshotWriter(segment, view);
+    }
+
+    /** Finishes a snapshot outside the pause: write and fsync it, publish it, and drop what it supersedes. */
+    public void commitSnapshot(SnapshotWriter s) throws IOException {
+        Path tmp = dir.resolve("snapshot-" + s.segment + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+            for (int i = 0; i < s.view.size(); i += SNAPSHOT_BATCH) {
+                writeBatch(out, s.view.subList(i, Math.min(s.view.size(), i + SNAPSHOT_BATCH)));
+            }
+        }
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Path target = dir.resolve(String.format("snapshot-%016d.bin", s.segment));
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // The rename must be on disk before the files it replaces are gone, or a crash can lose both
+        WriteAheadLog.syncDirectory(dir);
+        for (Path p : list("snapshot-", ".bin").headMap(s.segment).values()) Files.deleteIfExists(p);
+        for (Path p : list("wal-", ".log").headMap(s.segment).values()) Files.deleteIfExists(p);
+        lastSnapshotAt = System.currentTimeMillis();
+        System.out.println("Worker " + name + ": snapshot of " + s.view.size() + " restaurants at segment " + s.segment);
+    }
+
+    private void writeBatch(OutputStream out, List<Restaurant> batch) throws IOException {
+        out.write(WriteAheadLog.frame(codec.encode(
+                new Message(Message.MessageType.SHARD_BATCH, new ShardBatch(0L, batch)))));
+    }
+
+    private TreeMap<Long, Path> list(String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for (Path p : ds) {
+                String f = p.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(f.substring(prefix.length(), f.length() - suffix.length())), p);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return files;
+    }
+
+    @Override
+    public void close() {
+        if (wal != null) wal.close();
+    }
+
+    public static final class SnapshotWriter {
+        final long segment;
+        final List<Restaurant> view;
+
+        SnapshotWriter(long segment, List<Restaurant> view) {
+            this.segment = segment;
+            this.view = view;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of worker mutations, split in numbered segment files.
+ *
+ * Records are framed as [length][crc32][binary-codec message]. Appenders only copy their frame
+ * into a shared buffer; one writer thread drains it with a single write + fsync, so every
+ * mutation that arrived during the previous fsync is made durable by the next one (group commit).
+ */
+public class WriteAheadLog implements Closeable {
+    private static final boolean SYNC = Boolean.parseBoolean(System.getProperty("efood.walSync", "true"));
+    private static final int MAP_WINDOW = 256 << 20;
+
+    private final Path dir;
+    private final MessageCodec codec = new BinaryCodec();
+    private final Object lock = new Object();
+    private final Object fileLock = new Object();
+
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private boolean closed;
+
+    private long segment;
+    private FileChannel channel;
+    private final Thread writer;
+
+    public WriteAheadLog(Path dir, long segment, String name) throws IOException {
+        this.dir = dir;
+        this.segment = segment;
+        this.channel = open(segment);
+        this.writer = new Thread(this::writeLoop, "wal-writer-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    static Path segmentPath(Path dir, long segment) {
+        return dir.resolve(String.format("wal-%016d.log", segment));
+    }
+
+    /** Queues a record and returns its sequence number for {@link #awaitDurable}. */
+    public long append(Message record) throws IOException {
+        byte[] frame = frame(codec.encode(record));
+        synchronized (lock) {
+            if (failure != null) throw failure;
+            if (closed) throw new IOException("log closed");
+            pending.write(frame, 0, frame.length);
+            lock.notifyAll();
+            return ++appended;
+        }
+    }
+
+    public void awaitDurable(long seq) throws IOException {
+        synchronized (lock) {
+            while (durable < seq && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting for log flush", e);
+                }
+            }
+            if (durable < seq) throw failure;
+        }
+    }
+
+    /**
+     * Flushes what is queued and starts a new segment. Callers must keep appends out meanwhile
+     * (the worker holds its persistence write lock), so the returned segment starts exactly
+     * where the caller's snapshot is taken.
+     */
+    public long rotate() throws IOException {
+        long last;
+        synchronized (lock) {
+            last = appended;
+        }
+        awaitDurable(last);
+        synchronized (fileLock) {
+            channel.force(false);
+            channel.close();
+            segment++;
+            channel = open(segment);
+            return segment;
+        }
+    }
+
+    public long segmentBytes() throws IOException {
+        synchronized (fileLock) {
+            return channel.size();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            byte[] batch;
+            long upTo;
+            synchronized (lock) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.size() == 0) return;
+                batch = pending.toByteArray();
+                pending.reset();
+                upTo = appended;
+            }
+            try {
+                synchronized (fileLock) {
+                    ByteBuffer buf = ByteBuffer.wrap(batch);
+                    while (buf.hasRemaining()) channel.write(buf);
+                    if (SYNC) channel.force(false);
+                }
+                synchronized (lock) {
+                    durable = upTo;
+                    lock.notifyAll();
+                }
+            } catch (IOException e) {
+                System.err.println("WAL write failed: " + e);
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private FileChannel open(long seg) throws IOException {
+        return FileChannel.open(segmentPath(dir, seg),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+            synchronized (fileLock) {
+                channel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // ---- framing, shared with snapshots ----
+
+    static byte[] frame(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        ByteBuffer b = ByteBuffer.allocate(8 + body.length);
+        b.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        return b.array();
+    }
+
+    /**
+     * Memory-maps {@code file} from {@code start} and hands every intact frame to {@code out}.
+     * Stops at the first short, empty, corrupt or undecodable frame (a torn tail after a crash,
+     * or the zeros a filesystem can leave past the last write) and returns the offset just past
+     * the last good one.
+     */
+    static long readFrames(Path file, long start, Consumer<Message> out) throws IOException {
+        MessageCodec codec = new BinaryCodec();
+        CRC32 crc = new CRC32();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long pos = start;
+            byte[] body = new byte[0];
+            while (pos + 8 <= size) {
+                // Remap per window; a frame never straddles a mapping because we remap at its start
+                MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(size - pos, MAP_WINDOW));
+                boolean progressed = false;
+                while (map.remaining() >= 8) {
+                    int at = map.position();
+                    int len = map.getInt();
+                    int sum = map.getInt();
+                    // Every message encodes to at least a byte, so len 0 is unwritten space, not a frame
+                    if (len <= 0 || pos + at + 8L + len > size) return pos + at;
+                    if (len > map.remaining()) {
+                        if (!progressed && len + 8L > MAP_WINDOW) {
+                            throw new IOException("record larger than map window in " + file);
+                        }
+                        pos += at;
+                        break;
+                    }
+                    if (body.length < len) body = new byte[len];
+                    map.get(body, 0, len);
+                    crc.reset();
+                    crc.update(body, 0, len);
+                    if ((int) crc.getValue() != sum) return pos + at;
+                    Message m;
+                    try {
+                        m = codec.decode(body, 0, len);
+                    } catch (IOException e) {
+                        return pos + at;
+                    }
+                    out.accept(m);
+                    progressed = true;
+                    if (map.remaining() < 8) pos += map.position();
+                }
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * Fsyncs {@code dir} so renames and deletions in it survive a crash. Not every platform lets
+     * a directory be opened (Windows does not), and there the rename is as durable as it gets.
+     */
+    static void syncDirectory(Path dir) throws IOException {
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (ch) {
+            ch.force(true);
+        }
+    }
+
+    static void truncate(Path file, long length) throws IOException {
+        if (Files.size(file) <= length) return;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(length);
+            ch.force(true);
+        }
+    }
+}